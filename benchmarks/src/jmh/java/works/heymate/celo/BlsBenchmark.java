@@ -0,0 +1,77 @@
+package works.heymate.celo;
+
+import org.celo.BlindThresholdBlsModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blinding of phone numbers before they are sent to ODIS, one by one and in batches as contact sync does.
+ * Needs the host build of blind_threshold_bls, see the README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlsBenchmark {
+
+    @Param({ "1", "64" })
+    public int batchSize;
+
+    private byte[][] mPhoneNumbers;
+
+    @Setup
+    public void setup() {
+        mPhoneNumbers = new byte[batchSize][];
+
+        for (int i = 0; i < batchSize; i++) {
+            mPhoneNumbers[i] = ("+1555" + (1000000 + i)).getBytes(Charset.forName("UTF-8"));
+        }
+    }
+
+    @Benchmark
+    public int blind() {
+        int length = 0;
+
+        for (byte[] phoneNumber: mPhoneNumbers) {
+            try (BlindThresholdBlsModule.Blinding blinding = BlindThresholdBlsModule.get().blind(phoneNumber)) {
+                length += blinding.getBlindedMessage().length;
+            }
+        }
+
+        return length;
+    }
+
+    @Benchmark
+    public int blindBatch() {
+        int length = 0;
+
+        for (BlindThresholdBlsModule.Blinding blinding: BlindThresholdBlsModule.get().blind(mPhoneNumbers)) {
+            length += blinding.getBlindedMessage().length;
+            blinding.close();
+        }
+
+        return length;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int blindConcurrently() {
+        return blind();
+    }
+
+}
@@ -0,0 +1,110 @@
+package works.heymate.celo;
+
+import org.celo.contractkit.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Keys;
+import org.web3j.crypto.Sign;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing and signature checks done for every issuer metadata and every phone number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+
+    @Param({ "1", "4" })
+    public int claimCount;
+
+    private byte[] mMessage;
+    private String mSignature;
+    private String mSigner;
+
+    private List<AttestationRequester.Claim> mClaims;
+
+    private String mLowerCaseAddress;
+
+    private String mPhoneNumber;
+    private String mSalt;
+
+    @Setup
+    public void setup() throws Throwable {
+        ECKeyPair keyPair = ECKeyPair.create(BigInteger.valueOf(0x1234567890ABCDEFL).pow(4));
+
+        mSigner = "0x" + Keys.getAddress(keyPair);
+        mLowerCaseAddress = mSigner.toLowerCase();
+
+        StringBuilder metadata = new StringBuilder("{\"claims\":[");
+
+        for (int i = 0; i < claimCount; i++) {
+            if (i > 0) {
+                metadata.append(',');
+            }
+
+            metadata.append("{\"url\":\"https://attestation-service-").append(i).append(".example.org\",")
+                    .append("\"timestamp\":").append(1600000000 + i).append(",")
+                    .append("\"type\":\"ATTESTATION_SERVICE_URL\"}");
+        }
+
+        metadata.append("],\"meta\":{\"address\":\"").append(mSigner).append("\",\"signature\":\"0x\"}}");
+
+        mClaims = MetadataParser.parse(metadata.toString().getBytes(Charset.forName("UTF-8"))).claims;
+
+        mMessage = AttestationRequester.hashOfClaims(mClaims);
+
+        Sign.SignatureData signatureData = Sign.signPrefixedMessage(mMessage, keyPair);
+
+        mSignature = Numeric.toHexString(signatureData.getR())
+                + Numeric.toHexStringNoPrefix(signatureData.getS())
+                + Numeric.toHexStringNoPrefix(signatureData.getV());
+
+        mPhoneNumber = "+15555550100";
+        mSalt = Numeric.toHexStringNoPrefix("benchmark salt".getBytes(Charset.forName("UTF-8"))).substring(0, 13);
+    }
+
+    @Benchmark
+    public Sign.SignatureData verifySignature() {
+        return AttestationRequester.verifySignature(mMessage, mSignature, mSigner);
+    }
+
+    @Benchmark
+    public byte[] hashOfClaims() {
+        return AttestationRequester.hashOfClaims(mClaims);
+    }
+
+    @Benchmark
+    public String toChecksumAddress() {
+        return AttestationRequester.toChecksumAddress(mLowerCaseAddress);
+    }
+
+    @Benchmark
+    public byte[] getPhoneHash() {
+        return Utils.getPhoneHash(mPhoneNumber, mSalt);
+    }
+
+    @Benchmark
+    public byte[] getCachedIdentifier() {
+        return IdentifierCache.get().getIdentifier(mPhoneNumber, mSalt);
+    }
+
+}
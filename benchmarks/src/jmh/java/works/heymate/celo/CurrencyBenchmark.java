@@ -0,0 +1,37 @@
+package works.heymate.celo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurrencyBenchmark {
+
+    private final long mCents = 123_456L;
+    private final BigInteger mValue = new BigInteger("1234567890000000000000");
+
+    @Benchmark
+    public BigInteger centsToBlockChainValue() {
+        return CurrencyUtil.centsToBlockChainValue(mCents);
+    }
+
+    @Benchmark
+    public long blockChainValueToCents() {
+        return CurrencyUtil.blockChainValueToCents(mValue);
+    }
+
+}
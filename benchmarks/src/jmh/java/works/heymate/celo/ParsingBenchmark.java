@@ -0,0 +1,119 @@
+package works.heymate.celo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of node and issuer responses and of the attestation messages users paste in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Typical issuer metadata is a few KB, node responses for batched reads reach tens of KB.
+    @Param({ "2048", "65536" })
+    public int responseSize;
+
+    private byte[] mResponse;
+    private byte[] mMetadata;
+
+    private List<BigInteger> mStringLengths;
+    private byte[] mStringData;
+
+    private String mAttestationMessage;
+    private String mSecurityCodeMessage;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder("{\"claims\":[");
+
+        while (sb.length() < responseSize) {
+            // Multi-byte characters make sure the UTF-8 decoding path is exercised.
+            sb.append("{\"type\":\"NAME\",\"name\":\"Validator éè 中文\",\"timestamp\":1600000000},");
+        }
+
+        sb.setLength(responseSize - 2);
+        sb.append("]}");
+
+        mResponse = sb.toString().getBytes(UTF_8);
+
+        StringBuilder metadata = new StringBuilder("{\n  \"claims\": [");
+
+        for (int i = 0; metadata.length() < responseSize; i++) {
+            metadata.append(i == 0 ? "\n    " : ",\n    ")
+                    .append("{\"type\": \"NAME\", \"name\": \"Validator éè 中文\", \"timestamp\": ").append(1600000000 + i)
+                    .append("}");
+        }
+
+        metadata.append("\n  ],\n  \"meta\": {\"address\": \"0x0000000000000000000000000000000000000001\", ")
+                .append("\"signature\": \"0x\"}\n}");
+
+        mMetadata = metadata.toString().getBytes(UTF_8);
+
+        mStringLengths = new ArrayList<>();
+        StringBuilder stringData = new StringBuilder();
+
+        for (int i = 0; i < 10; i++) {
+            String url = "https://attestation-service-" + i + ".example.org/metadata.json";
+
+            mStringLengths.add(BigInteger.valueOf(url.length()));
+            stringData.append(url);
+        }
+
+        mStringData = stringData.toString().getBytes(UTF_8);
+
+        mAttestationMessage = "<#> Celo attestation code: celo://wallet/v/"
+                + "o2KBtWR8tF8R9aoAdPi4LoFHpLGL5bq9JFpyIlQFN8YWlD5dVQ1e7rwKl5QYNvwvaNq6Ksy4oEnNYJ0y7O2qOAE= "
+                + "j8qS7uGA/u3";
+        mSecurityCodeMessage = "Celo verification code: 12345678 Do not share.";
+    }
+
+    @Benchmark
+    public String streamToString() throws IOException {
+        return InternalUtils.streamToString(new ByteArrayInputStream(mResponse));
+    }
+
+    @Benchmark
+    public AttestationRequester.Metadata parseMetadata() throws Throwable {
+        return MetadataParser.parse(mMetadata);
+    }
+
+    @Benchmark
+    public String[] parseSolidityStringArray() {
+        return AttestationRequester.parseSolidityStringArray(mStringLengths, mStringData);
+    }
+
+    @Benchmark
+    public String extractURL() {
+        return AttestationCodeUtil.extractURL(mAttestationMessage);
+    }
+
+    @Benchmark
+    public String extractCode() {
+        return AttestationCodeUtil.extractCode(mSecurityCodeMessage);
+    }
+
+}
@@ -0,0 +1,58 @@
+package android.content;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the Android context. Files live under the given directory and shared
+ * preferences are kept in memory for the life of the context.
+ */
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    private final File mDataDirectory;
+
+    private final Map<String, SharedPreferences> mSharedPreferences = new HashMap<>();
+
+    public Context(File dataDirectory) {
+        mDataDirectory = dataDirectory;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        return directory("files");
+    }
+
+    public File getCacheDir() {
+        return directory("cache");
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        synchronized (mSharedPreferences) {
+            SharedPreferences preferences = mSharedPreferences.get(name);
+
+            if (preferences == null) {
+                preferences = new InMemorySharedPreferences();
+                mSharedPreferences.put(name, preferences);
+            }
+
+            return preferences;
+        }
+    }
+
+    private File directory(String name) {
+        File directory = new File(mDataDirectory, name);
+
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        return directory;
+    }
+
+}
@@ -0,0 +1,34 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android handler. Only posting runnables is supported.
+ */
+public class Handler {
+
+    private final Looper mLooper;
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(Looper looper) {
+        if (looper == null) {
+            throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+        }
+
+        mLooper = looper;
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final boolean post(Runnable r) {
+        return mLooper.enqueue(r, SystemClock.uptimeMillis());
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return mLooper.enqueue(r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+}
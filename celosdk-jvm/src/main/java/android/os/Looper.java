@@ -0,0 +1,163 @@
+package android.os;
+
+import java.util.PriorityQueue;
+
+/**
+ * JVM stand-in for the Android message loop. The main looper runs on a daemon thread named "main"
+ * that is started on first use.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<>();
+
+    private static Looper sMainLooper = null;
+
+    private static class Message implements Comparable<Message> {
+
+        final long when;
+        final long sequence;
+        final Runnable callback;
+
+        Message(long when, long sequence, Runnable callback) {
+            this.when = when;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            int result = Long.compare(when, other.when);
+
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+
+        sThreadLocal.set(new Looper(Thread.currentThread()));
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static synchronized Looper getMainLooper() {
+        if (sMainLooper == null) {
+            Looper[] looper = new Looper[1];
+
+            Thread thread = new Thread(() -> {
+                prepare();
+
+                synchronized (looper) {
+                    looper[0] = myLooper();
+                    looper.notifyAll();
+                }
+
+                loop();
+            }, "main");
+
+            thread.setDaemon(true);
+            thread.start();
+
+            synchronized (looper) {
+                while (looper[0] == null) {
+                    try {
+                        looper.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while starting the main looper.", e);
+                    }
+                }
+            }
+
+            sMainLooper = looper[0];
+        }
+
+        return sMainLooper;
+    }
+
+    /**
+     * Runs the message loop of the calling thread until {@link #quit()} is called.
+     */
+    public static void loop() {
+        Looper looper = myLooper();
+
+        if (looper == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+
+        while (true) {
+            Message message = looper.next();
+
+            if (message == null) {
+                return;
+            }
+
+            message.callback.run();
+        }
+    }
+
+    private final Thread mThread;
+
+    private final PriorityQueue<Message> mQueue = new PriorityQueue<>();
+    private long mSequence = 0;
+    private boolean mQuitting = false;
+
+    private Looper(Thread thread) {
+        mThread = thread;
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    public synchronized void quit() {
+        mQuitting = true;
+        notifyAll();
+    }
+
+    synchronized boolean enqueue(Runnable callback, long uptimeMillis) {
+        if (mQuitting) {
+            return false;
+        }
+
+        mQueue.add(new Message(uptimeMillis, mSequence++, callback));
+        notifyAll();
+
+        return true;
+    }
+
+    private synchronized Message next() {
+        while (true) {
+            if (mQuitting) {
+                return null;
+            }
+
+            Message message = mQueue.peek();
+            long now = SystemClock.uptimeMillis();
+
+            try {
+                if (message == null) {
+                    wait();
+                }
+                else if (message.when > now) {
+                    wait(message.when - now);
+                }
+                else {
+                    return mQueue.poll();
+                }
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
+}
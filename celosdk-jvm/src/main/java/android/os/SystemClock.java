@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android clock. Uptime is measured from class initialization.
+ */
+public final class SystemClock {
+
+    private static final long sStartNanos = System.nanoTime();
+
+    public static long uptimeMillis() {
+        return (System.nanoTime() - sStartNanos) / 1_000_000;
+    }
+
+    public static long elapsedRealtime() {
+        return uptimeMillis();
+    }
+
+    private SystemClock() {
+
+    }
+
+}
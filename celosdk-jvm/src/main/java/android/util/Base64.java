@@ -0,0 +1,105 @@
+package android.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * JVM stand-in for the Android Base64 utility, on top of java.util.Base64.
+ */
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final int LINE_LENGTH = 76;
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        return decode(input, 0, input.length, flags);
+    }
+
+    /**
+     * Like on Android, line breaks and other characters outside the alphabet are skipped.
+     */
+    public static byte[] decode(byte[] input, int offset, int len, int flags) {
+        byte[] data = new byte[len];
+        int size = 0;
+
+        for (int i = offset; i < offset + len; i++) {
+            byte b = input[i];
+
+            if (b == '-' || b == '_') {
+                b = b == '-' ? (byte) '+' : (byte) '/';
+            }
+
+            if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '+' || b == '/') {
+                data[size++] = b;
+            }
+        }
+
+        byte[] stripped = new byte[size];
+        System.arraycopy(data, 0, stripped, 0, size);
+
+        try {
+            return java.util.Base64.getDecoder().decode(stripped);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("bad base-64", e);
+        }
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return new String(encode(input, flags), US_ASCII);
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        return new String(encode(input, offset, len, flags), US_ASCII);
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        return encode(input, 0, input.length, flags);
+    }
+
+    public static byte[] encode(byte[] input, int offset, int len, int flags) {
+        byte[] data = input;
+
+        if (offset != 0 || len != input.length) {
+            data = new byte[len];
+            System.arraycopy(input, offset, data, 0, len);
+        }
+
+        java.util.Base64.Encoder encoder = (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+
+        String encoded = encoder.encodeToString(data);
+
+        if ((flags & NO_WRAP) != 0 || encoded.isEmpty()) {
+            return encoded.getBytes(US_ASCII);
+        }
+
+        String lineBreak = (flags & CRLF) != 0 ? "\r\n" : "\n";
+
+        // Android breaks the lines and ends the output with a line break as well.
+        StringBuilder sb = new StringBuilder(encoded.length() + (encoded.length() / LINE_LENGTH + 1) * lineBreak.length());
+
+        for (int i = 0; i < encoded.length(); i += LINE_LENGTH) {
+            sb.append(encoded, i, Math.min(encoded.length(), i + LINE_LENGTH)).append(lineBreak);
+        }
+
+        return sb.toString().getBytes(US_ASCII);
+    }
+
+    private Base64() {
+
+    }
+
+}
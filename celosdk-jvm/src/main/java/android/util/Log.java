@@ -0,0 +1,90 @@
+package android.util;
+
+/**
+ * JVM stand-in for the Android logger. Writes to standard error, by default warnings and errors only.
+ */
+public final class Log {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static volatile int sMinPriority = WARN;
+
+    public static void setMinPriority(int priority) {
+        sMinPriority = priority;
+    }
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg, null);
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return println(VERBOSE, tag, msg, tr);
+    }
+
+    public static int d(String tag, String msg) {
+        return println(DEBUG, tag, msg, null);
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return println(DEBUG, tag, msg, tr);
+    }
+
+    public static int i(String tag, String msg) {
+        return println(INFO, tag, msg, null);
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return println(INFO, tag, msg, tr);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println(WARN, tag, msg, tr);
+    }
+
+    public static int w(String tag, Throwable tr) {
+        return println(WARN, tag, null, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg, tr);
+    }
+
+    public static boolean isLoggable(String tag, int priority) {
+        return priority >= sMinPriority;
+    }
+
+    private static int println(int priority, String tag, String msg, Throwable tr) {
+        if (priority < sMinPriority) {
+            return 0;
+        }
+
+        String line = "VDIWE".charAt(priority - VERBOSE) + "/" + tag + ": " + msg;
+
+        synchronized (System.err) {
+            System.err.println(line);
+
+            if (tr != null) {
+                tr.printStackTrace();
+            }
+        }
+
+        return line.length();
+    }
+
+    private Log() {
+
+    }
+
+}
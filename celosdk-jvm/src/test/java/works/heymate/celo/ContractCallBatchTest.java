@@ -0,0 +1,97 @@
+package works.heymate.celo;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+public class ContractCallBatchTest {
+
+    private static final String CONTRACT = "0x000000000000000000000000000000000000ce10";
+    private static final String ACCOUNT = "0x0000000000000000000000000000000000000001";
+
+    @Test
+    public void send_matchesResponsesAnsweredInAnyOrder() throws Exception {
+        Web3j web3j = Web3j.build(new InstrumentedHttpService("http://node.invalid", reversingNode(), new RpcMetrics()));
+
+        ContractCallBatch batch = new ContractCallBatch(web3j, ACCOUNT);
+
+        int blockNumberIndex = batch.add(web3j.ethBlockNumber());
+        int firstBalance = batch.add(CONTRACT, balanceOf(ACCOUNT));
+        int secondBalance = batch.add(CONTRACT, balanceOf(CONTRACT));
+
+        List<ContractCallBatch.Result> results = batch.send();
+
+        assertEquals(BigInteger.valueOf(1234), ((EthBlockNumber) results.get(blockNumberIndex).response).getBlockNumber());
+        assertEquals(BigInteger.valueOf(firstBalance), ((Uint256) results.get(firstBalance).values.get(0)).getValue());
+        assertEquals(BigInteger.valueOf(secondBalance), ((Uint256) results.get(secondBalance).values.get(0)).getValue());
+    }
+
+    private static Function balanceOf(String address) {
+        return new Function("balanceOf", Collections.singletonList(new Address(address)), Collections.singletonList(new TypeReference<Uint256>() {}));
+    }
+
+    // Answers eth_blockNumber with 1234 and every eth_call with the position of the call in the batch, in reverse order.
+    private static OkHttpClient reversingNode() {
+        return new OkHttpClient.Builder().addInterceptor(chain -> {
+            Buffer body = new Buffer();
+            chain.request().body().writeTo(body);
+
+            String responses;
+
+            try {
+                responses = answerReversed(body.readUtf8());
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+
+            return new okhttp3.Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(responses, MediaType.get("application/json")))
+                    .build();
+        }).build();
+    }
+
+    private static String answerReversed(String batch) throws JSONException {
+        JSONArray requests = new JSONArray(batch);
+        JSONArray responses = new JSONArray();
+
+        for (int i = requests.length() - 1; i >= 0; i--) {
+            JSONObject request = requests.getJSONObject(i);
+
+            String result = "eth_blockNumber".equals(request.getString("method")) ?
+                    "0x4d2" : "0x" + FunctionEncoder.encodeConstructor(Collections.singletonList(new Uint256(i)));
+
+            responses.put(new JSONObject()
+                    .put("jsonrpc", "2.0")
+                    .put("id", request.getLong("id"))
+                    .put("result", result));
+        }
+
+        return responses.toString();
+    }
+
+}
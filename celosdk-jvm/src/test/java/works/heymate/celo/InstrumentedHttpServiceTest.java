@@ -0,0 +1,162 @@
+package works.heymate.celo;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedHttpServiceTest {
+
+    private static final String CONTRACT = "0x000000000000000000000000000000000000ce10";
+    private static final String ACCOUNT = "0x0000000000000000000000000000000000000001";
+
+    private final List<Call> mCalls = new ArrayList<>();
+    private final List<Long> mSentBytes = new ArrayList<>();
+
+    @Test
+    public void sendBatch_reportsTheDurationOnlyOnTheBatch() throws Exception {
+        InstrumentedHttpService service = new InstrumentedHttpService("http://node.invalid", node(), this::record);
+        Web3j web3j = Web3j.build(service);
+
+        String balanceOf = FunctionEncoder.encode(new Function("balanceOf", Collections.singletonList(new Address(ACCOUNT)), Collections.singletonList(new TypeReference<Uint256>() {})));
+
+        web3j.newBatch()
+                .add(web3j.ethBlockNumber())
+                .add(web3j.ethCall(Transaction.createEthCallTransaction(ACCOUNT, CONTRACT, balanceOf), DefaultBlockParameterName.LATEST))
+                .send();
+
+        assertEquals(3, mCalls.size());
+
+        Call batch = mCalls.get(0);
+
+        assertEquals("batch", batch.method);
+        assertTrue(batch.durationNanos >= 0);
+        assertEquals((long) mSentBytes.get(0), batch.requestBytes);
+        assertTrue(batch.responseBytes > 0);
+        assertTrue(batch.failed);
+
+        assertEquals("eth_blockNumber", mCalls.get(1).method);
+        assertEquals(-1, mCalls.get(1).durationNanos);
+        assertEquals(0, mCalls.get(1).requestBytes);
+        assertFalse(mCalls.get(1).failed);
+
+        assertEquals("eth_call", mCalls.get(2).method);
+        assertEquals("balanceOf(address)", mCalls.get(2).function);
+        assertEquals(-1, mCalls.get(2).durationNanos);
+        assertTrue(mCalls.get(2).failed);
+    }
+
+    @Test
+    public void send_reportsTheEncodedRequestSize() throws Exception {
+        InstrumentedHttpService service = new InstrumentedHttpService("http://node.invalid", node(), this::record);
+
+        new Request<>("test_echo", Collections.singletonList("é中😀"), service, EthBlockNumber.class).send();
+
+        assertEquals(1, mCalls.size());
+        assertEquals("test_echo", mCalls.get(0).method);
+        assertTrue(mCalls.get(0).durationNanos >= 0);
+        assertEquals((long) mSentBytes.get(0), mCalls.get(0).requestBytes);
+        assertFalse(mCalls.get(0).failed);
+    }
+
+    private void record(String method, String function, long durationNanos, long requestBytes, long responseBytes, boolean failed) {
+        mCalls.add(new Call(method, function, durationNanos, requestBytes, responseBytes, failed));
+    }
+
+    // Answers every call with 0x1, except eth_call which fails.
+    private OkHttpClient node() {
+        return new OkHttpClient.Builder().addInterceptor(chain -> {
+            Buffer body = new Buffer();
+            chain.request().body().writeTo(body);
+
+            mSentBytes.add(body.size());
+
+            String response;
+
+            try {
+                response = answer(body.readUtf8());
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+
+            return new okhttp3.Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(response, MediaType.get("application/json")))
+                    .build();
+        }).build();
+    }
+
+    private static String answer(String request) throws JSONException {
+        if (!request.startsWith("[")) {
+            return answer(new JSONObject(request)).toString();
+        }
+
+        JSONArray requests = new JSONArray(request);
+        JSONArray responses = new JSONArray();
+
+        for (int i = 0; i < requests.length(); i++) {
+            responses.put(answer(requests.getJSONObject(i)));
+        }
+
+        return responses.toString();
+    }
+
+    private static JSONObject answer(JSONObject request) throws JSONException {
+        JSONObject response = new JSONObject()
+                .put("jsonrpc", "2.0")
+                .put("id", request.getLong("id"));
+
+        if ("eth_call".equals(request.getString("method"))) {
+            return response.put("error", new JSONObject().put("code", -32000).put("message", "execution reverted"));
+        }
+
+        return response.put("result", "0x1");
+    }
+
+    private static class Call {
+
+        final String method;
+        final String function;
+        final long durationNanos;
+        final long requestBytes;
+        final long responseBytes;
+        final boolean failed;
+
+        Call(String method, String function, long durationNanos, long requestBytes, long responseBytes, boolean failed) {
+            this.method = method;
+            this.function = function;
+            this.durationNanos = durationNanos;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.failed = failed;
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package works.heymate.celo;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class MetadataParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String META = "\"meta\": {\"address\": \"0x0000000000000000000000000000000000000001\", \"signature\": \"0x00\"}";
+
+    @Test
+    public void parse_writesClaimsTheWayJsonStringifyDoes() throws Throwable {
+        AttestationRequester.Metadata metadata = parse(
+                "{\n" +
+                "  \"claims\": [\n" +
+                "    {\n" +
+                "      \"url\": \"https://attestation.example.org/v1\",\n" +
+                "      \"timestamp\": 1600000000,\n" +
+                "      \"type\": \"ATTESTATION_SERVICE_URL\"\n" +
+                "    }\n" +
+                "  ],\n" +
+                "  " + META + "\n" +
+                "}");
+
+        assertEquals(1, metadata.claims.size());
+
+        AttestationRequester.Claim claim = metadata.claims.get(0);
+
+        // org.json would have written "https:\/\/attestation...", which is not what issuers sign.
+        assertEquals("{\"url\":\"https://attestation.example.org/v1\",\"timestamp\":1600000000,\"type\":\"ATTESTATION_SERVICE_URL\"}",
+                new String(claim.serializedClaim, UTF_8));
+        assertEquals("https://attestation.example.org/v1", claim.url);
+        assertEquals(1600000000L, claim.timestamp);
+        assertEquals("0x0000000000000000000000000000000000000001", metadata.meta.address);
+    }
+
+    @Test
+    public void parse_canonicalizesEscapesAndNestedValues() throws Throwable {
+        AttestationRequester.Metadata metadata = parse("{\"claims\": [" +
+                "{\"type\": \"NAME\", \"name\": \"Ren\\u00e9e \\/ \\\"R\\\"\\t\\u0001\", \"timestamp\": 1.0e3," +
+                " \"extra\": {\"list\": [1, 2.50, true, null, \"\\ud800\"]}}" +
+                "], " + META + "}");
+
+        AttestationRequester.Claim claim = metadata.claims.get(0);
+
+        assertEquals("{\"type\":\"NAME\",\"name\":\"Ren\u00e9e / \\\"R\\\"\\t\\u0001\",\"timestamp\":1000," +
+                "\"extra\":{\"list\":[1,2.5,true,null,\"\\ud800\"]}}", new String(claim.serializedClaim, UTF_8));
+        assertEquals("Ren\u00e9e / \"R\"\t\u0001", claim.name);
+        assertEquals(1000L, claim.timestamp);
+    }
+
+    @Test
+    public void parse_keepsRawUtf8AsIs() throws Throwable {
+        AttestationRequester.Metadata metadata = parse("{\"claims\": [{\"type\": \"NAME\", \"name\": \"\u4e2d\u6587 \ud83d\ude00\", \"timestamp\": 1}], " + META + "}");
+
+        assertEquals("{\"type\":\"NAME\",\"name\":\"\u4e2d\u6587 \ud83d\ude00\",\"timestamp\":1}",
+                new String(metadata.claims.get(0).serializedClaim, UTF_8));
+    }
+
+    @Test
+    public void parse_rejectsMalformedMetadata() {
+        assertFails("{\"claims\": [], " + META + "} trailing");
+        assertFails("{\"claims\": []}");
+        assertFails("{\"claims\": [{\"type\": \"NAME\", \"name\": \"unterminated}], " + META + "}");
+        assertFails("{\"claims\": [{\"type\": \"NAME\", \"extra\": {\"a\": 1}, " + META + "}");
+    }
+
+    @Test
+    public void numberToString_matchesJavaScript() {
+        assertEquals("0", MetadataParser.numberToString(-0.0));
+        assertEquals("1", MetadataParser.numberToString(1.0));
+        assertEquals("-2.5", MetadataParser.numberToString(-2.5));
+        assertEquals("0.30000000000000004", MetadataParser.numberToString(0.1 + 0.2));
+        assertEquals("123456789012345680000", MetadataParser.numberToString(123456789012345678901.0));
+        assertEquals("1e+21", MetadataParser.numberToString(1e21));
+        assertEquals("0.000001", MetadataParser.numberToString(0.000001));
+        assertEquals("1e-7", MetadataParser.numberToString(1e-7));
+        assertEquals("5e-324", MetadataParser.numberToString(Double.MIN_VALUE));
+        assertEquals("1.7976931348623157e+308", MetadataParser.numberToString(Double.MAX_VALUE));
+    }
+
+    private static AttestationRequester.Metadata parse(String json) throws Throwable {
+        return MetadataParser.parse(json.getBytes(UTF_8));
+    }
+
+    private static void assertFails(String json) {
+        try {
+            parse(json);
+        } catch (Throwable t) {
+            return;
+        }
+
+        fail("Parsed malformed metadata: " + json);
+    }
+
+}
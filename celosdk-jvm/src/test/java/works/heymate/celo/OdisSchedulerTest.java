@@ -0,0 +1,220 @@
+package works.heymate.celo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OdisSchedulerTest {
+
+    private static final OdisScheduler.Priority INTERACTIVE = OdisScheduler.Priority.INTERACTIVE;
+    private static final OdisScheduler.Priority BACKGROUND = OdisScheduler.Priority.BACKGROUND;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void acquire_throttlesBackgroundQueries() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+        scheduler.setRate(10, 2);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(scheduler.acquire(BACKGROUND));
+            scheduler.onSuccess(-1, -1);
+        }
+
+        // Two queries from the burst, then one every 100ms.
+        assertTrue(millisSince(start) >= 150);
+    }
+
+    @Test
+    public void acquire_doesNotThrottleInteractiveQueries() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+        scheduler.setRate(1, 1);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(scheduler.acquire(INTERACTIVE));
+            scheduler.onSuccess(-1, -1);
+        }
+
+        assertTrue(millisSince(start) < 500);
+    }
+
+    @Test
+    public void acquire_defersBackgroundQueriesInsideTheReserve() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+        scheduler.setInteractiveReserve(5);
+
+        assertTrue(scheduler.acquire(INTERACTIVE));
+        scheduler.onSuccess(95, 100);
+
+        assertEquals(5, scheduler.getRemainingQuota());
+        assertFalse(scheduler.acquire(BACKGROUND));
+        assertTrue(scheduler.acquire(INTERACTIVE));
+    }
+
+    @Test
+    public void acquire_admitsInteractiveQueriesFirst() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+        scheduler.setInteractiveReserve(0);
+
+        assertTrue(scheduler.acquire(INTERACTIVE));
+        scheduler.onSuccess(8, 10);
+
+        // Two queries left and one of them in flight.
+        assertTrue(scheduler.acquire(INTERACTIVE));
+        assertTrue(scheduler.acquire(INTERACTIVE));
+
+        Future<Boolean> interactive = acquireLater(scheduler, INTERACTIVE);
+        Future<Boolean> background = acquireLater(scheduler, BACKGROUND);
+
+        Thread.sleep(100);
+
+        assertFalse(interactive.isDone());
+        assertFalse(background.isDone());
+
+        scheduler.onFailure();
+
+        assertTrue(interactive.get(5, TimeUnit.SECONDS));
+
+        Thread.sleep(100);
+
+        assertFalse(background.isDone());
+
+        // The last query of the quota leaves nothing for the background one.
+        scheduler.onSuccess(-1, -1);
+        scheduler.onSuccess(-1, -1);
+
+        assertFalse(background.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void acquire_probesAnExhaustedQuotaWithOneInteractiveQueryAtATime() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+
+        assertTrue(scheduler.acquire(INTERACTIVE));
+        scheduler.onQuotaExceeded();
+
+        assertEquals(0, scheduler.getRemainingQuota());
+        assertFalse(scheduler.acquire(BACKGROUND));
+
+        assertTrue(scheduler.acquire(INTERACTIVE));
+
+        Future<Boolean> queued = acquireLater(scheduler, INTERACTIVE);
+
+        Thread.sleep(100);
+
+        assertFalse(queued.isDone());
+
+        scheduler.onSuccess(10, 100);
+
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(90, scheduler.getRemainingQuota());
+    }
+
+    @Test
+    public void acquire_letsOneBackgroundProbeThroughPerProbeInterval() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+        scheduler.setProbeInterval(100);
+
+        assertTrue(scheduler.acquire(BACKGROUND));
+        scheduler.onQuotaExceeded();
+
+        assertFalse(scheduler.acquire(BACKGROUND));
+
+        Thread.sleep(150);
+
+        assertTrue(scheduler.acquire(BACKGROUND));
+
+        Future<Boolean> waiting = acquireLater(scheduler, BACKGROUND);
+
+        Thread.sleep(100);
+
+        assertFalse(waiting.isDone());
+
+        scheduler.onQuotaExceeded();
+
+        assertFalse(waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void onRetry_takesATokenForBackgroundQueries() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+        scheduler.setRate(10, 1);
+
+        assertTrue(scheduler.acquire(BACKGROUND));
+
+        long start = System.nanoTime();
+
+        scheduler.onRetry(INTERACTIVE);
+
+        assertTrue(millisSince(start) < 50);
+
+        scheduler.onRetry(BACKGROUND);
+
+        assertTrue(millisSince(start) >= 50);
+    }
+
+    @Test
+    public void admit_settlesAQueryThatThrowsAfterAdmissionAsFailed() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+
+        assertTrue(scheduler.acquire(INTERACTIVE));
+        scheduler.onQuotaExceeded();
+
+        // The probe of the exhausted quota throws before it is sent, e.g. while being signed.
+        OdisScheduler.Admission probe = scheduler.admit(INTERACTIVE);
+
+        try {
+            try {
+                throw new UnsatisfiedLinkError("signing");
+            } finally {
+                probe.release();
+            }
+        } catch (UnsatisfiedLinkError e) { }
+
+        assertTrue(acquireLater(scheduler, INTERACTIVE).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void admit_settlesEachQueryOnce() throws Exception {
+        OdisScheduler scheduler = new OdisScheduler();
+        scheduler.setInteractiveReserve(0);
+
+        OdisScheduler.Admission first = scheduler.admit(INTERACTIVE);
+        first.succeeded(8, 10);
+        first.release();
+
+        // Two queries left, so a third admitted query waits for one of the first two.
+        scheduler.admit(INTERACTIVE);
+        scheduler.admit(INTERACTIVE);
+
+        Future<Boolean> third = acquireLater(scheduler, INTERACTIVE);
+
+        Thread.sleep(100);
+
+        assertFalse(third.isDone());
+    }
+
+    private Future<Boolean> acquireLater(OdisScheduler scheduler, OdisScheduler.Priority priority) {
+        return mExecutor.submit(() -> scheduler.acquire(priority));
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+}
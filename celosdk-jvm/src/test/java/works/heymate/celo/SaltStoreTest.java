@@ -0,0 +1,186 @@
+package works.heymate.celo;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SaltStoreTest {
+
+    private static final String FILE_NAME = "odis_salts.log";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = new Context(mFolder.newFolder());
+    }
+
+    @Test
+    public void putAndGet_survivesReopening() {
+        SaltStore store = new SaltStore(mContext);
+        store.put("+15551234567", "salt1");
+        store.put("+15557654321", "salt2");
+
+        assertEquals("salt1", store.get("+15551234567"));
+
+        SaltStore reopened = new SaltStore(mContext);
+
+        assertEquals("salt1", reopened.get("+15551234567"));
+        assertEquals("salt2", reopened.get("+15557654321"));
+        assertNull(reopened.get("+15550000000"));
+    }
+
+    @Test
+    public void file_holdsNoPlainText() throws Exception {
+        SaltStore store = new SaltStore(mContext);
+        store.put("+15551234567", "saltsaltsalt");
+
+        String content = new String(Files.readAllBytes(storeFile().toPath()), Charset.forName("ISO-8859-1"));
+
+        assertFalse(content.contains("+15551234567"));
+        assertFalse(content.contains("saltsaltsalt"));
+    }
+
+    @Test
+    public void invalidate_removesSalt() {
+        SaltStore store = new SaltStore(mContext);
+        store.put("+15551234567", "salt1");
+        store.invalidate("+15551234567");
+
+        assertNull(store.get("+15551234567"));
+        assertNull(new SaltStore(mContext).get("+15551234567"));
+    }
+
+    @Test
+    public void timeToLive_expiresSalts() throws Exception {
+        SaltStore store = new SaltStore(mContext);
+        store.setTimeToLive(50);
+        store.put("+15551234567", "salt1");
+
+        assertEquals("salt1", store.get("+15551234567"));
+
+        Thread.sleep(100);
+
+        assertNull(store.get("+15551234567"));
+        assertTrue(store.preload(null).isEmpty());
+    }
+
+    @Test
+    public void compaction_dropsOverwrittenRecords() {
+        SaltStore store = new SaltStore(mContext);
+
+        for (int i = 0; i < 200; i++) {
+            store.put("+15551234567", "salt" + i);
+        }
+
+        long singleRecord = storeFile().length();
+
+        for (int i = 0; i < 200; i++) {
+            store.put("+15551234567", "salt" + i);
+        }
+
+        assertTrue(storeFile().length() <= singleRecord * 2 + 4096);
+        assertEquals("salt199", new SaltStore(mContext).get("+15551234567"));
+    }
+
+    @Test
+    public void compaction_dropsExpiredRecords() throws Exception {
+        SaltStore store = new SaltStore(mContext);
+        store.setTimeToLive(50);
+
+        for (int i = 0; i < 50; i++) {
+            store.put("+1555000" + (1000 + i), "salt" + i);
+        }
+
+        Thread.sleep(100);
+
+        for (int i = 0; i < 100; i++) {
+            store.put("+15551234567", "salt" + i);
+        }
+
+        SaltStore reopened = new SaltStore(mContext);
+        Map<String, String> salts = reopened.preload(null);
+
+        assertEquals(1, salts.size());
+        assertEquals("salt99", salts.get("+15551234567"));
+    }
+
+    @Test
+    public void legacySalts_areMigrated() {
+        mContext.getSharedPreferences("ODISSalt", Context.MODE_PRIVATE).edit()
+                .putString("+15551234567", "legacySalt")
+                .apply();
+
+        SaltStore store = new SaltStore(mContext);
+
+        assertEquals("legacySalt", store.get("+15551234567"));
+        assertTrue(mContext.getSharedPreferences("ODISSalt", Context.MODE_PRIVATE).getAll().isEmpty());
+        assertEquals("legacySalt", new SaltStore(mContext).get("+15551234567"));
+    }
+
+    @Test
+    public void corruptedRecord_onlyLosesThatRecord() throws Exception {
+        SaltStore store = new SaltStore(mContext);
+        store.put("+15550000001", "salt1");
+        store.put("+15550000002", "salt2");
+        store.put("+15550000003", "salt3");
+
+        byte[] data = Files.readAllBytes(storeFile().toPath());
+        int secondRecord = 4 + readInt(data, 0);
+
+        try (RandomAccessFile file = new RandomAccessFile(storeFile(), "rw")) {
+            file.seek(secondRecord);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+
+        SaltStore reopened = new SaltStore(mContext);
+
+        assertEquals("salt1", reopened.get("+15550000001"));
+        assertNull(reopened.get("+15550000002"));
+        assertEquals("salt3", reopened.get("+15550000003"));
+
+        reopened.put("+15550000004", "salt4");
+
+        assertEquals("salt4", new SaltStore(mContext).get("+15550000004"));
+    }
+
+    @Test
+    public void partiallyWrittenTail_isDropped() throws Exception {
+        SaltStore store = new SaltStore(mContext);
+        store.put("+15550000001", "salt1");
+        store.put("+15550000002", "salt2");
+
+        byte[] data = Files.readAllBytes(storeFile().toPath());
+        Files.write(storeFile().toPath(), Arrays.copyOf(data, data.length - 5));
+
+        SaltStore reopened = new SaltStore(mContext);
+
+        assertEquals("salt1", reopened.get("+15550000001"));
+        assertNull(reopened.get("+15550000002"));
+        assertEquals(4 + readInt(data, 0), storeFile().length());
+    }
+
+    private File storeFile() {
+        return new File(mContext.getFilesDir(), FILE_NAME);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+}
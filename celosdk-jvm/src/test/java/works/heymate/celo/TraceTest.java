@@ -0,0 +1,78 @@
+package works.heymate.celo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TraceTest {
+
+    @Test
+    public void trace_finishesWhenTheRootEnds() {
+        List<Trace> finished = new ArrayList<>();
+
+        try (Span root = Trace.begin("root", finished::add)) {
+            try (Span child = Span.start("child")) {
+                assertSame(root, child.getParent());
+            }
+
+            assertTrue(finished.isEmpty());
+        }
+
+        assertEquals(1, finished.size());
+        assertEquals(2, finished.get(0).getSpans().size());
+    }
+
+    @Test
+    public void trace_waitsForChildrenOnOtherThreads() throws Exception {
+        List<Trace> finished = new ArrayList<>();
+        CountDownLatch childStarted = new CountDownLatch(1);
+        CountDownLatch rootEnded = new CountDownLatch(1);
+
+        Span root = Trace.begin("root", trace -> {
+            synchronized (finished) {
+                finished.add(trace);
+            }
+        });
+
+        Thread worker = new Thread(() -> {
+            try (Span child = root.child("reveal")) {
+                childStarted.countDown();
+                rootEnded.await(5, TimeUnit.SECONDS);
+                child.setAttribute("late", true);
+            } catch (InterruptedException e) { }
+        });
+
+        worker.start();
+        childStarted.await(5, TimeUnit.SECONDS);
+
+        root.end();
+
+        synchronized (finished) {
+            assertTrue(finished.isEmpty());
+        }
+
+        rootEnded.countDown();
+        worker.join(5000);
+
+        synchronized (finished) {
+            assertEquals(1, finished.size());
+            assertEquals(2, finished.get(0).getSpans().size());
+        }
+
+        assertTrue(root.getDurationMicros() >= 0);
+    }
+
+    @Test
+    public void span_isNoOpWithoutListener() {
+        try (Span root = Trace.begin("root", null)) {
+            assertSame(Span.NOOP, root);
+            assertSame(Span.NOOP, Span.start("child"));
+        }
+    }
+
+}
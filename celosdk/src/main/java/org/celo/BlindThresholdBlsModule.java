@@ -1,7 +1,11 @@
 package org.celo;
 
-import java.util.Random;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.PointerByReference;
@@ -11,6 +15,10 @@ import android.util.Base64;
 
 /**
  * Taken from https://github.com/celo-org/react-native-blind-threshold-bls
+ *
+ * The shared instance from {@link #get()} is thread-safe. Blinding state lives in the {@link Blinding}
+ * handle returned by {@link #blind(byte[])}, so any number of blind/unblind pairs can be in flight.
+ * Deserialized public keys are cached per serialized key and native input buffers are pooled.
  */
 public class BlindThresholdBlsModule {
 
@@ -20,38 +28,121 @@ public class BlindThresholdBlsModule {
 
     private static final String TAG = "BlindThresholdBlsModule";
 
-    private PointerByReference blindingFactor;
-    private Buffer messageBuf;
+    private static final int SEED_LENGTH = 32;
+
+    // struct Buffer { uint8_t *ptr; int len; }, laid out by hand so calls don't go through Structure reflection.
+    private static final int BUFFER_LENGTH_OFFSET = Native.POINTER_SIZE;
+    private static final int BUFFER_SIZE = 2 * Native.POINTER_SIZE;
+
+    // Blinded messages are phone numbers, so pooled blocks of this size fit nearly all of them.
+    private static final int MESSAGE_BLOCK_SIZE = 64;
+    private static final int MAX_POOLED_MESSAGE_BLOCKS = 256;
+
+    private static final BlindThresholdBlsModule sInstance = new BlindThresholdBlsModule();
+
+    public static BlindThresholdBlsModule get() {
+        return sInstance;
+    }
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    // Keys are few (one per ODIS deployment) and live as long as the process.
+    private static final ConcurrentHashMap<String, Pointer> sPublicKeys = new ConcurrentHashMap<>();
+
+    private static final Queue<Memory> sMessageBlocks = new ConcurrentLinkedQueue<>();
+
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private Blinding mBlinding;
 
     public BlindThresholdBlsModule() {
 
     }
 
-    public String blindMessage(String message) throws Exception {
+    /**
+     * Blinds the message with a fresh random blinding factor.
+     * The returned handle must be closed once it is not needed anymore.
+     */
+    public Blinding blind(byte[] message) {
+        return blind(message, sScratch.get());
+    }
+
+    /**
+     * Blinds all messages on the calling thread, sharing one set of native arguments.
+     * If any message fails, the blindings made so far are closed and the error is thrown.
+     */
+    public Blinding[] blind(byte[][] messages) {
+        Scratch scratch = sScratch.get();
+
+        Blinding[] blindings = new Blinding[messages.length];
+
         try {
-            Log.d(TAG, "Preparing blind message buffers");
-            byte[] messageBytes = Base64.decode(message, Base64.DEFAULT);
-            messageBuf = new Buffer(messageBytes);
-            Buffer blindedMessageBuf = new Buffer();
+            for (int i = 0; i < messages.length; i++) {
+                blindings[i] = blind(messages[i], scratch);
+            }
+        } catch (RuntimeException e) {
+            for (Blinding blinding: blindings) {
+                if (blinding != null) {
+                    blinding.close();
+                }
+            }
+
+            throw e;
+        }
+
+        return blindings;
+    }
 
-            Log.d(TAG, "Preparing blinding seed");
-            Random random = new Random();
-            byte[] seed = new byte[32];
-            random.nextBytes(seed);
-            Buffer seedBuf = new Buffer(seed);
+    /**
+     * Unblinds the signature of a blinded message and verifies it against the signer's public key.
+     * @return The unblinded signature.
+     */
+    public byte[] unblind(Blinding blinding, byte[] blindedSignature, String base64SignerPublicKey) throws Exception {
+        return unblind(blinding, blindedSignature, getPublicKey(base64SignerPublicKey), sScratch.get());
+    }
+
+    /**
+     * Unblinds and verifies the signatures of many blinded messages. Blindings are not closed.
+     * @return The unblinded signatures, null where unblinding or verification failed.
+     */
+    public byte[][] unblind(Blinding[] blindings, byte[][] blindedSignatures, String base64SignerPublicKey) throws Exception {
+        if (blindings.length != blindedSignatures.length) {
+            throw new IllegalArgumentException("Expected " + blindings.length + " signatures, got " + blindedSignatures.length);
+        }
+
+        Pointer publicKey = getPublicKey(base64SignerPublicKey);
+        Scratch scratch = sScratch.get();
+
+        byte[][] unblindedSignatures = new byte[blindings.length][];
+
+        for (int i = 0; i < blindings.length; i++) {
+            try {
+                unblindedSignatures[i] = unblind(blindings[i], blindedSignatures[i], publicKey, scratch);
+            } catch (Exception e) {
+                unblindedSignatures[i] = null;
+            }
+        }
 
-            Log.d(TAG, "Calling blind");
-            blindingFactor = new PointerByReference();
-            blind(messageBuf, seedBuf, blindedMessageBuf, blindingFactor);
+        return unblindedSignatures;
+    }
 
-            Log.d(TAG, "Blind call done, retrieving blinded message from buffer");
-            byte[] blindedMessageBytes = blindedMessageBuf.getMessage();
-            String b64BlindedMessage = Base64.encodeToString(blindedMessageBytes, Base64.DEFAULT);
+    /**
+     * Single-use per instance. Prefer {@link #blind(byte[])}.
+     */
+    public String blindMessage(String message) throws Exception {
+        try {
+            if (mBlinding != null) {
+                mBlinding.close();
+            }
 
-            Log.d(TAG, "Cleaning up memory");
-            free_vector(blindedMessageBuf.message, blindedMessageBuf.len);
+            mBlinding = blind(Base64.decode(message, Base64.DEFAULT));
 
-            return b64BlindedMessage;
+            return Base64.encodeToString(mBlinding.getBlindedMessage(), Base64.DEFAULT);
         } catch (Exception e) {
             Log.e(TAG, "Exception while blinding the message: " + e.getMessage());
             throw e;
@@ -59,63 +150,233 @@ public class BlindThresholdBlsModule {
     }
 
     public String unblindMessage(String base64BlindedSignature, String base64SignerPublicKey) throws Exception {
+        if (mBlinding == null) {
+            throw new IllegalStateException("No message is blinded");
+        }
+
+        try {
+            byte[] unblindedSignature = unblind(mBlinding, Base64.decode(base64BlindedSignature, Base64.DEFAULT), base64SignerPublicKey);
+
+            return Base64.encodeToString(unblindedSignature, Base64.DEFAULT);
+        } catch (Exception e) {
+            Log.e(TAG, "Exception while unblinding the signature: " + e.getMessage());
+            throw e;
+        } finally {
+            mBlinding.close();
+            mBlinding = null;
+        }
+    }
+
+    private static Blinding blind(byte[] message, Scratch scratch) {
+        Memory messageMemory = obtainMessageBlock(message.length);
+        messageMemory.write(0, message, 0, message.length);
+
+        sRandom.nextBytes(scratch.seed);
+        scratch.seedMemory.write(0, scratch.seed, 0, SEED_LENGTH);
+
+        setBuffer(scratch.in, messageMemory, message.length);
+        setBuffer(scratch.seedBuffer, scratch.seedMemory, SEED_LENGTH);
+        setBuffer(scratch.out, null, 0);
+        scratch.pointerOut.setPointer(0, null);
+
+        blind(scratch.in, scratch.seedBuffer, scratch.out, scratch.pointerOut);
+
+        scratch.seedMemory.clear(SEED_LENGTH);
+
+        Blinding blinding = new Blinding(messageMemory, message.length, scratch.pointerOut.getPointer(0));
+
         try {
-            Log.d(TAG, "Preparing unblind buffers");
-            byte[] blindedSigBytes = Base64.decode(base64BlindedSignature, Base64.DEFAULT);
-            Buffer blindedSigBuf = new Buffer(blindedSigBytes);
-            Buffer unblindedSigBuf = new Buffer();
+            blinding.mBlindedMessage = takeOutput(scratch.out);
+        } catch (RuntimeException e) {
+            blinding.close();
+            throw e;
+        }
 
-            Log.d(TAG, "Calling unblind");
-            unblind(blindedSigBuf, blindingFactor.getValue(), unblindedSigBuf);
+        return blinding;
+    }
+
+    private static byte[] unblind(Blinding blinding, byte[] blindedSignature, Pointer publicKey, Scratch scratch) throws Exception {
+        Memory signatureMemory = scratch.input(blindedSignature.length);
+        signatureMemory.write(0, blindedSignature, 0, blindedSignature.length);
 
-            Log.d(TAG, "Unblind call resul done. Deserializing public key");
-            PointerByReference publicKey = new PointerByReference();
-            byte[] signerPublicKeyBytes = Base64.decode(base64SignerPublicKey, Base64.DEFAULT);
-            deserialize_pubkey(signerPublicKeyBytes, publicKey);
+        setBuffer(scratch.in, signatureMemory, blindedSignature.length);
+        setBuffer(scratch.out, null, 0);
 
-            Log.d(TAG, "Verifying the signatures");
-            boolean signatureValid = verify(publicKey.getValue(), messageBuf, unblindedSigBuf);
+        synchronized (blinding) {
+            if (blinding.mBlindingFactor == null) {
+                throw new IllegalStateException("Blinding is already closed");
+            }
 
-            if (signatureValid == true) {
-                Log.d(TAG, "Verify call done, retrieving signed message from buffer");
-                byte[] unblindedSigBytes = unblindedSigBuf.getMessage();
-                String b64UnblindedSig = Base64.encodeToString(unblindedSigBytes, Base64.DEFAULT);
+            boolean unblinded = unblind(scratch.in, blinding.mBlindingFactor, scratch.out);
 
-                cleanUpMemory(unblindedSigBuf, publicKey);
+            // Whatever the outcome, the output vector belongs to us now.
+            byte[] unblindedSignature = takeOutput(scratch.out, unblinded);
 
-                return b64UnblindedSig;
-            } else {
-                Log.d(TAG, "Invalid threshold signature found when verifying");
+            if (!unblinded) {
+                throw new Exception("Unblinding failed");
+            }
 
-                cleanUpMemory(unblindedSigBuf, publicKey);
+            // The blinded signature is not needed anymore, its memory now carries the unblinded one.
+            signatureMemory = scratch.input(unblindedSignature.length);
+            signatureMemory.write(0, unblindedSignature, 0, unblindedSignature.length);
 
+            setBuffer(scratch.in, blinding.mMessage, blinding.mMessageLength);
+            setBuffer(scratch.out, signatureMemory, unblindedSignature.length);
+
+            if (!verify(publicKey, scratch.in, scratch.out)) {
                 throw new Exception("Invalid threshold signature");
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Exception while unblinding the signature: " + e.getMessage());
-            throw e;
+
+            return unblindedSignature;
+        }
+    }
+
+    private static Pointer getPublicKey(String base64PublicKey) throws Exception {
+        Pointer publicKey = sPublicKeys.get(base64PublicKey);
+
+        if (publicKey != null) {
+            return publicKey;
+        }
+
+        PointerByReference publicKeyRef = new PointerByReference();
+
+        if (!deserialize_pubkey(Base64.decode(base64PublicKey, Base64.DEFAULT), publicKeyRef)) {
+            throw new Exception("Invalid signer public key");
+        }
+
+        publicKey = publicKeyRef.getValue();
+
+        Pointer existing = sPublicKeys.putIfAbsent(base64PublicKey, publicKey);
+
+        if (existing != null) {
+            destroy_pubkey(publicKey);
+            return existing;
+        }
+
+        return publicKey;
+    }
+
+    private static Memory obtainMessageBlock(int length) {
+        if (length > MESSAGE_BLOCK_SIZE) {
+            return new Memory(length);
+        }
+
+        Memory block = sMessageBlocks.poll();
+
+        return block != null ? block : new Memory(MESSAGE_BLOCK_SIZE);
+    }
+
+    private static void recycleMessageBlock(Memory block) {
+        // Phone numbers should not linger in native memory.
+        block.clear();
+
+        if (block.size() == MESSAGE_BLOCK_SIZE && sMessageBlocks.size() < MAX_POOLED_MESSAGE_BLOCKS) {
+            sMessageBlocks.offer(block);
         }
     }
 
-    private void cleanUpMemory(Buffer unblindedSigBuf, PointerByReference publicKey) {
-        Log.d(TAG, "Cleaning up memory");
-        messageBuf = null;
-        destroy_token(blindingFactor.getValue());
-        blindingFactor = null;
-        free_vector(unblindedSigBuf.message, unblindedSigBuf.len);
-        destroy_pubkey(publicKey.getValue());
+    private static void setBuffer(Memory buffer, Pointer data, int length) {
+        buffer.setPointer(0, data);
+        buffer.setInt(BUFFER_LENGTH_OFFSET, length);
     }
 
-    // TODO implement a cleanup method that destroys token if user cancels btwn blinding and unblinding
+    private static byte[] takeOutput(Memory out) {
+        return takeOutput(out, true);
+    }
+
+    /**
+     * Frees the vector the native side wrote to the buffer, copying it out first if asked to.
+     */
+    private static byte[] takeOutput(Memory out, boolean read) {
+        Pointer data = out.getPointer(0);
+        int length = out.getInt(BUFFER_LENGTH_OFFSET);
+
+        setBuffer(out, null, 0);
+
+        if (data == null || length == 0) {
+            if (data != null) {
+                free_vector(data, length);
+            }
+
+            if (read) {
+                throw new ArrayIndexOutOfBoundsException("Buffer message is empty");
+            }
+
+            return null;
+        }
+
+        try {
+            return read ? data.getByteArray(0, length) : null;
+        } finally {
+            free_vector(data, length);
+        }
+    }
+
+    /**
+     * Blinding factor and message of one blind operation. Close it after unblinding, or when the
+     * signature will never arrive, to free its native memory.
+     */
+    public static final class Blinding implements AutoCloseable {
+
+        private final Memory mMessage;
+        private final int mMessageLength;
+
+        private Pointer mBlindingFactor;
+        private byte[] mBlindedMessage;
+
+        private Blinding(Memory message, int messageLength, Pointer blindingFactor) {
+            mMessage = message;
+            mMessageLength = messageLength;
+            mBlindingFactor = blindingFactor;
+        }
+
+        public byte[] getBlindedMessage() {
+            return mBlindedMessage;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mBlindingFactor != null) {
+                destroy_token(mBlindingFactor);
+                mBlindingFactor = null;
+
+                recycleMessageBlock(mMessage);
+            }
+        }
+
+    }
+
+    // Native call arguments reused by every call on a thread.
+    private static final class Scratch {
+
+        final Memory in = new Memory(BUFFER_SIZE);
+        final Memory out = new Memory(BUFFER_SIZE);
+        final Memory seedBuffer = new Memory(BUFFER_SIZE);
+        final Memory pointerOut = new Memory(Native.POINTER_SIZE);
+
+        final byte[] seed = new byte[SEED_LENGTH];
+        final Memory seedMemory = new Memory(SEED_LENGTH);
+
+        private Memory mInput = new Memory(256);
+
+        Memory input(int length) {
+            if (mInput.size() < length) {
+                mInput = new Memory(Math.max(length, mInput.size() * 2));
+            }
+
+            return mInput;
+        }
+
+    }
 
-    // These native methods map to the FFI bindings defined here: 
+    // These native methods map to the FFI bindings defined here:
     // https://github.com/celo-org/celo-threshold-bls-rs/blob/master/ffi/threshold.h
-    // Note, seed must be >= 32 characters long
-    private static native void blind(Buffer message, Buffer seed, Buffer blinded_message_out, PointerByReference blinding_factor_out);
-    private static native boolean unblind(Buffer blinded_signature, Pointer blinding_factor, Buffer unblinded_signature);
+    // Buffer arguments point to a struct Buffer, see setBuffer. Note, seed must be >= 32 characters long
+    private static native void blind(Pointer message, Pointer seed, Pointer blinded_message_out, Pointer blinding_factor_out);
+    private static native boolean unblind(Pointer blinded_signature, Pointer blinding_factor, Pointer unblinded_signature);
     private static native boolean deserialize_pubkey(byte[] pubkey_buf, PointerByReference pubkey);
-    private static native boolean verify(Pointer public_key, Buffer message, Buffer signature);
+    private static native boolean verify(Pointer public_key, Pointer message, Pointer signature);
     private static native void free_vector(Pointer bytes, int len);
     private static native void destroy_token(Pointer token);
     private static native void destroy_pubkey(Pointer public_key);
-}
\ No newline at end of file
+}
@@ -12,26 +12,27 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.web3j.crypto.Hash;
 import org.web3j.crypto.Sign;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
 import org.web3j.utils.Numeric;
 
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 
+import okhttp3.Request;
+
 class AttestationCompleter {
 
     private static final String TAG = "Attestation";
 
     // private static final String ATTESTATION_CODE_REGEX = "(.* |^)(?:celo:\\/\\/wallet\\/v\\/)?([a-zA-Z0-9=\\+\\/_-]{87,88})($| .*)";
-    private static final String ATTESTATION_CODE_PREFIX = "celo://wallet/v/";
 
     private static final int CODE_LENGTH = 8;
     private static final String NULL_ADDRESS = "0x0000000000000000000000000000000000000000";
@@ -59,15 +60,25 @@ class AttestationCompleter {
             throw new CeloException(CeloError.ATTESTATION_CODE_USED, null);
         }
 
-        byte[] identifier = Utils.getPhoneHash(phoneNumber, salt);
+        byte[] identifier = IdentifierCache.get().getIdentifier(phoneNumber, salt);
+
+        List<AttestationRequester.ActionableAttestation> attestations;
 
-        List<AttestationRequester.ActionableAttestation> attestations = AttestationRequester.getActionableAttestationsAndNonCompliantIssuers(contractKit, identifier).component1();
+        try (Span span = Span.start("actionableAttestations")) {
+            attestations = AttestationRequester.getActionableAttestationsAndNonCompliantIssuers(contractKit, identifier).component1();
+
+            span.setAttribute("attestations", attestations.size());
+        }
 
         if (attestationCode != null) {
-            attestationCode = Numeric.toHexString(Base64.decode(attestationCode.substring(ATTESTATION_CODE_PREFIX.length()), Base64.DEFAULT));
+            attestationCode = Numeric.toHexString(Base64.decode(attestationCode, Base64.DEFAULT));
         }
         else {
-            attestationCode = getAttestationCodeForSecurityCode(contractKit, phoneNumber, salt, securityCode, attestations);
+            try (Span span = Span.start("attestationCodeForSecurityCode")) {
+                attestationCode = getAttestationCodeForSecurityCode(contractKit, phoneNumber, salt, securityCode, attestations);
+
+                span.setAttribute("found", attestationCode != null);
+            }
 
             // TODO Can it possibly be previously received but as a url?
         }
@@ -76,13 +87,36 @@ class AttestationCompleter {
             throw new CeloException(CeloError.INVALID_ATTESTATION_CODE, null);
         }
 
-        String issuer = findMatchingIssuer(contractKit, identifier, attestations, attestationCode);
+        List<String> issuers = new ArrayList<>(attestations.size());
+
+        for (AttestationRequester.ActionableAttestation attestation: attestations) {
+            issuers.add(attestation.issuer);
+        }
+
+        Map<String, String> attestationSigners = getAttestationSigners(contractKit, issuers, false);
+
+        String issuer = findMatchingIssuer(contractKit, identifier, attestations, attestationSigners, attestationCode);
+
+        if (issuer == null) {
+            // The issuer may have rotated its signer since the signers were cached.
+            attestationSigners = getAttestationSigners(contractKit, issuers, true);
+
+            issuer = findMatchingIssuer(contractKit, identifier, attestations, attestationSigners, attestationCode);
+        }
+
+        Span.current().setAttribute("issuer", issuer);
 
         if (issuer == null) {
             throw new CeloException(CeloError.INVALID_ATTESTATION_CODE, null);
         }
 
-        Sign.SignatureData signatureData = validateAttestationCode(contractKit, issuer, identifier, attestationCode);
+        Sign.SignatureData signatureData;
+
+        try (Span span = Span.start("validateAttestationCode")) {
+            signatureData = validateAttestationCode(contractKit, attestationSigners.get(issuer), identifier, attestationCode);
+
+            span.setAttribute("issuer", issuer).setAttribute("valid", signatureData != null);
+        }
 
         boolean isValidRequest = signatureData != null;
 
@@ -92,8 +126,10 @@ class AttestationCompleter {
 
         BigInteger v = new BigInteger(signatureData.getV());
 
-        try {
-            contractKit.contracts.getAttestations().complete(identifier, v, signatureData.getR(), signatureData.getS()).send();
+        try (Span span = Span.start("completeTransaction")) {
+            TransactionReceipt receipt = contractKit.contracts.getAttestations().complete(identifier, v, signatureData.getR(), signatureData.getS()).send();
+
+            span.setAttribute("transaction", receipt.getTransactionHash());
         } catch (Exception e) {
             throw new CeloException(CeloError.NETWORK_ERROR, e);
         }
@@ -102,19 +138,29 @@ class AttestationCompleter {
         sharedPreferences.edit().putStringSet(phoneNumber, previousCodes).apply();
     }
 
-    private static Sign.SignatureData validateAttestationCode(ContractKit contractKit, String issuer, byte[] identifier, String code) throws CeloException {
-        String attestationSigner;
+    private static Map<String, String> getAttestationSigners(ContractKit contractKit, List<String> issuers, boolean refresh) throws CeloException {
+        AttestationSignerCache cache = AttestationSignerCache.get(contractKit);
 
-        try {
-            attestationSigner = contractKit.contracts.getAccounts().getAttestationSigner(issuer).send();
-        } catch (Throwable t) {
-            throw new CeloException(CeloError.NETWORK_ERROR, t);
+        if (refresh) {
+            cache.invalidate();
         }
 
+        try (Span span = Span.start("attestationSigners")) {
+            span.setAttribute("refresh", refresh);
+
+            return cache.getSigners(contractKit, issuers);
+        }
+    }
+
+    private static Sign.SignatureData validateAttestationCode(ContractKit contractKit, String attestationSigner, byte[] identifier, String code) throws CeloException {
         byte[] expectedSourceMessage = getAttestationMessageToSignFromIdentifier(identifier, contractKit.getAddress());
 
         Sign.SignatureData signatureData = AttestationRequester.verifySignature(expectedSourceMessage, code, attestationSigner);
 
+        if (signatureData == null) {
+            return null;
+        }
+
         BigInteger v = new BigInteger(signatureData.getV());
 
         try {
@@ -127,17 +173,11 @@ class AttestationCompleter {
     }
 
     // https://github.com/celo-org/celo-monorepo/blob/master/packages/sdk/contractkit/src/wrappers/Attestations.ts#414
-    private static String findMatchingIssuer(ContractKit contractKit, byte[] identifier, List<AttestationRequester.ActionableAttestation> attestations, String code) throws CeloException {
+    private static String findMatchingIssuer(ContractKit contractKit, byte[] identifier, List<AttestationRequester.ActionableAttestation> attestations, Map<String, String> attestationSigners, String code) {
         byte[] expectedSourceMessage = getAttestationMessageToSignFromIdentifier(identifier, contractKit.getAddress());
 
         for (AttestationRequester.ActionableAttestation attestation: attestations) {
-            String attestationSigner;
-
-            try {
-                attestationSigner = contractKit.contracts.getAccounts().getAttestationSigner(attestation.issuer).send();
-            } catch (Throwable t) {
-                throw new CeloException(CeloError.NETWORK_ERROR, t);
-            }
+            String attestationSigner = attestationSigners.get(attestation.issuer);
 
             if (AttestationRequester.verifySignature(expectedSourceMessage, code, attestationSigner) != null) {
                 return attestation.issuer;
@@ -203,27 +243,19 @@ class AttestationCompleter {
 
         url = url + "get_attestations?" + urlParams.toString();
 
-        try {
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-
-            connection.setRequestProperty("Authentication", authHeader);
-            connection.setRequestProperty("Content-Type", "application/json");
+        Request request = HttpTransport.getRequest(url)
+                .header("Authentication", authHeader)
+                .header("Content-Type", "application/json")
+                .build();
 
-            int responseCode = connection.getResponseCode();
-
-            if (responseCode >= 200 && responseCode < 300) {
-                JSONObject body = new JSONObject(InternalUtils.streamToString(connection.getInputStream()));
-
-                connection.disconnect();
+        try (HttpTransport.Response response = HttpTransport.get().execute(request)) {
+            if (response.isSuccessful()) {
+                JSONObject body = new JSONObject(response.string());
 
                 return body.getString("attestationCode");
             }
             else {
-                String text = InternalUtils.streamToString(connection.getErrorStream());
-
-                connection.disconnect();
-
-                Log.e(TAG, "Error getting security code for " + attestation.issuer + ". " + responseCode + ": " + text);
+                Log.e(TAG, "Error getting security code for " + attestation.issuer + ". " + response.code + ": " + response.string());
             }
         } catch (Throwable t) {
             Log.e(TAG, "Failed to request validator", t);
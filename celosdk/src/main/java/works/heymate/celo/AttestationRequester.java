@@ -9,12 +9,12 @@ import org.celo.contractkit.wrapper.AccountsWrapper;
 import org.celo.contractkit.wrapper.AttestationsWrapper;
 import org.celo.contractkit.wrapper.GasPriceMinimumWrapper;
 import org.celo.contractkit.wrapper.StableTokenWrapper;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.web3j.crypto.Hash;
 import org.web3j.crypto.Keys;
 import org.web3j.crypto.Sign;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
 import org.web3j.protocol.exceptions.TransactionException;
 import org.web3j.tuples.generated.Tuple2;
 import org.web3j.tuples.generated.Tuple3;
@@ -26,13 +26,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import okhttp3.Request;
+
 class AttestationRequester {
 
     private static final String TAG = "Attestation";
@@ -72,6 +75,15 @@ class AttestationRequester {
 
     static final double DEFAULT_ATTESTATION_THRESHOLD = 0.25d;
 
+    // Issuers are revealed to concurrently. A slow issuer only costs its own timeouts, capped by the deadline.
+    private static final long ISSUER_CALL_TIMEOUT_MILLIS = 30_000;
+    private static final long REVEAL_DEADLINE_MILLIS = 45_000;
+
+    private static final int METADATA_LOOKUP_CONCURRENCY = 5;
+    private static final long ISSUER_LOOKUP_BUDGET_MILLIS = 30_000;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     private static final String CLAIM_TYPE_ATTESTATION_SERVICE_URL = "ATTESTATION_SERVICE_URL";
     private static final String CLAIM_TYPE_ACCOUNT = "ACCOUNT";
     private static final String CLAIM_TYPE_DOMAIN = "DOMAIN";
@@ -98,12 +110,16 @@ class AttestationRequester {
             AttestationsWrapper.AttestationStat attestationStat;
             List<ActionableAttestation> actionableAttestations;
 
-            try {
+            try (Span span = Span.start("fetchVerificationState")) {
                 Tuple2<AttestationsWrapper.AttestationStat, List<ActionableAttestation>> verificationState =
                         fetchVerificationState(contractKit, phoneNumber, salt);
 
                 attestationStat = verificationState.component1();
                 actionableAttestations = verificationState.component2();
+
+                span.setAttribute("completed", attestationStat.completed)
+                        .setAttribute("total", attestationStat.total)
+                        .setAttribute("actionable", actionableAttestations.size());
             } catch (CeloException e) {
                 result.errorCause = new CeloException(CeloError.ATTESTATION_VERIFICATION_STATUS, e);
                 return result;
@@ -113,7 +129,16 @@ class AttestationRequester {
             result.totalAttestations = attestationStat.total;
             result.completedAttestations = attestationStat.completed;
 
-            Tuple2<AttestationResult, Boolean> callResult = doVerificationFlow(contractKit, attestationStat, phoneNumber, salt, actionableAttestations, withoutRevealing);
+            Tuple2<AttestationResult, Boolean> callResult;
+
+            try (Span span = Span.start("doVerificationFlow")) {
+                callResult = doVerificationFlow(contractKit, attestationStat, phoneNumber, salt, actionableAttestations, withoutRevealing);
+
+                span.setAttribute("withoutRevealing", withoutRevealing)
+                        .setAttribute("restart", callResult.component2())
+                        .setAttribute("newAttestations", callResult.component1().newAttestations)
+                        .setAttribute("error", callResult.component1().errorCause);
+            }
 
             AttestationResult verification = callResult.component1();
             boolean restart = callResult.component2();
@@ -137,7 +162,7 @@ class AttestationRequester {
     ) {
         AttestationResult result = new AttestationResult(status);
 
-        byte[] phoneHash = Utils.getPhoneHash(phoneNumber, salt);
+        byte[] phoneHash = IdentifierCache.get().getIdentifier(phoneNumber, salt);
 
         if (!AttestationsWrapper.isAccountConsideredVerified(status, NUM_ATTESTATIONS_REQUIRED, DEFAULT_ATTESTATION_THRESHOLD).isVerified) {
             withoutRevealing = false; // TODO Make sense of this
@@ -167,7 +192,9 @@ class AttestationRequester {
                 if (attestationsToRequest > 0) {
                     int attestationsBefore = attestations.size();
 
-                    try {
+                    try (Span span = Span.start("requestAndRetrieveAttestations")) {
+                        span.setAttribute("needed", attestations.size() + attestationsToRequest);
+
                         attestations = requestAndRetrieveAttestations(contractKit, phoneHash, attestations, attestations.size() + attestationsToRequest);
                     } catch (CeloException e) {
                         result.countsAreReliable = false;
@@ -216,34 +243,58 @@ class AttestationRequester {
             return;
         }
 
-        UnselectedRequest unselectedRequest = getUnselectedRequest(contractKit, phoneHash);
+        boolean isUnselectedRequestValid;
 
-        boolean isUnselectedRequestValid = !unselectedRequest.blockNumber.equals(BigInteger.ZERO);
+        try (Span span = Span.start("checkUnselectedRequest")) {
+            UnselectedRequest unselectedRequest = getUnselectedRequest(contractKit, phoneHash);
 
-        if (isUnselectedRequestValid) {
-            try {
-                isUnselectedRequestValid = !isAttestationExpired(contractKit, unselectedRequest.blockNumber);
-            } catch (Throwable t) {
-                throw new CeloException(CeloError.NETWORK_ERROR, t);
+            span.setAttribute("block", unselectedRequest.blockNumber);
+
+            isUnselectedRequestValid = !unselectedRequest.blockNumber.equals(BigInteger.ZERO);
+
+            if (isUnselectedRequestValid) {
+                try {
+                    isUnselectedRequestValid = !isAttestationExpired(contractKit, unselectedRequest.blockNumber);
+                } catch (Throwable t) {
+                    throw new CeloException(CeloError.NETWORK_ERROR, t);
+                }
             }
+
+            span.setAttribute("valid", isUnselectedRequestValid);
         }
 
         if (!isUnselectedRequestValid) {
             BigInteger bigNumAttestationsRequestsNeeded = BigInteger.valueOf(numAttestationsRequestsNeeded);
 
-            try {
-                approveAttestationFee(contractKit, bigNumAttestationsRequestsNeeded);
+            try (Span span = Span.start("requestTransaction")) {
+                span.setAttribute("attestations", numAttestationsRequestsNeeded);
 
-                contractKit.contracts.getAttestations().getContract().request(phoneHash, bigNumAttestationsRequestsNeeded, contractKit.contracts.getStableToken().getContractAddress()).send();
+                try (Span approveSpan = Span.start("approveAttestationFee")) {
+                    TransactionReceipt approveReceipt = approveAttestationFee(contractKit, bigNumAttestationsRequestsNeeded);
+
+                    approveSpan.setAttribute("transaction", approveReceipt.getTransactionHash());
+                }
+
+                TransactionReceipt receipt = contractKit.contracts.getAttestations().getContract().request(phoneHash, bigNumAttestationsRequestsNeeded, contractKit.contracts.getStableToken().getContractAddress()).send();
+
+                span.setAttribute("transaction", receipt.getTransactionHash());
             } catch (Throwable t) {
                 throw new CeloException((t instanceof TransactionException) ? CeloError.INSUFFICIENT_BALANCE : CeloError.NETWORK_ERROR, t);
             }
         }
 
-        waitForSelectingIssuers(contractKit, phoneHash);
+        Span waitSpan = Span.start("waitForSelectingIssuers");
 
         try {
-            contractKit.contracts.getAttestations().selectIssuers(phoneHash).send();
+            waitForSelectingIssuers(contractKit, phoneHash);
+        } finally {
+            waitSpan.end();
+        }
+
+        try (Span span = Span.start("selectIssuers")) {
+            TransactionReceipt receipt = contractKit.contracts.getAttestations().selectIssuers(phoneHash).send();
+
+            span.setAttribute("transaction", receipt.getTransactionHash());
         } catch (Throwable t) {
             throw new CeloException(CeloError.NETWORK_ERROR, t);
         }
@@ -251,7 +302,6 @@ class AttestationRequester {
 
     private static void waitForSelectingIssuers(ContractKit contractKit, byte[] identifier) throws CeloException {
         final int timeoutSeconds = 120;
-        final int pollDurationSeconds = 1;
 
         AttestationsWrapper attestations = contractKit.contracts.getAttestations();
 
@@ -271,22 +321,18 @@ class AttestationRequester {
             return;
         }
 
-        while (System.currentTimeMillis() - startTime < timeoutSeconds * 1000) {
-            try {
-                BigInteger blockNumber = getBlockNumber(contractKit);
+        Span.current()
+                .setAttribute("requestBlock", unselectedRequest.blockNumber)
+                .setAttribute("targetBlock", unselectedRequest.blockNumber.add(waitBlocks));
 
-                if (blockNumber.compareTo(unselectedRequest.blockNumber.add(waitBlocks)) >= 0) {
-                    return;
-                }
+        long remaining = timeoutSeconds * 1000L - (System.currentTimeMillis() - startTime);
 
-                try {
-                    Thread.sleep(pollDurationSeconds * 1000);
-                } catch (InterruptedException e) {
-                    break;
-                }
-            } catch (Throwable t) {
-                Log.e(TAG, "Failed to get block number. Ignored.", t);
+        try {
+            if (BlockNotifier.get(contractKit.web3j).awaitBlock(unselectedRequest.blockNumber.add(waitBlocks), remaining)) {
+                return;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
         throw new CeloException(CeloError.ATTESTATION_SLOW_BLOCKS, null);
@@ -303,13 +349,17 @@ class AttestationRequester {
     private static int revealAttestations(ContractKit contractKit, List<ActionableAttestation> attestations, String phoneNumber, String salt) {
         final boolean isFeelessVerification = false;
 
-        List<PossibleError> possibleErrors = requestAttestationFromIssuers(attestations, phoneNumber, contractKit.getAddress(), salt, isFeelessVerification);
+        try (Span span = Span.start("revealAttestations")) {
+            List<PossibleError> possibleErrors = requestAttestationFromIssuers(attestations, phoneNumber, contractKit.getAddress(), salt, isFeelessVerification);
+
+            span.setAttribute("attestations", attestations.size()).setAttribute("failed", possibleErrors.size());
 
-        return attestations.size() - possibleErrors.size();
+            return attestations.size() - possibleErrors.size();
+        }
     }
 
     private static Tuple2<AttestationsWrapper.AttestationStat, List<ActionableAttestation>> fetchVerificationState(ContractKit contractKit, String phoneNumber, String salt) throws CeloException {
-        byte[] identifier = Utils.getPhoneHash(phoneNumber, salt);
+        byte[] identifier = IdentifierCache.get().getIdentifier(phoneNumber, salt);
 
         AttestationsWrapper.AttestationStat attestationStat;
 
@@ -351,8 +401,6 @@ class AttestationRequester {
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/wrappers/Attestations.ts#L273
     private static ActionableAttestation[] lookupAttestationServiceUrls(ContractKit contractKit, byte[] identifier) throws CeloException {
-        final int tries = 3;
-
         AttestationsWrapper attestations = contractKit.contracts.getAttestations();
 
         // blockNumbers, issuers, whereToBreakTheString, metadataURLs
@@ -366,14 +414,46 @@ class AttestationRequester {
 
         String[] metadataURLs = parseSolidityStringArray(rawCompletableAttestations.component3(), rawCompletableAttestations.component4());
 
+        return lookupAttestationServiceURLs(contractKit, rawCompletableAttestations.component1(), rawCompletableAttestations.component2(), metadataURLs);
+    }
+
+    // Every issuer is looked up concurrently with its own time budget. Results keep the order of the issuers.
+    private static ActionableAttestation[] lookupAttestationServiceURLs(ContractKit contractKit, List<BigInteger> blockNumbers, List<String> issuers, String[] metadataURLs) {
+        List<Integer> indices = new ArrayList<>(metadataURLs.length);
+
+        for (int i = 0; i < metadataURLs.length; i++) {
+            indices.add(i);
+        }
+
+        Span parentSpan = Span.start("lookupAttestationServiceUrls").setAttribute("issuers", metadataURLs.length);
+
+        List<ParallelCall.Result<ActionableAttestation>> results = ParallelCall.map(indices, METADATA_LOOKUP_CONCURRENCY, 0, i -> {
+            report("About to lookup attestation service url for " + i + " out of " + metadataURLs.length);
+
+            try (Span span = parentSpan.child("lookupIssuer")) {
+                span.setAttribute("issuer", issuers.get(i)).setAttribute("block", blockNumbers.get(i));
+
+                ActionableAttestation attestation = lookupAttestationServiceURL(
+                        contractKit,
+                        blockNumbers.get(i),
+                        issuers.get(i),
+                        metadataURLs[i],
+                        System.currentTimeMillis() + ISSUER_LOOKUP_BUDGET_MILLIS);
+
+                span.setAttribute("valid", attestation.isValid);
+
+                return attestation;
+            }
+        });
+
+        parentSpan.end();
+
         ActionableAttestation[] lookupResults = new ActionableAttestation[metadataURLs.length];
 
         for (int i = 0; i < lookupResults.length; i++) {
-            lookupResults[i] = lookupAttestationServiceURL(
-                    contractKit,
-                    rawCompletableAttestations.component1().get(i),
-                    rawCompletableAttestations.component2().get(i),
-                    metadataURLs[i]);
+            ParallelCall.Result<ActionableAttestation> result = results.get(i);
+
+            lookupResults[i] = result.isSuccessful() ? result.value : ActionableAttestation.invalid(issuers.get(i));
         }
 
         return lookupResults;
@@ -414,6 +494,8 @@ class AttestationRequester {
     private static AttestationProgressReporter sReporter = null;
 
     private static void report(String message) {
+        Span.current().addEvent(message);
+
         if (sReporter != null) {
             sReporter.report(message);
         }
@@ -445,7 +527,7 @@ class AttestationRequester {
         StableTokenWrapper stableToken = contractKit.contracts.getStableToken();
         GasPriceMinimumWrapper gasPriceMinimum = contractKit.contracts.getGasPriceMinimum();
 
-        byte[] identifier = Utils.getPhoneHash(phoneNumber, salt);
+        byte[] identifier = IdentifierCache.get().getIdentifier(phoneNumber, salt);
 
         Set<String> nonCompliantIssuersAlreadyLogged = new HashSet<>();
 
@@ -518,74 +600,81 @@ class AttestationRequester {
 
     // https://github.com/celo-org/celo-monorepo/blob/master/packages/env-tests/src/shared/attestation.ts#L26
     private static List<PossibleError> requestAttestationFromIssuers(List<ActionableAttestation> attestationsToReveal, String phoneNumber, String account, String pepper, boolean securityCode) {
+        Span parentSpan = Span.current();
+
+        List<ParallelCall.Result<PossibleError>> results = ParallelCall.map(attestationsToReveal, attestationsToReveal.size(), REVEAL_DEADLINE_MILLIS, attestation -> {
+            try (Span span = parentSpan.child("revealToIssuer")) {
+                span.setAttribute("issuer", attestation.issuer).setAttribute("name", attestation.name);
+
+                PossibleError possibleError = requestAttestationFromIssuer(attestation, phoneNumber, account, pepper, securityCode);
+
+                span.setAttribute("result", possibleError == null ? "ok" : possibleError.error != null ? possibleError.error.getMessage() : possibleError.status);
+
+                return possibleError;
+            }
+        });
+
         List<PossibleError> possibleErrors = new ArrayList<>(attestationsToReveal.size());
 
-        for (ActionableAttestation attestation: attestationsToReveal) {
-            JSONObject attestationRequest = new JSONObject();
+        for (int i = 0; i < results.size(); i++) {
+            ParallelCall.Result<PossibleError> result = results.get(i);
 
-            try {
-                attestationRequest.put("phoneNumber", phoneNumber);
-                attestationRequest.put("account", account);
-                attestationRequest.put("issuer", attestation.issuer);
-                attestationRequest.put("salt", pepper);
-                // attestationRequest.put("smsRetrieverAppSig", JSONObject.NULL); Undefined in js means don't include to JSON.stringify
-                if (securityCode) {
-                    attestationRequest.put("securityCodePrefix", new BigInteger(Numeric.cleanHexPrefix(account), 16).mod(BigInteger.TEN).toString());
-                }
-                // attestationRequest.put("language", JSONObject.NULL); Undefined in js means don't include to JSON.stringify
-            } catch (JSONException e) { }
+            if (!result.isSuccessful()) {
+                ActionableAttestation attestation = attestationsToReveal.get(i);
 
-            String url;
+                report("Failed. Revealing to issuer did not finish in time: " + attestation.attestationServiceURL);
 
-            if (attestation.attestationServiceURL.endsWith("/")) {
-                url = attestation.attestationServiceURL + "attestations";
+                possibleErrors.add(new PossibleError(result.error, attestation.issuer));
             }
-            else {
-                url = attestation.attestationServiceURL + "/attestations";
+            else if (result.value != null) {
+                possibleErrors.add(result.value);
             }
+        }
 
-            HttpURLConnection connection = null;
+        return possibleErrors;
+    }
 
-            try {
-                connection = (HttpURLConnection) new URL(url).openConnection();
-                connection.setInstanceFollowRedirects(true);
+    private static PossibleError requestAttestationFromIssuer(ActionableAttestation attestation, String phoneNumber, String account, String pepper, boolean securityCode) {
+        JSONObject attestationRequest = new JSONObject();
 
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setDoOutput(true);
-                connection.getOutputStream().write(attestationRequest.toString().getBytes());
+        try {
+            attestationRequest.put("phoneNumber", phoneNumber);
+            attestationRequest.put("account", account);
+            attestationRequest.put("issuer", attestation.issuer);
+            attestationRequest.put("salt", pepper);
+            // attestationRequest.put("smsRetrieverAppSig", JSONObject.NULL); Undefined in js means don't include to JSON.stringify
+            if (securityCode) {
+                attestationRequest.put("securityCodePrefix", new BigInteger(Numeric.cleanHexPrefix(attestation.issuer), 16).mod(BigInteger.TEN).toString());
+            }
+            // attestationRequest.put("language", JSONObject.NULL); Undefined in js means don't include to JSON.stringify
+        } catch (JSONException e) { }
 
-                int responseCode = connection.getResponseCode();
+        String url;
 
-                if (responseCode < 200 || responseCode >= 300) {
-                    report("Failed. Attestation not requested from issuer: " + url + " - responseCode = "+responseCode);
+        if (attestation.attestationServiceURL.endsWith("/")) {
+            url = attestation.attestationServiceURL + "attestations";
+        }
+        else {
+            url = attestation.attestationServiceURL + "/attestations";
+        }
 
-                    InputStream stream = null;
-                    try {
-                        stream = connection.getInputStream();
-                    } catch (Throwable t) { }
-                    if (stream == null) {
-                        stream = connection.getErrorStream();
-                    }
+        Request request = HttpTransport.postJsonRequest(url, attestationRequest.toString()).build();
 
-                    possibleErrors.add(new PossibleError(responseCode, InternalUtils.streamToString(stream), attestation.issuer, attestation.name));
-                }
+        try (HttpTransport.Response response = HttpTransport.get().execute(request, ISSUER_CALL_TIMEOUT_MILLIS)) {
+            if (!response.isSuccessful()) {
+                report("Failed. Attestation not requested from issuer: " + url + " - responseCode = " + response.code);
 
-                report("Success. Attestation requested from issuer: " + url);
-            } catch (Throwable t) {
-                report("Failed. Error when requesting attestation from issuer: " + url + " - " + t.getMessage());
+                return new PossibleError(response.code, response.string(), attestation.issuer, attestation.name);
+            }
 
-                possibleErrors.add(new PossibleError(t, attestation.issuer));
+            report("Success. Attestation requested from issuer: " + url);
 
-                if (connection != null) {
-                    try {
-                        connection.disconnect();
-                    } catch (Throwable tt) { }
-                }
-            }
-        }
+            return null;
+        } catch (Throwable t) {
+            report("Failed. Error when requesting attestation from issuer: " + url + " - " + t.getMessage());
 
-        return possibleErrors;
+            return new PossibleError(t, attestation.issuer);
+        }
     }
 
     private static class PossibleError {
@@ -635,8 +724,6 @@ class AttestationRequester {
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/wrappers/Attestations.ts#L273
     private static ActionableAttestation[] lookupAttestationServiceUrls(ContractKit contractKit, byte[] identifier, String account) throws Throwable {
-        final int tries = 3;
-
         AttestationsWrapper attestations = contractKit.contracts.getAttestations();
 
         report("Getting completable attestations");
@@ -646,21 +733,9 @@ class AttestationRequester {
 
         String[] metadataURLs = parseSolidityStringArray(rawCompletableAttestations.component3(), rawCompletableAttestations.component4());
 
-        ActionableAttestation[] lookupResults = new ActionableAttestation[metadataURLs.length];
-
-        report(lookupResults.length + " completable attestations found");
+        report(metadataURLs.length + " completable attestations found");
 
-        for (int i = 0; i < lookupResults.length; i++) {
-            report("About to lookup attestation service url for " + i + " out of " + lookupResults.length);
-
-            lookupResults[i] = lookupAttestationServiceURL(
-                    contractKit,
-                    rawCompletableAttestations.component1().get(i),
-                    rawCompletableAttestations.component2().get(i),
-                    metadataURLs[i]);
-        }
-
-        return lookupResults;
+        return lookupAttestationServiceURLs(contractKit, rawCompletableAttestations.component1(), rawCompletableAttestations.component2(), metadataURLs);
     }
 
     private static int requestMoreAttestations(ContractKit contractKit, byte[] phoneNumber, BigInteger attestationsRequested, String account, String feeCurrency, BigInteger gasPrice) {
@@ -712,7 +787,13 @@ class AttestationRequester {
 
         report("Waiting enough time to call the select");
 
-        int waitResult = waitForSelectingIssuers(contractKit, phoneNumber, account);
+        int waitResult;
+
+        try (Span span = Span.start("waitForSelectingIssuers")) {
+            waitResult = waitForSelectingIssuers(contractKit, phoneNumber, account);
+
+            span.setAttribute("result", waitResult);
+        }
 
         if (waitResult != RESULT_SUCCESS) {
             return waitResult;
@@ -734,7 +815,6 @@ class AttestationRequester {
 
     private static int waitForSelectingIssuers(ContractKit contractKit, byte[] identifier, String account) {
         final int timeoutSeconds = 120;
-        final int pollDurationSeconds = 1;
 
         AttestationsWrapper attestations = contractKit.contracts.getAttestations();
 
@@ -761,35 +841,31 @@ class AttestationRequester {
             return RESULT_INCONSISTENT_STATE;
         }
 
-        while (System.currentTimeMillis() - startTime < timeoutSeconds * 1000) {
-            try {
-                BigInteger blockNumber = getBlockNumber(contractKit);
+        Span.current()
+                .setAttribute("requestBlock", unselectedRequest.blockNumber)
+                .setAttribute("targetBlock", unselectedRequest.blockNumber.add(waitBlocks));
 
-                if (blockNumber.compareTo(unselectedRequest.blockNumber.add(waitBlocks)) >= 0) {
-                    return RESULT_SUCCESS;
-                }
+        long remaining = timeoutSeconds * 1000L - (System.currentTimeMillis() - startTime);
 
-                try {
-                    Thread.sleep(pollDurationSeconds * 1000);
-                } catch (InterruptedException e) {
-                    break;
-                }
-            } catch (Throwable t) {
-                Log.e(TAG, "Failed to get block number. Ignored.", t);
+        try {
+            if (BlockNotifier.get(contractKit.web3j).awaitBlock(unselectedRequest.blockNumber.add(waitBlocks), remaining)) {
+                return RESULT_SUCCESS;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
         return RESULT_TIME_OUT_WHILE_WAITING_FOR_SELECTING_ISSUERS;
     }
 
-    private static void approveAttestationFee(ContractKit contractKit, BigInteger attestationsRequested) throws Throwable {
+    private static TransactionReceipt approveAttestationFee(ContractKit contractKit, BigInteger attestationsRequested) throws Throwable {
         AttestationsWrapper attestations = contractKit.contracts.getAttestations();
 
         StableTokenWrapper tokenContract = contractKit.contracts.getStableToken();
         String tokenAddress = tokenContract.getContractAddress();
         BigInteger attestationFree = attestations.getAttestationRequestFee(tokenAddress).send();
         BigInteger fee = attestationFree.multiply(attestationsRequested);
-        tokenContract.approve(attestations.getContractAddress(), fee).send();
+        return tokenContract.approve(attestations.getContractAddress(), fee).send();
     }
 
     private static boolean isAttestationExpired(ContractKit contractKit, BigInteger attestationRequestBlockNumber) throws Throwable {
@@ -842,11 +918,11 @@ class AttestationRequester {
     }
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/wrappers/Attestations.ts#L314
-    private static ActionableAttestation lookupAttestationServiceURL(ContractKit contractKit, BigInteger blockNumber, String issuer, String metadataURL) {
+    private static ActionableAttestation lookupAttestationServiceURL(ContractKit contractKit, BigInteger blockNumber, String issuer, String metadataURL, long deadline) {
         final int tries = 3;
 
         try {
-            Metadata metadata = fetchFromUrl(contractKit, metadataURL, tries);
+            Metadata metadata = fetchFromUrl(contractKit, metadataURL, tries, deadline);
 
             report("Fetched metadata from url: " + metadataURL + " - Getting status and version");
 
@@ -875,17 +951,16 @@ class AttestationRequester {
                 url = attestationServiceURLClaim.url + "/status";
             }
 
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setInstanceFollowRedirects(true);
+            JSONObject json;
 
-            int responseCode = connection.getResponseCode();
+            try (HttpTransport.Response response = HttpTransport.get().execute(HttpTransport.getRequest(url).build(), remainingBudget(deadline))) {
+                if (!response.isSuccessful()) {
+                    throw new Exception("Request failed with status " + response.code);
+                }
 
-            if (responseCode < 200 || responseCode >= 300) {
-                throw new Exception("Request failed with status " + responseCode);
+                json = new JSONObject(response.string());
             }
 
-            JSONObject json = new JSONObject(InternalUtils.streamToString(connection.getInputStream()));
-
             String status = json.getString("status");
             String version = json.getString("version");
 
@@ -930,27 +1005,64 @@ class AttestationRequester {
     }
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/identity/metadata.ts#L41
-    private static Metadata fetchFromUrl(ContractKit contractKit, String url, int tries) throws Throwable {
+    private static Metadata fetchFromUrl(ContractKit contractKit, String url, int tries, long deadline) throws Throwable {
+        MetadataCache cache = MetadataCache.get();
+
+        MetadataCache.CachedMetadata cached = cache.get(url);
+
+        if (cached != null && cache.isFresh(cached)) {
+            return cached.metadata;
+        }
+
         boolean doNotCatch = false;
 
         while (true) {
             try {
-                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-                connection.setInstanceFollowRedirects(true);
+                Request.Builder request = HttpTransport.getRequest(url);
 
-                int responseCode = connection.getResponseCode();
+                if (cached != null) {
+                    if (cached.eTag != null) {
+                        request.header("If-None-Match", cached.eTag);
+                    }
 
-                if (responseCode < 200 || responseCode >= 300) {
-                    throw new Exception("Request failed with status " + responseCode);
+                    if (cached.lastModified != null) {
+                        request.header("If-Modified-Since", cached.lastModified);
+                    }
                 }
 
-                String rawData = InternalUtils.streamToString(connection.getInputStream());
+                String eTag;
+                String lastModified;
+                byte[] rawData;
+
+                try (HttpTransport.Response response = HttpTransport.get().execute(request.build(), remainingBudget(deadline))) {
+                    eTag = response.header("ETag");
+                    lastModified = response.header("Last-Modified");
 
-                connection.disconnect();
+                    if (response.code == HTTP_NOT_MODIFIED && cached != null) {
+                        return cache.revalidated(cached, eTag, lastModified).metadata;
+                    }
+
+                    if (!response.isSuccessful()) {
+                        throw new Exception("Request failed with status " + response.code);
+                    }
+
+                    InternalUtils.ByteView body = response.bytes();
+
+                    rawData = Arrays.copyOf(body.bytes, body.length);
+                }
+
+                if (cached != null && Arrays.equals(rawData, cached.rawData)) {
+                    return cache.revalidated(cached, eTag, lastModified).metadata;
+                }
 
                 try {
-                    return metadataFromRawString(contractKit, rawData);
+                    Metadata metadata = metadataFromRawData(contractKit, rawData);
+
+                    cache.put(url, rawData, metadata, eTag, lastModified);
+
+                    return metadata;
                 } catch (Throwable t) {
+                    cache.invalidate(url);
                     doNotCatch = true;
                     throw t;
                 }
@@ -961,18 +1073,26 @@ class AttestationRequester {
 
                 tries--;
 
-                if (tries == 0) {
+                if (tries == 0 || System.currentTimeMillis() >= deadline) {
                     throw t;
                 }
             }
         }
     }
 
-    // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/identity/metadata.ts#L87
-    private static Metadata metadataFromRawString(ContractKit contractKit, String rawData) throws Throwable {
-        JSONObject data = new JSONObject(rawData);
+    private static long remainingBudget(long deadline) throws SocketTimeoutException {
+        long remaining = deadline - System.currentTimeMillis();
 
-        Metadata validatedData = new Metadata(data);
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Time budget for the issuer is used up.");
+        }
+
+        return remaining;
+    }
+
+    // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/identity/metadata.ts#L87
+    private static Metadata metadataFromRawData(ContractKit contractKit, byte[] rawData) throws Throwable {
+        Metadata validatedData = MetadataParser.parse(rawData);
 
         byte[] hash = hashOfClaims(validatedData.claims);
 
@@ -1022,8 +1142,6 @@ class AttestationRequester {
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/utils/src/signatureUtils.ts#L102
     static Sign.SignatureData verifySignature(byte[] message, String signature, String signer) {
-        Sign.SignatureData bypassing = null;
-
         signature = signature.substring(2);
 
         byte[] messageHash = hashMessageWithPrefix(message);
@@ -1040,10 +1158,6 @@ class AttestationRequester {
                 v += 27;
             }
 
-            try {
-                bypassing = new Sign.SignatureData(v, r, s);
-            } catch (Throwable t) {}
-
             Sign.SignatureData signatureData = isValidSignature(signer, messageHash, v, r, s);
 
             if (signatureData != null) {
@@ -1061,10 +1175,6 @@ class AttestationRequester {
                 v += 27;
             }
 
-            try {
-                bypassing = new Sign.SignatureData(v, r, s);
-            } catch (Throwable t) {}
-
             Sign.SignatureData signatureData = isValidSignature(signer, messageHash, v, r, s);
 
             if (signatureData != null) {
@@ -1076,9 +1186,7 @@ class AttestationRequester {
 
         Log.w(TAG, "Unable to parse signature (expected signer " + signer + ")");
 
-        // TODO Bypassing security check. This is a technical dept here.
-
-        return bypassing; // Should return false
+        return null;
     }
 
     private static Sign.SignatureData isValidSignature(String signer, byte[] message, byte v, byte[] r, byte[] s) {
@@ -1091,36 +1199,30 @@ class AttestationRequester {
 
             signer = Numeric.cleanHexPrefix(signer);
 
-            return retrievedAddress.equals(signer) ? signatureData : null;
+            return retrievedAddress.equalsIgnoreCase(signer) ? signatureData : null;
         } catch (Throwable t) {
             return null;
         }
     }
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/identity/metadata.ts#L22
-    private static class Metadata {
+    static class Metadata {
 
         List<Claim> claims;
         Meta meta;
 
-        Metadata(JSONObject data) throws Throwable {
-            JSONArray jClaims = data.getJSONArray("claims");
-
-            claims = new ArrayList<>(jClaims.length());
-
-            for (int i = 0; i < jClaims.length(); i++) {
-                claims.add(new Claim(jClaims.getJSONObject(i)));
-            }
-
-            meta = new Meta(data.getJSONObject("meta"));
+        Metadata(List<Claim> claims, Meta meta) {
+            this.claims = claims;
+            this.meta = meta;
         }
 
     }
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/identity/claims/claim.ts#L39
-    private static class Claim {
+    static class Claim {
 
-        String serializedClaim;
+        // UTF-8 bytes of JSON.stringify(claim), which is what gets signed.
+        byte[] serializedClaim;
 
         String type;
         long timestamp;
@@ -1146,37 +1248,40 @@ class AttestationRequester {
         // attestation service url claim
         String url;
 
-        Claim(JSONObject jClaim) throws Throwable {
-            serializedClaim = jClaim.toString();
+        /**
+         * @param members Members of the claim as read by {@link MetadataParser}.
+         */
+        Claim(byte[] serializedClaim, Map<String, Object> members) throws Throwable {
+            this.serializedClaim = serializedClaim;
 
-            type = jClaim.getString("type");
-            long timestamp = jClaim.getLong("timestamp");
+            type = getString(members, "type");
+            timestamp = getLong(members, "timestamp");
 
             switch (type) {
                 case CLAIM_TYPE_STORAGE:
-                    address = jClaim.getString("address");
-                    filteredDataPaths = jClaim.getString("filteredDataPaths");
+                    address = getString(members, "address");
+                    filteredDataPaths = getString(members, "filteredDataPaths");
                     break;
                 case CLAIM_TYPE_NAME:
-                    name = jClaim.getString("name");
+                    name = getString(members, "name");
                     break;
                 case CLAIM_TYPE_DOMAIN:
-                    domain = jClaim.getString("domain");
+                    domain = getString(members, "domain");
                     break;
                 case CLAIM_TYPE_KEYBASE:
-                    username = jClaim.getString("username");
+                    username = getString(members, "username");
                     break;
                 case CLAIM_TYPE_ACCOUNT:
-                    publicKey = jClaim.has("publicKey") ? jClaim.get("publicKey") : null;
+                    publicKey = members.get("publicKey");
 
                     if (publicKey == JSONObject.NULL) {
                         publicKey = null;
                     }
 
-                    address = asAddressType(jClaim.getString("address"));
+                    address = asAddressType(getString(members, "address"));
                     break;
                 case CLAIM_TYPE_ATTESTATION_SERVICE_URL:
-                    url = jClaim.getString("url");
+                    url = getString(members, "url");
 
                     if (!url.matches(URL_REGEX)) {
                         throw new Exception(url + " is not a valid url");
@@ -1187,20 +1292,38 @@ class AttestationRequester {
 
     }
 
-    private static class Meta {
+    static class Meta {
 
         String address;
         String signature;
 
-        Meta(JSONObject jMeta) throws Throwable {
-            address = asAddressType(jMeta.getString("address"));
-            signature = jMeta.getString("signature");
+        Meta(Map<String, Object> members) throws Throwable {
+            address = asAddressType(getString(members, "address"));
+            signature = getString(members, "signature");
+        }
+
+    }
+
+    private static String getString(Map<String, Object> members, String key) throws JSONException {
+        Object value = members.get(key);
+
+        if (value == null) {
+            throw new JSONException("No value for " + key);
         }
 
+        return String.valueOf(value);
+    }
+
+    private static long getLong(Map<String, Object> members, String key) throws JSONException {
+        try {
+            return (long) Double.parseDouble(getString(members, key));
+        } catch (NumberFormatException e) {
+            throw new JSONException("Value for " + key + " is not a number");
+        }
     }
 
     // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/contractkit/src/identity/claims/claim.ts#L101
-    private static byte[] hashOfClaims(List<Claim> claims) {
+    static byte[] hashOfClaims(List<Claim> claims) {
         int bytesPerHash = 256 / 8;
         int totalBytes = bytesPerHash * claims.size();
 
@@ -1219,15 +1342,11 @@ class AttestationRequester {
         return hashMessage(hashes);
     }
 
+    // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/utils/src/signatureUtils.ts#L31
     private static byte[] hashOfClaim(Claim claim) {
         return hashMessage(claim.serializedClaim);
     }
 
-    // https://github.com/celo-org/celo-monorepo/blob/218f32526b45d77bd23d1375907b791cfdf0f619/packages/sdk/utils/src/signatureUtils.ts#L31
-    private static byte[] hashMessage(String message) {
-        return Utils.soliditySha3(message);
-    }
-
     private static byte[] hashMessage(byte[] message) {
         return Hash.sha3(message);
     }
@@ -1241,7 +1360,7 @@ class AttestationRequester {
         return hashMessage(completeMessage);
     }
 
-    private static String[] parseSolidityStringArray(List<BigInteger> stringLengths, byte[] stringData) {
+    static String[] parseSolidityStringArray(List<BigInteger> stringLengths, byte[] stringData) {
         String[] strings = new String[stringLengths.size()];
 
         int offset = 0;
@@ -1285,7 +1404,7 @@ class AttestationRequester {
     }
 
     // https://github.com/ethereumjs/ethereumjs-util/blob/master/src/account.ts#L139
-    private static String toChecksumAddress(String address) {
+    static String toChecksumAddress(String address) {
         address = address.substring(2).toLowerCase();
 
         String hash = keccak(address);
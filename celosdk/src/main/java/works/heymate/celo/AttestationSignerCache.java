@@ -0,0 +1,168 @@
+package works.heymate.celo;
+
+import org.celo.contractkit.ContractKit;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Attestation signers of issuers, per ContractKit. Signers are kept for the epoch they were read in.
+ *
+ * The current epoch is estimated from the last block number seen and the minimum block time, so as
+ * long as every signer is known no request is made at all. Otherwise the block number and all the
+ * missing signers are read in a single batch.
+ */
+class AttestationSignerCache {
+
+    // https://github.com/celo-org/celo-blockchain/blob/master/params/config.go (Epoch on mainnet and alfajores)
+    private static final long EPOCH_SIZE = 17280;
+    private static final long MIN_BLOCK_TIME_MILLIS = 5_000;
+
+    private static final Map<ContractKit, AttestationSignerCache> sCaches = new WeakHashMap<>();
+
+    static AttestationSignerCache get(ContractKit contractKit) {
+        synchronized (sCaches) {
+            AttestationSignerCache cache = sCaches.get(contractKit);
+
+            if (cache == null) {
+                cache = new AttestationSignerCache();
+                sCaches.put(contractKit, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    private final Map<String, String> mSigners = new HashMap<>();
+
+    private long mEpoch = -1;
+    private long mEpochEndsNoEarlierThan = 0;
+
+    private AttestationSignerCache() {
+
+    }
+
+    /**
+     * @param contractKit Must be the ContractKit this cache was obtained for. It is not kept by the
+     *                    cache so that the cache does not keep its own key alive.
+     * @return Attestation signer of every issuer, keyed by the issuer address as given.
+     */
+    Map<String, String> getSigners(ContractKit contractKit, Collection<String> issuers) throws CeloException {
+        Set<String> missing = new LinkedHashSet<>();
+        Map<String, String> signers = new HashMap<>(issuers.size());
+
+        synchronized (this) {
+            if (System.currentTimeMillis() >= mEpochEndsNoEarlierThan) {
+                mSigners.clear();
+            }
+
+            for (String issuer: issuers) {
+                String signer = mSigners.get(key(issuer));
+
+                if (signer != null) {
+                    signers.put(issuer, signer);
+                }
+                else {
+                    missing.add(issuer);
+                }
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return signers;
+        }
+
+        ContractCallBatch batch = new ContractCallBatch(contractKit.web3j, contractKit.getAddress());
+
+        int blockNumberIndex = batch.add(contractKit.web3j.ethBlockNumber());
+
+        String accountsAddress = contractKit.contracts.getAccounts().getContractAddress();
+
+        List<String> requested = new ArrayList<>(missing);
+
+        for (String issuer: requested) {
+            batch.add(accountsAddress, new Function(
+                    "getAttestationSigner",
+                    Collections.singletonList(new Address(issuer)),
+                    Collections.singletonList(new TypeReference<Address>() {})));
+        }
+
+        List<ContractCallBatch.Result> results;
+
+        try {
+            results = batch.send();
+        } catch (IOException e) {
+            throw new CeloException(CeloError.NETWORK_ERROR, e);
+        }
+
+        ContractCallBatch.Result blockNumberResult = results.get(blockNumberIndex);
+
+        if (!blockNumberResult.isSuccessful()) {
+            throw new CeloException(CeloError.NETWORK_ERROR, new Exception(blockNumberResult.error));
+        }
+
+        if (!(blockNumberResult.response instanceof EthBlockNumber)) {
+            throw new CeloException(CeloError.NETWORK_ERROR, new Exception("Unexpected response to eth_blockNumber."));
+        }
+
+        long blockNumber = ((EthBlockNumber) blockNumberResult.response).getBlockNumber().longValue();
+
+        Map<String, String> fetched = new HashMap<>(requested.size());
+
+        for (int i = 0; i < requested.size(); i++) {
+            ContractCallBatch.Result result = results.get(blockNumberIndex + 1 + i);
+
+            if (!result.isSuccessful()) {
+                throw new CeloException(CeloError.NETWORK_ERROR, new Exception(result.error));
+            }
+
+            fetched.put(requested.get(i), ((Address) result.values.get(0)).getValue());
+        }
+
+        synchronized (this) {
+            long epoch = blockNumber / EPOCH_SIZE;
+
+            if (epoch != mEpoch) {
+                mSigners.clear();
+                mEpoch = epoch;
+            }
+
+            long blocksLeft = (epoch + 1) * EPOCH_SIZE - blockNumber;
+            mEpochEndsNoEarlierThan = System.currentTimeMillis() + blocksLeft * MIN_BLOCK_TIME_MILLIS;
+
+            for (Map.Entry<String, String> entry: fetched.entrySet()) {
+                mSigners.put(key(entry.getKey()), entry.getValue());
+            }
+        }
+
+        signers.putAll(fetched);
+
+        return signers;
+    }
+
+    /**
+     * Drops every cached signer, e.g. when none of them matches a signature an issuer just made.
+     */
+    synchronized void invalidate() {
+        mSigners.clear();
+        mEpochEndsNoEarlierThan = 0;
+    }
+
+    private static String key(String address) {
+        return address.toLowerCase(Locale.US);
+    }
+
+}
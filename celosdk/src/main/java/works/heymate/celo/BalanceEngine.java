@@ -0,0 +1,143 @@
+package works.heymate.celo;
+
+import org.celo.contractkit.AddressRegistry;
+import org.celo.contractkit.ContractKit;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads balanceOf for any number of tokens and addresses with a single JSON-RPC batch. Token
+ * addresses of the core tokens are looked up from the registry once and then reused.
+ */
+class BalanceEngine {
+
+    private final ContractKit mContractKit;
+
+    private final Map<CeloToken, String> mTokenAddresses = new HashMap<>();
+
+    BalanceEngine(ContractKit contractKit) {
+        mContractKit = contractKit;
+    }
+
+    Balances getBalances(Collection<String> addresses, Collection<CeloToken> tokens) throws CeloException {
+        Balances balances = new Balances();
+
+        Map<CeloToken, String> tokenAddresses = resolveTokenAddresses(tokens, balances);
+
+        ContractCallBatch batch = new ContractCallBatch(mContractKit.web3j, mContractKit.getAddress());
+
+        List<CeloToken> callTokens = new ArrayList<>();
+        List<String> callAddresses = new ArrayList<>();
+
+        for (Map.Entry<CeloToken, String> tokenAddress: tokenAddresses.entrySet()) {
+            for (String address: addresses) {
+                batch.add(tokenAddress.getValue(), new Function(
+                        "balanceOf",
+                        Collections.singletonList(new Address(address)),
+                        Collections.singletonList(new TypeReference<Uint256>() {})));
+
+                callTokens.add(tokenAddress.getKey());
+                callAddresses.add(address);
+            }
+        }
+
+        List<ContractCallBatch.Result> results;
+
+        try {
+            results = batch.send();
+        } catch (IOException e) {
+            throw new CeloException(CeloError.NETWORK_ERROR, e);
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            ContractCallBatch.Result result = results.get(i);
+
+            if (result.isSuccessful()) {
+                balances.put(callAddresses.get(i), callTokens.get(i), ((Uint256) result.values.get(0)).getValue());
+            }
+            else {
+                balances.putError(callTokens.get(i), new CeloException(CeloError.NETWORK_ERROR, new Exception(result.error)));
+            }
+        }
+
+        return balances;
+    }
+
+    private Map<CeloToken, String> resolveTokenAddresses(Collection<CeloToken> tokens, Balances balances) throws CeloException {
+        Map<CeloToken, String> tokenAddresses = new HashMap<>(tokens.size());
+        List<CeloToken> unresolvedTokens = new ArrayList<>();
+
+        synchronized (mTokenAddresses) {
+            for (CeloToken token: tokens) {
+                if (token.address != null) {
+                    tokenAddresses.put(token, token.address);
+                }
+                else if (mTokenAddresses.containsKey(token)) {
+                    tokenAddresses.put(token, mTokenAddresses.get(token));
+                }
+                else {
+                    unresolvedTokens.add(token);
+                }
+            }
+        }
+
+        if (unresolvedTokens.isEmpty()) {
+            return tokenAddresses;
+        }
+
+        ContractCallBatch batch = new ContractCallBatch(mContractKit.web3j, mContractKit.getAddress());
+
+        for (CeloToken token: unresolvedTokens) {
+            batch.add(AddressRegistry.REGISTRY_CONTRACT_ADDRESS, new Function(
+                    "getAddressForString",
+                    Collections.singletonList(new Utf8String(token.registryId)),
+                    Collections.singletonList(new TypeReference<Address>() {})));
+        }
+
+        List<ContractCallBatch.Result> results;
+
+        try {
+            results = batch.send();
+        } catch (IOException e) {
+            throw new CeloException(CeloError.NETWORK_ERROR, e);
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            CeloToken token = unresolvedTokens.get(i);
+            ContractCallBatch.Result result = results.get(i);
+
+            if (!result.isSuccessful()) {
+                balances.putError(token, new CeloException(CeloError.NETWORK_ERROR, new Exception(result.error)));
+                continue;
+            }
+
+            String address = ((Address) result.values.get(0)).getValue();
+
+            if (new BigInteger(address.substring(2), 16).signum() == 0) {
+                balances.putError(token, new CeloException(CeloError.NETWORK_ERROR, new Exception(token.registryId + " is not registered on this network")));
+                continue;
+            }
+
+            tokenAddresses.put(token, address);
+
+            synchronized (mTokenAddresses) {
+                mTokenAddresses.put(token, address);
+            }
+        }
+
+        return tokenAddresses;
+    }
+
+}
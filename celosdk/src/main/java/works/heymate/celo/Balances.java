@@ -0,0 +1,61 @@
+package works.heymate.celo;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Raw token balances of a set of addresses, all read at once.
+ */
+public class Balances {
+
+    private final Map<String, Map<CeloToken, BigInteger>> mBalances = new HashMap<>();
+    private final Map<CeloToken, CeloException> mErrors = new HashMap<>();
+
+    Balances() {
+
+    }
+
+    void put(String address, CeloToken token, BigInteger balance) {
+        Map<CeloToken, BigInteger> balances = mBalances.get(address.toLowerCase(Locale.US));
+
+        if (balances == null) {
+            balances = new HashMap<>();
+            mBalances.put(address.toLowerCase(Locale.US), balances);
+        }
+
+        balances.put(token, balance);
+    }
+
+    void putError(CeloToken token, CeloException error) {
+        mErrors.put(token, error);
+    }
+
+    /**
+     * @return The raw balance or null if it could not be read.
+     */
+    public BigInteger get(String address, CeloToken token) {
+        Map<CeloToken, BigInteger> balances = mBalances.get(address.toLowerCase(Locale.US));
+
+        return balances == null ? null : balances.get(token);
+    }
+
+    public Map<CeloToken, BigInteger> getAll(String address) {
+        Map<CeloToken, BigInteger> balances = mBalances.get(address.toLowerCase(Locale.US));
+
+        return balances == null ? new HashMap<>() : new HashMap<>(balances);
+    }
+
+    /**
+     * @return Why the balances of the token could not be read or null.
+     */
+    public CeloException getError(CeloToken token) {
+        return mErrors.get(token);
+    }
+
+    public boolean hasErrors() {
+        return !mErrors.isEmpty();
+    }
+
+}
@@ -0,0 +1,7 @@
+package works.heymate.celo;
+
+public interface BalancesCallback {
+
+    void onBalancesResult(boolean success, Balances balances, CeloException errorCause);
+
+}
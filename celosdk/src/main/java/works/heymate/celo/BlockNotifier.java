@@ -0,0 +1,188 @@
+package works.heymate.celo;
+
+import android.util.Log;
+
+import org.web3j.protocol.Web3j;
+
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shared source of the chain's block height, one per Web3j.
+ *
+ * A single poller thread runs while anyone is waiting. It polls right around when the next block is
+ * expected, based on the block time it has observed so far, so waiters are woken shortly after the
+ * block arrives no matter how many of them there are.
+ * The SDK talks to nodes over HTTP which has no eth_subscribe, hence the polling.
+ */
+class BlockNotifier {
+
+    private static final String TAG = "BlockNotifier";
+
+    private static final long INITIAL_BLOCK_TIME_MILLIS = 5_000;
+    private static final long MIN_POLL_INTERVAL_MILLIS = 250;
+    private static final long ERROR_RETRY_MILLIS = 1_000;
+
+    // Weight of the latest sample in the moving average of the block time.
+    private static final double BLOCK_TIME_SMOOTHING = 0.2;
+
+    private static final Map<Web3j, BlockNotifier> sNotifiers = new WeakHashMap<>();
+
+    static BlockNotifier get(Web3j web3j) {
+        synchronized (sNotifiers) {
+            BlockNotifier notifier = sNotifiers.get(web3j);
+
+            if (notifier == null) {
+                notifier = new BlockNotifier(web3j);
+                sNotifiers.put(web3j, notifier);
+            }
+
+            return notifier;
+        }
+    }
+
+    // Weak so that the notifier does not keep its own key alive.
+    private final WeakReference<Web3j> mWeb3j;
+
+    private long mLatestBlock = -1;
+    private long mLatestBlockSeenAt = 0;
+    private double mBlockTime = INITIAL_BLOCK_TIME_MILLIS;
+
+    private int mWaiters = 0;
+    private Thread mPoller = null;
+
+    private BlockNotifier(Web3j web3j) {
+        mWeb3j = new WeakReference<>(web3j);
+    }
+
+    /**
+     * Blocks until the chain is at the given height or later.
+     * @return false if the timeout passed first.
+     */
+    boolean awaitBlock(BigInteger blockNumber, long timeoutMillis) throws InterruptedException {
+        long target = blockNumber.longValue();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        synchronized (this) {
+            if (mLatestBlock >= target) {
+                return true;
+            }
+
+            mWaiters++;
+
+            try {
+                startPollerIfNeeded();
+
+                while (mLatestBlock < target) {
+                    long remaining = deadline - System.currentTimeMillis();
+
+                    if (remaining <= 0) {
+                        return false;
+                    }
+
+                    wait(remaining);
+                }
+
+                return true;
+            } finally {
+                mWaiters--;
+            }
+        }
+    }
+
+    /**
+     * @return The highest block seen so far or -1 if none is seen yet.
+     */
+    synchronized long getLatestBlock() {
+        return mLatestBlock;
+    }
+
+    synchronized long getEstimatedBlockTime() {
+        return (long) mBlockTime;
+    }
+
+    // Must be called holding the lock.
+    private void startPollerIfNeeded() {
+        if (mPoller != null) {
+            return;
+        }
+
+        mPoller = new Thread(this::poll, "CeloSDK-blocks");
+        mPoller.setDaemon(true);
+        mPoller.start();
+    }
+
+    private void poll() {
+        while (true) {
+            Web3j web3j;
+
+            synchronized (this) {
+                if (mWaiters == 0) {
+                    mPoller = null;
+                    return;
+                }
+
+                web3j = mWeb3j.get();
+            }
+
+            if (web3j == null) {
+                synchronized (this) {
+                    mPoller = null;
+                    return;
+                }
+            }
+
+            long delay;
+
+            try {
+                long blockNumber = web3j.ethBlockNumber().send().getBlockNumber().longValue();
+
+                delay = onBlockNumber(blockNumber, System.currentTimeMillis());
+            } catch (Throwable t) {
+                Log.w(TAG, "Failed to get block number. Retrying.", t);
+                delay = ERROR_RETRY_MILLIS;
+            }
+
+            web3j = null;
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    mPoller = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return How long to wait before the next poll.
+     */
+    private synchronized long onBlockNumber(long blockNumber, long now) {
+        if (blockNumber > mLatestBlock) {
+            if (mLatestBlock >= 0) {
+                double sample = (double) (now - mLatestBlockSeenAt) / (blockNumber - mLatestBlock);
+
+                mBlockTime = mBlockTime * (1 - BLOCK_TIME_SMOOTHING) + sample * BLOCK_TIME_SMOOTHING;
+            }
+
+            mLatestBlock = blockNumber;
+            mLatestBlockSeenAt = now;
+
+            notifyAll();
+        }
+
+        long nextBlockExpectedIn = mLatestBlockSeenAt + (long) mBlockTime - now;
+
+        if (nextBlockExpectedIn > MIN_POLL_INTERVAL_MILLIS) {
+            return nextBlockExpectedIn;
+        }
+
+        // The block is due. Keep checking at a fraction of the block time until it shows up.
+        return Math.max(MIN_POLL_INTERVAL_MILLIS, (long) (mBlockTime / 8));
+    }
+
+}
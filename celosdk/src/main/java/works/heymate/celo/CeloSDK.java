@@ -1,40 +1,48 @@
 package works.heymate.celo;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.Message;
 
 import org.celo.contractkit.ContractKit;
 import org.celo.contractkit.ContractKitOptions;
 import org.celo.contractkit.Utils;
 import org.celo.contractkit.wrapper.AttestationsWrapper;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.generated.Bytes32;
 import org.web3j.crypto.Credentials;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.methods.response.TransactionReceipt;
 import org.web3j.protocol.exceptions.TransactionException;
-import org.web3j.protocol.http.HttpService;
+import org.web3j.tuples.generated.Tuple3;
 import org.web3j.utils.Convert;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import java8.util.Optional;
+import java8.util.concurrent.CompletableFuture;
 
 public class CeloSDK {
 
     private static final String TAG = "CeloSDK";
 
-    private static final int MESSAGE_GET_CONTRACT_KIT = 0;
-    private static final int MESSAGE_LOOKUP_PHONE_NUMBER = 2;
-    private static final int MESSAGE_LOOKUP_PHONE_NUMBER_OWNERSHIP = 3;
-    private static final int MESSAGE_GET_BALANCE = 4;
+    private static final String METADATA_CACHE_DIRECTORY = "issuer_metadata";
 
     // https://discord.com/channels/600834479145353243/786788580944642058/823669465988333578
     // Asked in Discord from nambrot#9524 Nambrot|cLabs server admin & Protocol Engineer
@@ -64,14 +72,9 @@ public class CeloSDK {
         return exception.getMessage().toLowerCase(Locale.US).contains("insufficient funds");
     }
 
-    private static Looper newLooper() {
-        HandlerThread thread = new HandlerThread(TAG + "-" + Math.round(Math.random() * 100));
-        thread.start();
-        return thread.getLooper();
-    }
-
     private final Context mContext;
-    private final LocalHandler mLocalHandler;
+    private final Dispatcher mDispatcher;
+    private final boolean mOwnsDispatcher;
 
     private final CeloContext mCeloContext;
 
@@ -82,30 +85,68 @@ public class CeloSDK {
     private final List<PhoneNumberOwnershipLookupCallback> mPhoneNumberOwnershipLookupCallbacks = new ArrayList<>(1);
     private final List<BalanceCallback> mBalanceCallbacks = new ArrayList<>(1);
 
+    private final RpcMetrics mRpcMetrics = new RpcMetrics();
+
+    private volatile Trace.Listener mTraceListener = null;
+
     private ContractKit mContractKit;
+    private BalanceEngine mBalanceEngine;
 
     public CeloSDK(Context context, CeloContext celoContext, CeloAccount account) {
-        this(context, celoContext, account, newLooper());
+        this(context, celoContext, account, new PooledDispatcher(), true);
     }
 
+    /**
+     * Compatibility mode. All the operations are run one after another on the given looper.
+     */
     public CeloSDK(Context context, CeloContext celoContext, CeloAccount account, Looper looper) {
+        this(context, celoContext, account, new LooperDispatcher(looper));
+    }
+
+    public CeloSDK(Context context, CeloContext celoContext, CeloAccount account, Dispatcher dispatcher) {
+        this(context, celoContext, account, dispatcher, false);
+    }
+
+    private CeloSDK(Context context, CeloContext celoContext, CeloAccount account, Dispatcher dispatcher, boolean ownsDispatcher) {
         mContext = context.getApplicationContext();
-        mLocalHandler = new LocalHandler(looper);
+        mDispatcher = dispatcher;
+        mOwnsDispatcher = ownsDispatcher;
 
         mCeloContext = celoContext;
 
         mAccount = Credentials.create(account.privateKey, account.publicKey);
+
+        MetadataCache.get().setDiskDirectory(new File(mContext.getCacheDir(), METADATA_CACHE_DIRECTORY));
+    }
+
+    Dispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    /**
+     * Stops the worker threads the SDK started for itself. Pending operations are dropped and new ones
+     * are refused. A dispatcher or looper passed to the constructor is left to its owner.
+     */
+    public void shutdown() {
+        if (mOwnsDispatcher) {
+            ((PooledDispatcher) mDispatcher).shutdown();
+        }
     }
 
+    /**
+     * @return The looper passed to the constructor or null if the SDK is not in the looper compatibility mode.
+     */
     public Looper getLooper() {
-        return mLocalHandler.getLooper();
+        return mDispatcher instanceof LooperDispatcher ? ((LooperDispatcher) mDispatcher).getLooper() : null;
     }
 
     /**
-     * callback is called on the looper thread.
+     * callback is called on the dispatcher thread.
      * @param callback
      */
     public void getContractKit(ContractKitCallback callback) {
+        checkNotShutdown();
+
         synchronized (mContractKitCallbacks) {
             mContractKitCallbacks.add(callback);
 
@@ -114,34 +155,92 @@ public class CeloSDK {
             }
         }
 
-        mLocalHandler.sendEmptyMessage(MESSAGE_GET_CONTRACT_KIT);
+        dispatchOrDropCallbacks(Dispatcher.Lane.READ, this::getContractKitInternal, () -> takeCallbacks(mContractKitCallbacks));
     }
 
     public String getAddress() {
         return mAccount.getAddress();
     }
 
+    /**
+     * Latency, error and payload stats of every JSON-RPC call this SDK has made to the node. Add a
+     * {@link MetricsSink} to it to forward the calls to your own metrics system.
+     */
+    public RpcMetrics getRpcMetrics() {
+        return mRpcMetrics;
+    }
+
+    /**
+     * Rate limit and quota tracking of this account's ODIS queries.
+     */
+    public OdisScheduler getOdisScheduler() {
+        return OdisScheduler.get(getAddress());
+    }
+
+    /**
+     * Attestation requests and completions are traced phase by phase while a listener is set. The
+     * listener receives each finished trace, which can be written to a file with {@link Trace#writeChromeTrace(File)}.
+     * @param listener null to stop tracing.
+     */
+    public void setTraceListener(Trace.Listener listener) {
+        mTraceListener = listener;
+    }
+
     public void lookupPhoneNumber(String phoneNumber, PhoneNumberLookupCallback callback) {
         if (!Utils.E164_REGEX.matcher(phoneNumber).matches()) {
             throw new IllegalArgumentException("Invalid phone number format.");
         }
 
-        List<PhoneNumberLookupCallback> callbacks = mPhoneNumberLookupCallbacks.get(phoneNumber);
+        checkNotShutdown();
+
+        synchronized (mPhoneNumberLookupCallbacks) {
+            List<PhoneNumberLookupCallback> callbacks = mPhoneNumberLookupCallbacks.get(phoneNumber);
+
+            if (callbacks == null) {
+                callbacks = new ArrayList<>(1);
+
+                mPhoneNumberLookupCallbacks.put(phoneNumber, callbacks);
+            }
 
-        if (callbacks == null) {
-            callbacks = new ArrayList<>(1);
+            callbacks.add(callback);
 
-            mPhoneNumberLookupCallbacks.put(phoneNumber, callbacks);
+            if (callbacks.size() > 1) {
+                return;
+            }
         }
 
-        callbacks.add(callback);
+        dispatchOrDropCallbacks(Dispatcher.Lane.READ, () -> lookupPhoneNumberInternal(phoneNumber), () -> takePhoneNumberLookupCallbacks(phoneNumber));
+    }
 
-        if (callbacks.size() > 1) {
-            return;
+    /**
+     * Looks up many phone numbers at once. Salts are resolved in bulk and the contract calls are
+     * sent as JSON-RPC batches. ODIS is queried at background priority, see {@link OdisScheduler}.
+     */
+    public void lookupPhoneNumbers(List<String> phoneNumbers, PhoneNumbersLookupCallback callback) {
+        for (String phoneNumber: phoneNumbers) {
+            if (!Utils.E164_REGEX.matcher(phoneNumber).matches()) {
+                throw new IllegalArgumentException("Invalid phone number format: " + phoneNumber);
+            }
         }
 
-        Message message = Message.obtain(mLocalHandler, MESSAGE_LOOKUP_PHONE_NUMBER, phoneNumber);
-        mLocalHandler.sendMessage(message);
+        List<String> numbers = new ArrayList<>(phoneNumbers);
+
+        mDispatcher.dispatch(Dispatcher.Lane.READ, () -> {
+            try {
+                Tuple3<Map<String, List<String>>, Map<String, CeloException>, Set<String>> result = lookupAddressesForPhoneNumbers(numbers);
+
+                Map<String, List<String>> addresses = result.component1();
+                Map<String, CeloException> failures = result.component2();
+                Set<String> deferred = result.component3();
+
+                boolean success = !addresses.isEmpty() || failures.isEmpty();
+                CeloException errorCause = success ? null : failures.values().iterator().next();
+
+                InternalUtils.runOnMainThread(() -> callback.onPhoneNumbersLookupResult(success, addresses, failures, deferred, errorCause));
+            } catch (CeloException e) {
+                InternalUtils.runOnMainThread(() -> callback.onPhoneNumbersLookupResult(false, new HashMap<>(), new HashMap<>(), new HashSet<>(), e));
+            }
+        });
     }
 
     public void lookupPhoneNumberOwnership(String phoneNumber, PhoneNumberOwnershipLookupCallback callback) {
@@ -149,13 +248,17 @@ public class CeloSDK {
             throw new IllegalArgumentException("Invalid phone number format.");
         }
 
-        mPhoneNumberOwnershipLookupCallbacks.add(callback);
+        checkNotShutdown();
 
-        if (mPhoneNumberOwnershipLookupCallbacks.size() > 1) {
-            return;
+        synchronized (mPhoneNumberOwnershipLookupCallbacks) {
+            mPhoneNumberOwnershipLookupCallbacks.add(callback);
+
+            if (mPhoneNumberOwnershipLookupCallbacks.size() > 1) {
+                return;
+            }
         }
 
-        mLocalHandler.sendMessage(Message.obtain(mLocalHandler, MESSAGE_LOOKUP_PHONE_NUMBER_OWNERSHIP, phoneNumber));
+        dispatchOrDropCallbacks(Dispatcher.Lane.READ, () -> lookupPhoneNumberOwnershipInternal(phoneNumber), () -> takeCallbacks(mPhoneNumberOwnershipLookupCallbacks));
     }
 
     public void requestAttestationsForPhoneNumber(String phoneNumber, AttestationRequestCallback callback) {
@@ -163,33 +266,48 @@ public class CeloSDK {
             throw new IllegalArgumentException("Invalid phone number format.");
         }
 
-        getContractKit((success, contractKit, errorCause) -> {
-            if (errorCause != null) {
-                InternalUtils.runOnMainThread(() -> callback.onAttestationRequestResult(false, 0, 0, 0, new CeloException(CeloError.CONTRACT_KIT_ERROR, errorCause)));
-                return;
-            }
+        mDispatcher.dispatch(Dispatcher.Lane.TRANSACTION, () -> {
+            try (Span root = Trace.begin("requestAttestations", mTraceListener)) {
+                ContractKit contractKit;
 
-            String salt;
+                try {
+                    contractKit = ensureContractKit();
+                } catch (CeloException errorCause) {
+                    InternalUtils.runOnMainThread(() -> callback.onAttestationRequestResult(false, 0, 0, 0, new CeloException(CeloError.CONTRACT_KIT_ERROR, errorCause)));
+                    return;
+                }
 
-            try {
-                salt = ODISSaltUtil.getSalt(mContext, contractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
-            } catch (CeloException e) {
-                CeloException exception;
+                String salt;
 
-                if (isSaltHasFailedBecauseOfBrandNewAccount(e)) {
-                    exception = new CeloException(CeloError.INSUFFICIENT_BALANCE, null);
-                }
-                else {
-                    exception = e;
+                Span saltSpan = Span.start("getSalt");
+
+                try {
+                    salt = ODISSaltUtil.getSalt(mContext, contractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
+                } catch (CeloException e) {
+                    CeloException exception;
+
+                    if (isSaltHasFailedBecauseOfBrandNewAccount(e)) {
+                        exception = new CeloException(CeloError.INSUFFICIENT_BALANCE, null);
+                    }
+                    else {
+                        exception = e;
+                    }
+
+                    InternalUtils.runOnMainThread(() -> callback.onAttestationRequestResult(false, 0, 0, 0, new CeloException(CeloError.SALTING_ERROR, exception)));
+                    return;
+                } finally {
+                    saltSpan.end();
                 }
 
-                InternalUtils.runOnMainThread(() -> callback.onAttestationRequestResult(false, 0, 0, 0, new CeloException(CeloError.SALTING_ERROR, exception)));
-                return;
-            }
+                AttestationRequester.AttestationResult result = AttestationRequester.requestAttestations(contractKit, phoneNumber, salt);
 
-            AttestationRequester.AttestationResult result = AttestationRequester.requestAttestations(contractKit, phoneNumber, salt);
+                root.setAttribute("newAttestations", result.newAttestations)
+                        .setAttribute("totalAttestations", result.totalAttestations)
+                        .setAttribute("completedAttestations", result.completedAttestations)
+                        .setAttribute("error", result.errorCause);
 
-            InternalUtils.runOnMainThread(() -> callback.onAttestationRequestResult(result.countsAreReliable, result.newAttestations, result.totalAttestations, result.completedAttestations, result.errorCause));
+                InternalUtils.runOnMainThread(() -> callback.onAttestationRequestResult(result.countsAreReliable, result.newAttestations, result.totalAttestations, result.completedAttestations, result.errorCause));
+            }
         });
     }
 
@@ -198,46 +316,208 @@ public class CeloSDK {
             throw new IllegalArgumentException("Invalid phone number format.");
         }
 
-        getContractKit((success, contractKit, errorCause) -> {
-            if (errorCause != null) {
-                InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(false, 0, 0, 0, errorCause));
+        mDispatcher.dispatch(Dispatcher.Lane.TRANSACTION, () -> {
+            try (Span root = Trace.begin("completeAttestation", mTraceListener)) {
+                ContractKit contractKit;
+
+                try {
+                    contractKit = ensureContractKit();
+                } catch (CeloException errorCause) {
+                    InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(false, 0, 0, 0, errorCause));
+                    return;
+                }
+
+                String salt;
+
+                Span saltSpan = Span.start("getSalt");
+
+                try {
+                    salt = ODISSaltUtil.getSalt(mContext, contractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
+                } catch (CeloException e) {
+                    InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(false, 0, 0, 0, new CeloException(CeloError.SALTING_ERROR, e)));
+                    return;
+                } finally {
+                    saltSpan.end();
+                }
+
+                try {
+                    AttestationCompleter.completeAttestation(mContext, contractKit, phoneNumber, salt, code);
+                } catch (CeloException e) {
+                    root.setAttribute("error", e);
+
+                    InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(false, 0, 0, 0, e));
+                    return;
+                }
+
+                try {
+                    AttestationsWrapper.AttestationsStatus status = lookupPhoneNumberVerificationStatus(phoneNumber);
+
+                    root.setAttribute("completedAttestations", status.completed)
+                            .setAttribute("totalAttestations", status.total);
+
+                    InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(true, status.completed, status.total, status.numAttestationsRemaining, null));
+                } catch (CeloException e) {
+                    InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(true, 0, 0, 0, e));
+                }
+            }
+        });
+    }
+
+    public void getBalance(BalanceCallback callback) {
+        checkNotShutdown();
+
+        synchronized (mBalanceCallbacks) {
+            mBalanceCallbacks.add(callback);
+
+            if (mBalanceCallbacks.size() > 1) {
                 return;
             }
+        }
+
+        dispatchOrDropCallbacks(Dispatcher.Lane.READ, this::getBalanceInternal, () -> takeCallbacks(mBalanceCallbacks));
+    }
 
-            String salt;
+    /**
+     * Reads the balances of any number of tokens for any number of addresses in one network round trip.
+     * @param addresses Addresses to read. Null means this account's address.
+     */
+    public void getBalances(List<String> addresses, List<CeloToken> tokens, BalancesCallback callback) {
+        mDispatcher.dispatch(Dispatcher.Lane.READ, () -> {
+            ContractKit contractKit;
 
             try {
-                salt = ODISSaltUtil.getSalt(mContext, contractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
+                contractKit = ensureContractKit();
             } catch (CeloException e) {
-                InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(false, 0, 0, 0, new CeloException(CeloError.SALTING_ERROR, e)));
+                InternalUtils.runOnMainThread(() -> callback.onBalancesResult(false, null, new CeloException(CeloError.CONTRACT_KIT_ERROR, e)));
                 return;
             }
 
             try {
-                AttestationCompleter.completeAttestation(mContext, contractKit, phoneNumber, salt, code);
+                Balances balances = getBalanceEngine(contractKit).getBalances(addresses != null ? addresses : Collections.singletonList(contractKit.getAddress()), tokens);
+
+                InternalUtils.runOnMainThread(() -> callback.onBalancesResult(!balances.hasErrors(), balances, null));
             } catch (CeloException e) {
-                InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(false, 0, 0, 0, e));
-                return;
+                InternalUtils.runOnMainThread(() -> callback.onBalancesResult(false, null, e));
             }
+        });
+    }
 
-            try {
-                AttestationsWrapper.AttestationsStatus status = lookupPhoneNumberVerificationStatus(phoneNumber);
+    /*
+     * Future based variants. The work runs on the SDK's dispatcher like the callback based methods do,
+     * but the futures are completed on the given executor instead of the main thread. Stages chained
+     * without an executor run right there, so pipelines need no extra thread hops.
+     */
+
+    public CompletableFuture<ContractKit> getContractKitAsync(Executor executor) {
+        return supplyAsync(Dispatcher.Lane.READ, executor, this::ensureContractKit);
+    }
+
+    /**
+     * @return The ODIS salt (pepper) of the phone number.
+     */
+    public CompletableFuture<String> getSaltAsync(String phoneNumber, Executor executor) {
+        validatePhoneNumber(phoneNumber);
+
+        return supplyAsync(Dispatcher.Lane.READ, executor, () -> getSaltInternal(phoneNumber));
+    }
+
+    /**
+     * @return The on-chain identifier (phone hash) of the phone number.
+     */
+    public CompletableFuture<byte[]> getIdentifierAsync(String phoneNumber, Executor executor) {
+        validatePhoneNumber(phoneNumber);
+
+        return supplyAsync(Dispatcher.Lane.READ, executor, () -> IdentifierCache.get().getIdentifier(phoneNumber, getSaltInternal(phoneNumber)));
+    }
+
+    public CompletableFuture<List<String>> lookupPhoneNumberAsync(String phoneNumber, Executor executor) {
+        validatePhoneNumber(phoneNumber);
+
+        return supplyAsync(Dispatcher.Lane.READ, executor, () -> lookupAddressesForPhoneNumber(phoneNumber));
+    }
+
+    /**
+     * @return Accounts keyed by phone number, the errors of the phone numbers that could not be looked
+     *         up and the phone numbers deferred to spare the ODIS quota.
+     */
+    public CompletableFuture<Tuple3<Map<String, List<String>>, Map<String, CeloException>, Set<String>>> lookupPhoneNumbersAsync(List<String> phoneNumbers, Executor executor) {
+        for (String phoneNumber: phoneNumbers) {
+            validatePhoneNumber(phoneNumber);
+        }
 
-                InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(true, status.completed, status.total, status.numAttestationsRemaining, null));
+        List<String> numbers = new ArrayList<>(phoneNumbers);
+
+        return supplyAsync(Dispatcher.Lane.READ, executor, () -> lookupAddressesForPhoneNumbers(numbers));
+    }
+
+    public CompletableFuture<AttestationsWrapper.AttestationsStatus> lookupPhoneNumberOwnershipAsync(String phoneNumber, Executor executor) {
+        validatePhoneNumber(phoneNumber);
+
+        return supplyAsync(Dispatcher.Lane.READ, executor, () -> lookupPhoneNumberVerificationStatus(phoneNumber));
+    }
+
+    /**
+     * @param addresses Addresses to read. Null means this account's address.
+     */
+    public CompletableFuture<Balances> getBalancesAsync(List<String> addresses, List<CeloToken> tokens, Executor executor) {
+        return supplyAsync(Dispatcher.Lane.READ, executor, () -> {
+            ContractKit contractKit;
+
+            try {
+                contractKit = ensureContractKit();
             } catch (CeloException e) {
-                InternalUtils.runOnMainThread(() -> callback.onAttestationCompletionResult(true, 0, 0, 0, e));
+                throw new CeloException(CeloError.CONTRACT_KIT_ERROR, e);
             }
+
+            return getBalanceEngine(contractKit).getBalances(addresses != null ? addresses : Collections.singletonList(contractKit.getAddress()), tokens);
         });
     }
 
-    public void getBalance(BalanceCallback callback) {
-        mBalanceCallbacks.add(callback);
+    private interface AsyncCall<T> {
 
-        if (mBalanceCallbacks.size() > 1) {
-            return;
+        T call() throws CeloException;
+
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Dispatcher.Lane lane, Executor executor, AsyncCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        mDispatcher.dispatch(lane, () -> {
+            T result;
+
+            try {
+                result = call.call();
+            } catch (Throwable t) {
+                executor.execute(() -> future.completeExceptionally(t));
+                return;
+            }
+
+            executor.execute(() -> future.complete(result));
+        });
+
+        return future;
+    }
+
+    private static void validatePhoneNumber(String phoneNumber) {
+        if (!Utils.E164_REGEX.matcher(phoneNumber).matches()) {
+            throw new IllegalArgumentException("Invalid phone number format: " + phoneNumber);
         }
+    }
 
-        mLocalHandler.sendEmptyMessage(MESSAGE_GET_BALANCE);
+    private String getSaltInternal(String phoneNumber) throws CeloException {
+        ContractKit contractKit;
+
+        try {
+            contractKit = ensureContractKit();
+        } catch (CeloException e) {
+            throw new CeloException(CeloError.CONTRACT_KIT_ERROR, e);
+        }
+
+        try {
+            return ODISSaltUtil.getSalt(mContext, contractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
+        } catch (CeloException e) {
+            throw new CeloException(CeloError.SALTING_ERROR, e);
+        }
     }
 
     private void getBalanceInternal() {
@@ -249,8 +529,7 @@ public class CeloSDK {
             long cUSD = balanceInfo.cUSD.divide(one.divide(BigInteger.valueOf(100L))).longValue();
             double gold = balanceInfo.gold.divide(one.divide(BigInteger.valueOf(10_000L))).longValue() / 10_000d;
 
-            List<BalanceCallback> callbacks = new ArrayList<>(mBalanceCallbacks);
-            mBalanceCallbacks.clear();
+            List<BalanceCallback> callbacks = takeCallbacks(mBalanceCallbacks);
 
             InternalUtils.runOnMainThread(() -> {
                 for (BalanceCallback callback: callbacks) {
@@ -258,8 +537,7 @@ public class CeloSDK {
                 }
             });
         } catch (CeloException e) {
-            List<BalanceCallback> callbacks = new ArrayList<>(mBalanceCallbacks);
-            mBalanceCallbacks.clear();
+            List<BalanceCallback> callbacks = takeCallbacks(mBalanceCallbacks);
 
             InternalUtils.runOnMainThread(() -> {
                 for (BalanceCallback callback: callbacks) {
@@ -270,28 +548,40 @@ public class CeloSDK {
     }
 
     private BalanceInfo getBalanceInfo() throws CeloException {
+        ContractKit contractKit;
+
         try {
-            ensureContractKit();
+            contractKit = ensureContractKit();
         } catch (CeloException e) {
             throw new CeloException(CeloError.CONTRACT_KIT_ERROR, e);
         }
 
-        try {
-            BigInteger cUSD = mContractKit.contracts.getStableToken().balanceOf(mContractKit.getAddress()).send();
-            BigInteger gold = mContractKit.contracts.getGoldToken().balanceOf(mContractKit.getAddress());
+        Balances balances = getBalanceEngine(contractKit).getBalances(Collections.singletonList(contractKit.getAddress()), Arrays.asList(CeloToken.CUSD, CeloToken.CELO));
 
-            return new BalanceInfo(cUSD, gold);
-        } catch (Exception e) {
-            throw new CeloException(CeloError.NETWORK_ERROR, e);
+        BigInteger cUSD = balances.get(contractKit.getAddress(), CeloToken.CUSD);
+        BigInteger gold = balances.get(contractKit.getAddress(), CeloToken.CELO);
+
+        if (cUSD == null || gold == null) {
+            CeloException error = balances.getError(cUSD == null ? CeloToken.CUSD : CeloToken.CELO);
+            throw error != null ? error : new CeloException(CeloError.NETWORK_ERROR, null);
         }
+
+        return new BalanceInfo(cUSD, gold);
+    }
+
+    private synchronized BalanceEngine getBalanceEngine(ContractKit contractKit) {
+        if (mBalanceEngine == null) {
+            mBalanceEngine = new BalanceEngine(contractKit);
+        }
+
+        return mBalanceEngine;
     }
 
     private void lookupPhoneNumberOwnershipInternal(String phoneNumber) {
         try {
             AttestationsWrapper.AttestationsStatus status = lookupPhoneNumberVerificationStatus(phoneNumber);
 
-            List<PhoneNumberOwnershipLookupCallback> callbacks = new ArrayList<>(mPhoneNumberOwnershipLookupCallbacks);
-            mPhoneNumberOwnershipLookupCallbacks.clear();
+            List<PhoneNumberOwnershipLookupCallback> callbacks = takeCallbacks(mPhoneNumberOwnershipLookupCallbacks);
 
             InternalUtils.runOnMainThread(() -> {
                 for (PhoneNumberOwnershipLookupCallback callback: callbacks) {
@@ -299,8 +589,7 @@ public class CeloSDK {
                 }
             });
         } catch (CeloException e) {
-            List<PhoneNumberOwnershipLookupCallback> callbacks = new ArrayList<>(mPhoneNumberOwnershipLookupCallbacks);
-            mPhoneNumberOwnershipLookupCallbacks.clear();
+            List<PhoneNumberOwnershipLookupCallback> callbacks = takeCallbacks(mPhoneNumberOwnershipLookupCallbacks);
 
             if (isSaltHasFailedBecauseOfBrandNewAccount(e)) {
                 InternalUtils.runOnMainThread(() -> {
@@ -320,8 +609,10 @@ public class CeloSDK {
     }
 
     private AttestationsWrapper.AttestationsStatus lookupPhoneNumberVerificationStatus(String phoneNumber) throws CeloException {
+        ContractKit contractKit;
+
         try {
-            ensureContractKit();
+            contractKit = ensureContractKit();
         } catch (CeloException e) {
             throw new CeloException(CeloError.CONTRACT_KIT_ERROR, e);
         }
@@ -329,7 +620,7 @@ public class CeloSDK {
         String salt;
 
         try {
-            salt = ODISSaltUtil.getSalt(mContext, mContractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
+            salt = ODISSaltUtil.getSalt(mContext, contractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
         } catch (CeloException e) {
             if (isSaltHasFailedBecauseOfBrandNewAccount(e)) {
                 return new AttestationsWrapper.AttestationsStatus(false, AttestationRequester.NUM_ATTESTATIONS_REQUIRED, 0, 0);
@@ -338,11 +629,11 @@ public class CeloSDK {
             throw new CeloException(CeloError.SALTING_ERROR, e);
         }
 
-        byte[] identifier = Utils.getPhoneHash(phoneNumber, salt);
+        byte[] identifier = IdentifierCache.get().getIdentifier(phoneNumber, salt);
 
         try {
-            return mContractKit.contracts.getAttestations().getVerifiedStatus(
-                    identifier, mContractKit.getAddress(),
+            return contractKit.contracts.getAttestations().getVerifiedStatus(
+                    identifier, contractKit.getAddress(),
                     AttestationRequester.NUM_ATTESTATIONS_REQUIRED,
                     AttestationRequester.DEFAULT_ATTESTATION_THRESHOLD
             );
@@ -355,80 +646,169 @@ public class CeloSDK {
         try {
             List<String> addresses = lookupAddressesForPhoneNumber(phoneNumber);
 
-            InternalUtils.runOnMainThread(() -> {
-                List<PhoneNumberLookupCallback> callbacks = mPhoneNumberLookupCallbacks.get(phoneNumber);
-
-                if (callbacks != null) {
-                    ArrayList<PhoneNumberLookupCallback> pendingCallbacks = new ArrayList<>(callbacks);
-                    callbacks.clear();
+            List<PhoneNumberLookupCallback> callbacks = takePhoneNumberLookupCallbacks(phoneNumber);
 
-                    for (PhoneNumberLookupCallback callback: pendingCallbacks) {
-                        callback.onPhoneNumberLookupResult(true, addresses, null);
-                    }
+            InternalUtils.runOnMainThread(() -> {
+                for (PhoneNumberLookupCallback callback: callbacks) {
+                    callback.onPhoneNumberLookupResult(true, addresses, null);
                 }
             });
         } catch (CeloException e) {
-            InternalUtils.runOnMainThread(() -> {
-                List<PhoneNumberLookupCallback> callbacks = mPhoneNumberLookupCallbacks.get(phoneNumber);
+            List<PhoneNumberLookupCallback> callbacks = takePhoneNumberLookupCallbacks(phoneNumber);
 
-                if (callbacks != null) {
-                    ArrayList<PhoneNumberLookupCallback> pendingCallbacks = new ArrayList<>(callbacks);
-                    callbacks.clear();
-
-                    for (PhoneNumberLookupCallback callback: pendingCallbacks) {
-                        callback.onPhoneNumberLookupResult(false, null, e);
-                    }
+            InternalUtils.runOnMainThread(() -> {
+                for (PhoneNumberLookupCallback callback: callbacks) {
+                    callback.onPhoneNumberLookupResult(false, null, e);
                 }
             });
         }
     }
 
+    private List<PhoneNumberLookupCallback> takePhoneNumberLookupCallbacks(String phoneNumber) {
+        synchronized (mPhoneNumberLookupCallbacks) {
+            List<PhoneNumberLookupCallback> callbacks = mPhoneNumberLookupCallbacks.remove(phoneNumber);
+
+            return callbacks != null ? callbacks : new ArrayList<>(0);
+        }
+    }
+
+    /**
+     * Operations that coalesce their callbacks check this before adding one. A callback added while the
+     * SDK is shut down would make later calls wait on a task that never runs.
+     */
+    private void checkNotShutdown() {
+        if (mOwnsDispatcher && ((PooledDispatcher) mDispatcher).isShutdown()) {
+            throw new IllegalStateException("CeloSDK is shut down.");
+        }
+    }
+
+    /**
+     * Dispatches the task that serves a list of coalesced callbacks. If the dispatcher refuses it, the
+     * callbacks are dropped before the error is rethrown, so the next call dispatches again.
+     */
+    private void dispatchOrDropCallbacks(Dispatcher.Lane lane, Runnable task, Runnable dropCallbacks) {
+        try {
+            mDispatcher.dispatch(lane, task);
+        } catch (RuntimeException e) {
+            dropCallbacks.run();
+            throw e;
+        }
+    }
+
+    private static <T> List<T> takeCallbacks(List<T> pendingCallbacks) {
+        synchronized (pendingCallbacks) {
+            List<T> callbacks = new ArrayList<>(pendingCallbacks);
+            pendingCallbacks.clear();
+            return callbacks;
+        }
+    }
+
     private List<String> lookupAddressesForPhoneNumber(String phoneNumber) throws CeloException {
+        ContractKit contractKit;
+
         try {
-            ensureContractKit();
+            contractKit = ensureContractKit();
         } catch (CeloException e) {
             throw new CeloException(CeloError.CONTRACT_KIT_ERROR, e);
         }
 
-        String salt;
+        byte[] identifier = IdentifierCache.get().getIdentifier(phoneNumber, getSaltInternal(phoneNumber));
 
         try {
-            salt = ODISSaltUtil.getSalt(mContext, mContractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumber);
+            return contractKit.contracts.getAttestations().lookupAccountsForIdentifier(identifier).send();
+        } catch (Exception e) {
+            throw new CeloException(CeloError.NETWORK_ERROR, e);
+        }
+    }
+
+    Tuple3<Map<String, List<String>>, Map<String, CeloException>, Set<String>> lookupAddressesForPhoneNumbers(List<String> phoneNumbers) throws CeloException {
+        return lookupAddressesForPhoneNumbers(phoneNumbers, OdisScheduler.Priority.BACKGROUND);
+    }
+
+    Tuple3<Map<String, List<String>>, Map<String, CeloException>, Set<String>> lookupAddressesForPhoneNumbers(List<String> phoneNumbers, OdisScheduler.Priority priority) throws CeloException {
+        ContractKit contractKit;
+
+        try {
+            contractKit = ensureContractKit();
         } catch (CeloException e) {
-            throw new CeloException(CeloError.SALTING_ERROR, e);
+            throw new CeloException(CeloError.CONTRACT_KIT_ERROR, e);
+        }
+
+        Tuple3<Map<String, String>, Map<String, CeloException>, Set<String>> salts =
+                ODISSaltUtil.getSalts(mContext, contractKit, mCeloContext.odisURL, mCeloContext.odisPublicKey, phoneNumbers, ODISSaltUtil.DEFAULT_BATCH_CONCURRENCY, priority);
+
+        Map<String, List<String>> addresses = new HashMap<>(salts.component1().size());
+        Map<String, CeloException> errors = new HashMap<>(salts.component2().size());
+
+        for (Map.Entry<String, CeloException> error: salts.component2().entrySet()) {
+            errors.put(error.getKey(), new CeloException(CeloError.SALTING_ERROR, error.getValue()));
         }
 
-        byte[] identifier = Utils.getPhoneHash(phoneNumber, salt);
+        String attestationsAddress = contractKit.contracts.getAttestations().getContractAddress();
+
+        ContractCallBatch batch = new ContractCallBatch(contractKit.web3j, contractKit.getAddress());
+        List<String> batchedPhoneNumbers = new ArrayList<>(salts.component1().size());
+
+        for (Map.Entry<String, String> salt: salts.component1().entrySet()) {
+            byte[] identifier = IdentifierCache.get().getIdentifier(salt.getKey(), salt.getValue());
+
+            batch.add(attestationsAddress, new Function(
+                    "lookupAccountsForIdentifier",
+                    Collections.singletonList(new Bytes32(identifier)),
+                    Collections.singletonList(new TypeReference<DynamicArray<Address>>() {})));
+            batchedPhoneNumbers.add(salt.getKey());
+        }
+
+        List<ContractCallBatch.Result> results;
 
         try {
-            return mContractKit.contracts.getAttestations().lookupAccountsForIdentifier(identifier).send();
-        } catch (Exception e) {
+            results = batch.send();
+        } catch (IOException e) {
             throw new CeloException(CeloError.NETWORK_ERROR, e);
         }
+
+        for (int i = 0; i < results.size(); i++) {
+            String phoneNumber = batchedPhoneNumbers.get(i);
+            ContractCallBatch.Result result = results.get(i);
+
+            if (!result.isSuccessful()) {
+                errors.put(phoneNumber, new CeloException(CeloError.NETWORK_ERROR, new Exception(result.error)));
+                continue;
+            }
+
+            @SuppressWarnings("unchecked")
+            List<Address> accounts = ((DynamicArray<Address>) result.values.get(0)).getValue();
+
+            List<String> accountAddresses = new ArrayList<>(accounts.size());
+
+            for (Address account: accounts) {
+                accountAddresses.add(account.getValue());
+            }
+
+            addresses.put(phoneNumber, accountAddresses);
+        }
+
+        return new Tuple3<>(addresses, errors, salts.component3());
     }
 
     private void getContractKitInternal() {
+        ContractKit contractKit;
+
         try {
-            ensureContractKit();
+            contractKit = ensureContractKit();
         } catch (CeloException e) {
-            synchronized (mContractKitCallbacks) {
-                for (ContractKitCallback callback: mContractKitCallbacks) {
-                    callback.onContractKitResult(false, null, e);
-                }
-                mContractKitCallbacks.clear();
+            for (ContractKitCallback callback: takeCallbacks(mContractKitCallbacks)) {
+                callback.onContractKitResult(false, null, e);
             }
             return;
         }
 
-        synchronized (mContractKitCallbacks) {
-            for (ContractKitCallback callback: mContractKitCallbacks) {
-                callback.onContractKitResult(true, mContractKit, null);
-            }
-            mContractKitCallbacks.clear();
+        for (ContractKitCallback callback: takeCallbacks(mContractKitCallbacks)) {
+            callback.onContractKitResult(true, contractKit, null);
         }
     }
 
-    private void ensureContractKit() throws CeloException {
+    private synchronized ContractKit ensureContractKit() throws CeloException {
         if (mContractKit == null) {
             ContractKit contractKit;
 
@@ -436,7 +816,7 @@ public class CeloSDK {
                 ContractKitOptions options = new ContractKitOptions.Builder()
                         .setChainId(mCeloContext.chainId)
                         .build();
-                contractKit = new ContractKit(Web3j.build(new HttpService(mCeloContext.networkAddress)), options);
+                contractKit = new ContractKit(Web3j.build(new InstrumentedHttpService(mCeloContext.networkAddress, HttpTransport.get().client(), mRpcMetrics)), options);
 
                 contractKit.addAccount(mAccount);
             } catch (Throwable t) {
@@ -445,32 +825,8 @@ public class CeloSDK {
 
             mContractKit = contractKit;
         }
-    }
-
-    private class LocalHandler extends Handler {
-
-        LocalHandler(Looper looper) {
-            super(looper);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MESSAGE_GET_CONTRACT_KIT:
-                    getContractKitInternal();
-                    return;
-                case MESSAGE_LOOKUP_PHONE_NUMBER:
-                    lookupPhoneNumberInternal((String) msg.obj);
-                    return;
-                case MESSAGE_LOOKUP_PHONE_NUMBER_OWNERSHIP:
-                    lookupPhoneNumberOwnershipInternal((String) msg.obj);
-                    return;
-                case MESSAGE_GET_BALANCE:
-                    getBalanceInternal();
-                    return;
-            }
-        }
 
+        return mContractKit;
     }
 
     private static class BalanceInfo {
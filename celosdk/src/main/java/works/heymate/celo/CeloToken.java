@@ -0,0 +1,51 @@
+package works.heymate.celo;
+
+import java.util.Locale;
+
+/**
+ * An ERC20 token whose balance can be read through {@link CeloSDK#getBalances}. Core tokens are
+ * resolved through the Celo registry so they work on every network.
+ */
+public class CeloToken {
+
+    public static final CeloToken CELO = new CeloToken("CELO", "GoldToken", null);
+    public static final CeloToken CUSD = new CeloToken("cUSD", "StableToken", null);
+    public static final CeloToken CEUR = new CeloToken("cEUR", "StableTokenEUR", null);
+    public static final CeloToken CREAL = new CeloToken("cREAL", "StableTokenBRL", null);
+
+    public static CeloToken fromAddress(String symbol, String address) {
+        return new CeloToken(symbol, null, address);
+    }
+
+    public final String symbol;
+    final String registryId;
+    final String address;
+
+    private CeloToken(String symbol, String registryId, String address) {
+        this.symbol = symbol;
+        this.registryId = registryId;
+        this.address = address;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CeloToken)) {
+            return false;
+        }
+
+        CeloToken token = (CeloToken) o;
+
+        return registryId != null ? registryId.equals(token.registryId) : (token.registryId == null && address.equalsIgnoreCase(token.address));
+    }
+
+    @Override
+    public int hashCode() {
+        return registryId != null ? registryId.hashCode() : address.toLowerCase(Locale.US).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return symbol;
+    }
+
+}
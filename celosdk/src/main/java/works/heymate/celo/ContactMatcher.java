@@ -0,0 +1,612 @@
+package works.heymate.celo;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.celo.contractkit.Utils;
+import org.web3j.tuples.generated.Tuple2;
+import org.web3j.tuples.generated.Tuple3;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import java8.util.concurrent.CompletableFuture;
+
+/**
+ * Matches the user's address book against Celo accounts.
+ *
+ * Phone numbers are normalized to E.164 and deduplicated across contacts. Results are kept in a
+ * persistent index, so a sync only looks up the numbers of added or changed contacts. Numbers are
+ * salted and looked up in batches through {@link CeloSDK}. When ODIS runs out of quota the rest of
+ * the numbers are deferred to the next sync instead of failing one by one.
+ * After a sync, numbers that were looked up longer than the refresh interval ago are looked up again
+ * in the background and changes are reported to the {@link Listener}.
+ */
+public class ContactMatcher {
+
+    private static final String TAG = "ContactMatcher";
+
+    private static final String FILE_NAME = "contact_matches";
+    private static final int FILE_VERSION = 1;
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_REFRESH_INTERVAL = 24L * 60 * 60 * 1000;
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread after a background refresh changed the accounts of some contacts.
+         * @param matches Accounts of the changed contacts keyed by E.164 phone number. Empty if a
+         *                contact has no accounts anymore.
+         */
+        void onContactMatchesChanged(Map<String, Map<String, List<String>>> matches);
+
+    }
+
+    public static class Contact {
+
+        public final String id;
+        public final List<String> phoneNumbers;
+
+        /**
+         * @param phoneNumbers Phone numbers as they appear in the address book.
+         */
+        public Contact(String id, List<String> phoneNumbers) {
+            this.id = id;
+            this.phoneNumbers = phoneNumbers;
+        }
+
+    }
+
+    /**
+     * @param defaultCallingCode Country calling code of numbers written without one, e.g. "1" or "+44".
+     *                           Null to drop such numbers.
+     * @return The number in E.164 format or null if it can't be made into one.
+     */
+    public static String normalize(String phoneNumber, String defaultCallingCode) {
+        if (phoneNumber == null) {
+            return null;
+        }
+
+        StringBuilder digits = new StringBuilder(phoneNumber.length());
+        boolean international = false;
+
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+            else if (c == '+' && digits.length() == 0) {
+                international = true;
+            }
+            else if (c == ',' || c == ';' || c == 'x' || c == 'X' || c == '#') {
+                // Pauses and extensions
+                break;
+            }
+        }
+
+        String number;
+
+        if (international) {
+            number = digits.toString();
+        }
+        else if (digits.length() > 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+            number = digits.substring(2);
+        }
+        else if (defaultCallingCode != null) {
+            // Drop the national trunk prefix
+            int start = digits.length() > 0 && digits.charAt(0) == '0' ? 1 : 0;
+
+            number = defaultCallingCode.replaceAll("[^0-9]", "") + digits.substring(start);
+        }
+        else {
+            return null;
+        }
+
+        String e164 = "+" + number;
+
+        return Utils.E164_REGEX.matcher(e164).matches() ? e164 : null;
+    }
+
+    private final CeloSDK mSDK;
+    private final File mFile;
+    private final String mDefaultCallingCode;
+
+    private volatile int mBatchSize = DEFAULT_BATCH_SIZE;
+    private volatile long mRefreshInterval = DEFAULT_REFRESH_INTERVAL;
+    private volatile Listener mListener = null;
+
+    // Guards the index. Lookups run without it so reads of the index don't wait on ODIS.
+    private final Object mLock = new Object();
+
+    private final Map<String, Set<String>> mContacts = new HashMap<>();
+    private final Map<String, IndexedNumber> mNumbers = new HashMap<>();
+
+    private boolean mLoaded = false;
+    // Set while a refresh is scheduled or running.
+    private boolean mRefreshScheduled = false;
+    // Bumped for every copy of the index taken to be saved.
+    private long mIndexVersion = 0;
+
+    // Orders the writes of the index file.
+    private final Object mFileLock = new Object();
+    private long mSavedVersion = 0;
+
+    /**
+     * @param defaultCallingCode See {@link #normalize(String, String)}.
+     */
+    public ContactMatcher(Context context, CeloSDK sdk, String defaultCallingCode) {
+        mSDK = sdk;
+        mFile = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        mDefaultCallingCode = defaultCallingCode;
+    }
+
+    /**
+     * Phone numbers per salting and lookup round trip.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Numbers looked up longer ago than this are refreshed in the background after a sync.
+     */
+    public void setRefreshInterval(long millis) {
+        mRefreshInterval = millis;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Brings the index in line with the given address book and looks up the new numbers.
+     * Contacts missing from the list are removed from the index.
+     */
+    public void sync(List<Contact> contacts, ContactSyncCallback callback) {
+        List<Contact> snapshot = new ArrayList<>(contacts);
+
+        mSDK.getDispatcher().dispatch(Dispatcher.Lane.READ, () -> {
+            Tuple2<ContactSyncResult, CeloException> result = syncInternal(snapshot);
+
+            CeloException errorCause = result.component2();
+
+            InternalUtils.runOnMainThread(() -> callback.onContactSyncResult(errorCause == null, result.component1(), errorCause));
+
+            scheduleRefresh();
+        });
+    }
+
+    /**
+     * Same as {@link #sync(List, ContactSyncCallback)}. Lookup failures don't fail the future, they
+     * are reported as pending numbers in the result.
+     */
+    public CompletableFuture<ContactSyncResult> syncAsync(List<Contact> contacts, Executor executor) {
+        List<Contact> snapshot = new ArrayList<>(contacts);
+        CompletableFuture<ContactSyncResult> future = new CompletableFuture<>();
+
+        mSDK.getDispatcher().dispatch(Dispatcher.Lane.READ, () -> {
+            ContactSyncResult result;
+
+            try {
+                result = syncInternal(snapshot).component1();
+            } catch (Throwable t) {
+                executor.execute(() -> future.completeExceptionally(t));
+                return;
+            }
+
+            executor.execute(() -> future.complete(result));
+
+            scheduleRefresh();
+        });
+
+        return future;
+    }
+
+    private Tuple2<ContactSyncResult, CeloException> syncInternal(List<Contact> contacts) {
+        Set<String> pending = new LinkedHashSet<>();
+
+        synchronized (mLock) {
+            ensureLoaded();
+
+            Set<String> seenContacts = new HashSet<>(contacts.size());
+
+            for (Contact contact: contacts) {
+                Set<String> numbers = new LinkedHashSet<>(contact.phoneNumbers.size());
+
+                for (String phoneNumber: contact.phoneNumbers) {
+                    String e164 = normalize(phoneNumber, mDefaultCallingCode);
+
+                    if (e164 != null) {
+                        numbers.add(e164);
+                    }
+                }
+
+                seenContacts.add(contact.id);
+
+                if (!numbers.equals(mContacts.get(contact.id))) {
+                    mContacts.put(contact.id, numbers);
+                }
+
+                for (String number: numbers) {
+                    if (!mNumbers.containsKey(number)) {
+                        pending.add(number);
+                    }
+                }
+            }
+
+            mContacts.keySet().retainAll(seenContacts);
+            mNumbers.keySet().retainAll(referencedNumbers());
+        }
+
+        LookupOutcome outcome = lookup(pending);
+
+        save();
+
+        synchronized (mLock) {
+            ContactSyncResult result = new ContactSyncResult(
+                    matchesOf(mContacts.keySet()), outcome.lookedUp, pending.size() - outcome.lookedUp, outcome.quotaExhausted);
+
+            return new Tuple2<>(result, outcome.errorCause);
+        }
+    }
+
+    private void scheduleRefresh() {
+        synchronized (mLock) {
+            if (mRefreshScheduled) {
+                return;
+            }
+
+            mRefreshScheduled = true;
+        }
+
+        mSDK.getDispatcher().dispatch(Dispatcher.Lane.READ, this::refreshStale);
+    }
+
+    /**
+     * Looks up one batch of stale numbers and schedules itself again while more are left.
+     * Taking one batch per task leaves room for other reads in between.
+     */
+    private void refreshStale() {
+        List<String> stale = new ArrayList<>();
+
+        synchronized (mLock) {
+            long staleBefore = System.currentTimeMillis() - mRefreshInterval;
+
+            for (Map.Entry<String, IndexedNumber> number: mNumbers.entrySet()) {
+                if (number.getValue().checkedAt < staleBefore) {
+                    stale.add(number.getKey());
+                }
+            }
+
+            if (stale.isEmpty()) {
+                mRefreshScheduled = false;
+                return;
+            }
+        }
+
+        List<String> batch = stale.subList(0, Math.min(mBatchSize, stale.size()));
+
+        LookupOutcome outcome = lookup(batch);
+
+        Map<String, Map<String, List<String>>> changedMatches;
+        boolean more;
+
+        synchronized (mLock) {
+            Set<String> changedContacts = new HashSet<>();
+
+            for (Map.Entry<String, Set<String>> contact: mContacts.entrySet()) {
+                if (!Collections.disjoint(contact.getValue(), outcome.changed)) {
+                    changedContacts.add(contact.getKey());
+                }
+            }
+
+            changedMatches = matchesOf(changedContacts);
+
+            for (String contactId: changedContacts) {
+                if (!changedMatches.containsKey(contactId)) {
+                    changedMatches.put(contactId, new HashMap<>());
+                }
+            }
+
+            // A failed or deferred batch, or one that got nowhere, is retried after the next sync, not in a loop.
+            more = outcome.errorCause == null && !outcome.quotaExhausted && outcome.lookedUp > 0 && stale.size() > batch.size();
+
+            mRefreshScheduled = more;
+        }
+
+        // Written once the refresh stops rather than after every batch. If the process dies before, the
+        // numbers are only refreshed again.
+        if (!more) {
+            save();
+        }
+
+        Listener listener = mListener;
+
+        if (listener != null && !changedMatches.isEmpty()) {
+            InternalUtils.runOnMainThread(() -> listener.onContactMatchesChanged(changedMatches));
+        }
+
+        if (more) {
+            mSDK.getDispatcher().dispatch(Dispatcher.Lane.READ, this::refreshStale);
+        }
+    }
+
+    /**
+     * Looks the numbers up in batches and records the results in the index. Stops early when ODIS
+     * runs out of quota. Must be called without mLock held, it is taken only to merge each batch.
+     * The index is not written, callers save once they are done.
+     */
+    private LookupOutcome lookup(Collection<String> numbers) {
+        LookupOutcome outcome = new LookupOutcome();
+
+        List<String> remaining = new ArrayList<>(numbers);
+        int batchSize = mBatchSize;
+
+        for (int start = 0; start < remaining.size(); start += batchSize) {
+            List<String> batch = remaining.subList(start, Math.min(start + batchSize, remaining.size()));
+
+            Tuple3<Map<String, List<String>>, Map<String, CeloException>, Set<String>> result;
+
+            try {
+                result = mSDK.lookupAddressesForPhoneNumbers(batch, OdisScheduler.Priority.BACKGROUND);
+            } catch (CeloException e) {
+                Log.w(TAG, "Looking up a batch of contacts failed.", e);
+
+                outcome.errorCause = e;
+                return outcome;
+            }
+
+            merge(result.component1(), outcome);
+
+            for (CeloException error: result.component2().values()) {
+                if (outcome.errorCause == null) {
+                    outcome.errorCause = error;
+                }
+
+                if (ODISSaltUtil.isQuotaError(error)) {
+                    outcome.quotaExhausted = true;
+                }
+            }
+
+            if (!result.component3().isEmpty()) {
+                outcome.quotaExhausted = true;
+            }
+
+            if (outcome.quotaExhausted) {
+                Log.w(TAG, "ODIS quota is exhausted, deferring " + (remaining.size() - start - batch.size()) + " numbers.");
+                return outcome;
+            }
+        }
+
+        return outcome;
+    }
+
+    /**
+     * Records a batch of lookups. Numbers whose contacts were removed while they were being looked
+     * up are left out of the index.
+     */
+    private void merge(Map<String, List<String>> lookedUp, LookupOutcome outcome) {
+        long now = System.currentTimeMillis();
+
+        synchronized (mLock) {
+            Set<String> referenced = referencedNumbers();
+
+            for (Map.Entry<String, List<String>> accounts: lookedUp.entrySet()) {
+                outcome.lookedUp++;
+
+                if (!referenced.contains(accounts.getKey())) {
+                    continue;
+                }
+
+                IndexedNumber previous = mNumbers.put(accounts.getKey(), new IndexedNumber(accounts.getValue(), now));
+
+                if (previous != null && !new HashSet<>(previous.accounts).equals(new HashSet<>(accounts.getValue()))) {
+                    outcome.changed.add(accounts.getKey());
+                }
+            }
+        }
+    }
+
+    private Set<String> referencedNumbers() {
+        Set<String> numbers = new HashSet<>();
+
+        for (Set<String> contactNumbers: mContacts.values()) {
+            numbers.addAll(contactNumbers);
+        }
+
+        return numbers;
+    }
+
+    private Map<String, Map<String, List<String>>> matchesOf(Collection<String> contactIds) {
+        Map<String, Map<String, List<String>>> matches = new HashMap<>();
+
+        for (String contactId: contactIds) {
+            Set<String> numbers = mContacts.get(contactId);
+
+            if (numbers == null) {
+                continue;
+            }
+
+            Map<String, List<String>> contactMatches = new LinkedHashMap<>();
+
+            for (String number: numbers) {
+                IndexedNumber indexed = mNumbers.get(number);
+
+                if (indexed != null && !indexed.accounts.isEmpty()) {
+                    contactMatches.put(number, indexed.accounts);
+                }
+            }
+
+            if (!contactMatches.isEmpty()) {
+                matches.put(contactId, contactMatches);
+            }
+        }
+
+        return matches;
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+
+        mLoaded = true;
+
+        if (!mFile.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(mFile))) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+
+            int contactCount = in.readInt();
+
+            for (int i = 0; i < contactCount; i++) {
+                String contactId = in.readUTF();
+                int numberCount = in.readInt();
+
+                Set<String> numbers = new LinkedHashSet<>(numberCount);
+
+                for (int j = 0; j < numberCount; j++) {
+                    numbers.add(in.readUTF());
+                }
+
+                mContacts.put(contactId, numbers);
+            }
+
+            int numberCount = in.readInt();
+
+            for (int i = 0; i < numberCount; i++) {
+                String number = in.readUTF();
+                long checkedAt = in.readLong();
+                int accountCount = in.readInt();
+
+                List<String> accounts = new ArrayList<>(accountCount);
+
+                for (int j = 0; j < accountCount; j++) {
+                    accounts.add(in.readUTF());
+                }
+
+                mNumbers.put(number, new IndexedNumber(accounts, checkedAt));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the contact index. Starting over.", e);
+
+            mContacts.clear();
+            mNumbers.clear();
+        }
+    }
+
+    /**
+     * Writes the index to disk. Must be called without mLock held: only a copy of the index is taken
+     * under it, so the file is written while reads and lookups go on.
+     */
+    private void save() {
+        long version;
+        Map<String, Set<String>> contacts;
+        Map<String, IndexedNumber> numbers;
+
+        // Sets and entries in the index are replaced, never changed, so shallow copies are enough.
+        synchronized (mLock) {
+            version = ++mIndexVersion;
+            contacts = new HashMap<>(mContacts);
+            numbers = new HashMap<>(mNumbers);
+        }
+
+        synchronized (mFileLock) {
+            // Another save already wrote a later copy.
+            if (version < mSavedVersion) {
+                return;
+            }
+
+            write(contacts, numbers);
+
+            mSavedVersion = version;
+        }
+    }
+
+    private void write(Map<String, Set<String>> contacts, Map<String, IndexedNumber> numbers) {
+        File temp = new File(mFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(FILE_VERSION);
+
+            out.writeInt(contacts.size());
+
+            for (Map.Entry<String, Set<String>> contact: contacts.entrySet()) {
+                out.writeUTF(contact.getKey());
+                out.writeInt(contact.getValue().size());
+
+                for (String number: contact.getValue()) {
+                    out.writeUTF(number);
+                }
+            }
+
+            out.writeInt(numbers.size());
+
+            for (Map.Entry<String, IndexedNumber> number: numbers.entrySet()) {
+                out.writeUTF(number.getKey());
+                out.writeLong(number.getValue().checkedAt);
+                out.writeInt(number.getValue().accounts.size());
+
+                for (String account: number.getValue().accounts) {
+                    out.writeUTF(account);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the contact index.", e);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(mFile)) {
+            Log.w(TAG, "Failed to replace the contact index.");
+            temp.delete();
+        }
+    }
+
+    private static class IndexedNumber {
+
+        final List<String> accounts;
+        final long checkedAt;
+
+        IndexedNumber(List<String> accounts, long checkedAt) {
+            this.accounts = Collections.unmodifiableList(new ArrayList<>(accounts));
+            this.checkedAt = checkedAt;
+        }
+
+    }
+
+    private static class LookupOutcome {
+
+        int lookedUp = 0;
+        boolean quotaExhausted = false;
+        CeloException errorCause = null;
+        final Set<String> changed = new HashSet<>();
+
+    }
+
+}
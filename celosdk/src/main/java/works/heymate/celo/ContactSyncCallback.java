@@ -0,0 +1,12 @@
+package works.heymate.celo;
+
+public interface ContactSyncCallback {
+
+    /**
+     * @param success True if every phone number of every contact has been looked up.
+     * @param result Matches of all the contacts, including the ones that failed to be looked up this time.
+     * @param errorCause Cause of the first failure if any.
+     */
+    void onContactSyncResult(boolean success, ContactSyncResult result, CeloException errorCause);
+
+}
@@ -0,0 +1,37 @@
+package works.heymate.celo;
+
+import java.util.List;
+import java.util.Map;
+
+public class ContactSyncResult {
+
+    /**
+     * Accounts keyed by contact id and then by E.164 phone number. Only contacts and numbers with at
+     * least one account are present.
+     */
+    public final Map<String, Map<String, List<String>>> matches;
+
+    /**
+     * Phone numbers looked up during this sync.
+     */
+    public final int lookedUp;
+
+    /**
+     * Phone numbers that are still to be looked up, because they failed or were deferred. They are
+     * picked up by the next sync.
+     */
+    public final int pending;
+
+    /**
+     * True if ODIS refused more queries for this account and the rest of the numbers were deferred.
+     */
+    public final boolean quotaExhausted;
+
+    ContactSyncResult(Map<String, Map<String, List<String>>> matches, int lookedUp, int pending, boolean quotaExhausted) {
+        this.matches = matches;
+        this.lookedUp = lookedUp;
+        this.pending = pending;
+        this.quotaExhausted = quotaExhausted;
+    }
+
+}
@@ -0,0 +1,186 @@
+package works.heymate.celo;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only contract calls, and optionally other plain JSON-RPC requests, sent as JSON-RPC batches. Big batches are split into chunks which are
+ * sent concurrently.
+ */
+class ContractCallBatch {
+
+    static final int MAX_CALLS_PER_REQUEST = 100;
+    private static final int CHUNK_CONCURRENCY = 4;
+
+    static class Result {
+
+        final List<Type<?>> values;
+        final Response<?> response;
+        final String error;
+
+        private Result(List<Type<?>> values, Response<?> response, String error) {
+            this.values = values;
+            this.response = response;
+            this.error = error;
+        }
+
+        boolean isSuccessful() {
+            return error == null;
+        }
+
+    }
+
+    private final Web3j mWeb3j;
+    private final String mFrom;
+
+    private final List<String> mContracts = new ArrayList<>();
+    private final List<Function> mFunctions = new ArrayList<>();
+    private final List<Request<?, ? extends Response<?>>> mRequests = new ArrayList<>();
+
+    ContractCallBatch(Web3j web3j, String from) {
+        mWeb3j = web3j;
+        mFrom = from;
+    }
+
+    /**
+     * @return Index of the call's result in the list returned by {@link #send()}.
+     */
+    int add(String contractAddress, Function function) {
+        mContracts.add(contractAddress);
+        mFunctions.add(function);
+        mRequests.add(null);
+
+        return mFunctions.size() - 1;
+    }
+
+    /**
+     * Adds a request that is not a contract call. Its result carries the raw response instead of decoded values.
+     * @return Index of the request's result in the list returned by {@link #send()}.
+     */
+    int add(Request<?, ? extends Response<?>> request) {
+        mContracts.add(null);
+        mFunctions.add(null);
+        mRequests.add(request);
+
+        return mFunctions.size() - 1;
+    }
+
+    int size() {
+        return mFunctions.size();
+    }
+
+    /**
+     * @return Results in the order the calls were added.
+     * @throws IOException If any of the chunks could not be sent.
+     */
+    List<Result> send() throws IOException {
+        List<int[]> chunks = new ArrayList<>();
+
+        for (int start = 0; start < mFunctions.size(); start += MAX_CALLS_PER_REQUEST) {
+            chunks.add(new int[] { start, Math.min(mFunctions.size(), start + MAX_CALLS_PER_REQUEST) });
+        }
+
+        List<ParallelCall.Result<List<Result>>> chunkResults = ParallelCall.map(chunks, CHUNK_CONCURRENCY, 0, chunk -> sendChunk(chunk[0], chunk[1]));
+
+        List<Result> results = new ArrayList<>(mFunctions.size());
+
+        for (ParallelCall.Result<List<Result>> chunkResult: chunkResults) {
+            if (!chunkResult.isSuccessful()) {
+                throw chunkResult.error instanceof IOException ? (IOException) chunkResult.error : new IOException(chunkResult.error);
+            }
+
+            results.addAll(chunkResult.value);
+        }
+
+        return results;
+    }
+
+    private List<Result> sendChunk(int start, int end) throws IOException {
+        BatchRequest batch = mWeb3j.newBatch();
+
+        for (int i = start; i < end; i++) {
+            if (mRequests.get(i) != null) {
+                batch.add(mRequests.get(i));
+                continue;
+            }
+
+            String data = FunctionEncoder.encode(mFunctions.get(i));
+
+            batch.add(mWeb3j.ethCall(Transaction.createEthCallTransaction(mFrom, mContracts.get(i), data), DefaultBlockParameterName.LATEST));
+        }
+
+        BatchResponse batchResponse = batch.send();
+
+        // Nodes are allowed to answer a batch in any order. InstrumentedHttpService already parses each response
+        // with the type of the request it answers, other services may have parsed it with the wrong one.
+        Map<Long, Response<?>> responses = new HashMap<>(end - start);
+
+        for (Response<?> response: batchResponse.getResponses()) {
+            responses.put(response.getId(), response);
+        }
+
+        List<Result> results = new ArrayList<>(end - start);
+
+        for (int i = start; i < end; i++) {
+            Response<?> rawResponse = responses.get(batch.getRequests().get(i - start).getId());
+
+            if (rawResponse == null) {
+                throw new IOException("No response in batch for call " + i);
+            }
+
+            if (rawResponse.hasError()) {
+                results.add(new Result(null, rawResponse, rawResponse.getError().getMessage()));
+                continue;
+            }
+
+            if (mRequests.get(i) != null) {
+                results.add(new Result(null, rawResponse, null));
+                continue;
+            }
+
+            if (!(rawResponse instanceof EthCall)) {
+                throw new IOException("Response for call " + i + " was parsed as " + rawResponse.getClass().getSimpleName());
+            }
+
+            EthCall response = (EthCall) rawResponse;
+
+            if (response.isReverted()) {
+                results.add(new Result(null, response, "Call reverted: " + response.getRevertReason()));
+            }
+            else {
+                results.add(new Result(decode(response, mFunctions.get(i)), response, null));
+            }
+        }
+
+        return results;
+    }
+
+    private static List<Type<?>> decode(EthCall response, Function function) {
+        List<?> decoded = FunctionReturnDecoder.decode(response.getValue(), function.getOutputParameters());
+
+        List<Type<?>> values = new ArrayList<>(decoded.size());
+
+        for (Object value: decoded) {
+            values.add((Type<?>) value);
+        }
+
+        return values;
+    }
+
+}
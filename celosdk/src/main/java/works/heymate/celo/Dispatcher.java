@@ -0,0 +1,24 @@
+package works.heymate.celo;
+
+/**
+ * Decides on which thread the blocking work of {@link CeloSDK} is run.
+ */
+public interface Dispatcher {
+
+    enum Lane {
+
+        /**
+         * Short calls that only read from the block-chain. e.g. balance, phone number lookup.
+         */
+        READ,
+
+        /**
+         * Long running flows that send transactions and wait for blocks. e.g. attestations.
+         */
+        TRANSACTION,
+
+    }
+
+    void dispatch(Lane lane, Runnable task);
+
+}
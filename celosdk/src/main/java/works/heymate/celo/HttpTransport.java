@@ -0,0 +1,254 @@
+package works.heymate.celo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+
+/**
+ * The one HTTP client every outbound call of the SDK goes through: JSON-RPC, ODIS, issuer metadata
+ * and attestation services.
+ *
+ * Connections are kept alive and reused per host, HTTP/2 is negotiated where the server supports it
+ * and responses are transparently gzipped. Counters of all the traffic are kept in {@link Metrics}.
+ */
+class HttpTransport {
+
+    static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    static final long DEFAULT_READ_TIMEOUT_MILLIS = 20_000;
+    static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 20_000;
+
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000L;
+
+    private static final int MAX_REQUESTS_PER_HOST = 16;
+
+    static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static HttpTransport sInstance = null;
+
+    static HttpTransport get() {
+        synchronized (HttpTransport.class) {
+            if (sInstance == null) {
+                sInstance = new HttpTransport(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_WRITE_TIMEOUT_MILLIS);
+            }
+
+            return sInstance;
+        }
+    }
+
+    /**
+     * Replaces the shared transport's timeouts. Calls already in flight keep the old ones.
+     */
+    static void setTimeouts(long connectTimeoutMillis, long readTimeoutMillis, long writeTimeoutMillis) {
+        synchronized (HttpTransport.class) {
+            HttpTransport current = get();
+
+            sInstance = new HttpTransport(current, connectTimeoutMillis, readTimeoutMillis, writeTimeoutMillis);
+        }
+    }
+
+    static class Metrics {
+
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failedCalls = new AtomicLong();
+        final AtomicLong connectionsOpened = new AtomicLong();
+        final AtomicLong tlsHandshakes = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+        final AtomicLong totalCallMillis = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return "calls=" + calls.get() +
+                    " failed=" + failedCalls.get() +
+                    " connections=" + connectionsOpened.get() +
+                    " tlsHandshakes=" + tlsHandshakes.get() +
+                    " sent=" + bytesSent.get() +
+                    " received=" + bytesReceived.get() +
+                    " totalMillis=" + totalCallMillis.get();
+        }
+
+    }
+
+    static class Response implements AutoCloseable {
+
+        final int code;
+
+        private final okhttp3.Response mResponse;
+
+        private Response(okhttp3.Response response) {
+            mResponse = response;
+            code = response.code();
+        }
+
+        boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        String header(String name) {
+            return mResponse.header(name);
+        }
+
+        InputStream stream() {
+            ResponseBody body = mResponse.body();
+
+            return body == null ? null : body.byteStream();
+        }
+
+        /**
+         * Reads the whole body, also for error responses.
+         */
+        String string() throws IOException {
+            InternalUtils.ByteView bytes = bytes();
+
+            return bytes == null ? null : bytes.toUTF8String();
+        }
+
+        /**
+         * Reads the whole body without decoding it. See {@link InternalUtils.ByteView} for how long it is valid.
+         */
+        InternalUtils.ByteView bytes() throws IOException {
+            ResponseBody body = mResponse.body();
+
+            return body == null ? null : InternalUtils.readFully(body.byteStream(), body.contentLength());
+        }
+
+        @Override
+        public void close() {
+            mResponse.close();
+        }
+
+    }
+
+    private final Metrics mMetrics;
+    private final OkHttpClient mClient;
+
+    private HttpTransport(long connectTimeoutMillis, long readTimeoutMillis, long writeTimeoutMillis) {
+        mMetrics = new Metrics();
+
+        okhttp3.Dispatcher dispatcher = new okhttp3.Dispatcher();
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        mClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .eventListenerFactory(call -> new MetricsListener(mMetrics))
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .build();
+    }
+
+    // Shares the connection pool, dispatcher and metrics of the given transport.
+    private HttpTransport(HttpTransport base, long connectTimeoutMillis, long readTimeoutMillis, long writeTimeoutMillis) {
+        mMetrics = base.mMetrics;
+
+        mClient = base.mClient.newBuilder()
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * For libraries that take an OkHttpClient themselves, like web3j's HttpService.
+     */
+    OkHttpClient client() {
+        return mClient;
+    }
+
+    Metrics metrics() {
+        return mMetrics;
+    }
+
+    static Request.Builder getRequest(String url) {
+        return new Request.Builder().url(url).get();
+    }
+
+    static Request.Builder postJsonRequest(String url, String json) {
+        return new Request.Builder().url(url).post(RequestBody.create(json, JSON));
+    }
+
+    /**
+     * The caller must close the response.
+     * @param timeoutMillis Budget for the whole call including redirects and reading the body. 0 means
+     *                      only the connect/read/write timeouts apply.
+     */
+    Response execute(Request request, long timeoutMillis) throws IOException {
+        Call call = mClient.newCall(request);
+
+        if (timeoutMillis > 0) {
+            call.timeout().timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return new Response(call.execute());
+    }
+
+    Response execute(Request request) throws IOException {
+        return execute(request, 0);
+    }
+
+    private static class MetricsListener extends EventListener {
+
+        private final Metrics mMetrics;
+
+        private long mStartTime;
+
+        MetricsListener(Metrics metrics) {
+            mMetrics = metrics;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            mStartTime = System.currentTimeMillis();
+            mMetrics.calls.incrementAndGet();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            mMetrics.connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            mMetrics.tlsHandshakes.incrementAndGet();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            mMetrics.bytesSent.addAndGet(byteCount);
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            mMetrics.bytesReceived.addAndGet(byteCount);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            mMetrics.totalCallMillis.addAndGet(System.currentTimeMillis() - mStartTime);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            mMetrics.failedCalls.incrementAndGet();
+            mMetrics.totalCallMillis.addAndGet(System.currentTimeMillis() - mStartTime);
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+package works.heymate.celo;
+
+import org.celo.contractkit.Utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Phone number identifiers (phone hashes) by E.164 number and salt, shared by every flow of the process.
+ *
+ * An identifier only depends on the number and its salt, so an entry is reused for as long as the
+ * number keeps the same salt and replaced when the salt changes.
+ */
+class IdentifierCache {
+
+    private static final int IDENTIFIER_LENGTH = 32;
+
+    static final int DEFAULT_CAPACITY = 8192;
+
+    private static final IdentifierCache sInstance = new IdentifierCache(DEFAULT_CAPACITY);
+
+    static IdentifierCache get() {
+        return sInstance;
+    }
+
+    private final LinkedHashMap<String, CachedIdentifier> mEntries;
+
+    private final int mCapacity;
+
+    IdentifierCache(int capacity) {
+        mCapacity = capacity;
+
+        mEntries = new LinkedHashMap<String, CachedIdentifier>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedIdentifier> eldest) {
+                return size() > mCapacity;
+            }
+
+        };
+    }
+
+    /**
+     * Same as Utils.getPhoneHash(phoneNumber, salt), hashed at most once per number and salt.
+     * @throws IllegalArgumentException If the phone number is not in E.164 format.
+     */
+    byte[] getIdentifier(String phoneNumber, String salt) {
+        synchronized (this) {
+            CachedIdentifier entry = mEntries.get(phoneNumber);
+
+            if (entry != null && (entry.salt == null ? salt == null : entry.salt.equals(salt))) {
+                return entry.identifier.clone();
+            }
+        }
+
+        byte[] identifier = Utils.getPhoneHash(phoneNumber, salt);
+
+        if (identifier.length == IDENTIFIER_LENGTH) {
+            synchronized (this) {
+                mEntries.put(phoneNumber, new CachedIdentifier(salt, identifier.clone()));
+            }
+        }
+
+        return identifier;
+    }
+
+    /**
+     * Hashes the number ahead of its first lookup. Invalid numbers are ignored.
+     */
+    void prepare(String phoneNumber, String salt) {
+        try {
+            getIdentifier(phoneNumber, salt);
+        } catch (IllegalArgumentException e) { }
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static class CachedIdentifier {
+
+        final String salt;
+        final byte[] identifier;
+
+        CachedIdentifier(String salt, byte[] identifier) {
+            this.salt = salt;
+            this.identifier = identifier;
+        }
+
+    }
+
+}
@@ -0,0 +1,311 @@
+package works.heymate.celo;
+
+import android.util.Log;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.rlp.RlpDecoder;
+import org.web3j.rlp.RlpList;
+import org.web3j.rlp.RlpString;
+import org.web3j.rlp.RlpType;
+import org.web3j.utils.Numeric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * HttpService that reports every JSON-RPC call it sends to a {@link MetricsSink}, and that matches batch
+ * responses to their requests by id.
+ */
+class InstrumentedHttpService extends HttpService {
+
+    private static final String TAG = "InstrumentedHttpService";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BATCH = "batch";
+
+    // Calls inside a batch have no duration of their own. See MetricsSink.
+    private static final long BATCHED_CALL_DURATION = -1;
+
+    private static final byte[] ERROR_MEMBER = "\"error\"".getBytes(UTF_8);
+
+    // Positions of the data field in RLP encoded transactions.
+    private static final int CELO_TRANSACTION_FIELDS = 12;
+    private static final int CELO_DATA_INDEX = 8;
+    private static final int ETHEREUM_DATA_INDEX = 5;
+
+    private final MetricsSink mSink;
+
+    InstrumentedHttpService(String url, OkHttpClient httpClient, MetricsSink sink) {
+        super(url, httpClient);
+
+        mSink = sink;
+    }
+
+    // Service.send takes a raw Request.
+    @SuppressWarnings("rawtypes")
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        byte[] response = call(objectMapper.writeValueAsString(request), Collections.<Request<?, ?>>singletonList(request), false);
+
+        return response == null ? null : objectMapper.readValue(response, responseType);
+    }
+
+    /**
+     * web3j parses the n-th response of a batch as the response type of the n-th request, but nodes may
+     * answer a batch in any order. Here each response is parsed with the type of the request with its id.
+     */
+    @Override
+    public BatchResponse sendBatch(BatchRequest batchRequest) throws IOException {
+        List<Request<?, ? extends Response<?>>> requests = batchRequest.getRequests();
+
+        if (requests.isEmpty()) {
+            return new BatchResponse(Collections.emptyList(), Collections.emptyList());
+        }
+
+        byte[] response = call(objectMapper.writeValueAsString(requests), requests, true);
+
+        if (response == null) {
+            return null;
+        }
+
+        JsonNode tree = objectMapper.readTree(response);
+
+        if (tree == null || !tree.isArray()) {
+            throw new IOException("Batch response is not an array.");
+        }
+
+        Map<Long, JsonNode> nodes = new HashMap<>(tree.size());
+
+        for (JsonNode node: tree) {
+            JsonNode id = node.get("id");
+
+            if (id != null && id.canConvertToLong()) {
+                nodes.put(id.asLong(), node);
+            }
+        }
+
+        List<Response<?>> responses = new ArrayList<>(requests.size());
+
+        for (Request<?, ? extends Response<?>> request: requests) {
+            JsonNode node = nodes.get(request.getId());
+
+            if (node == null) {
+                throw new IOException("No response in batch for request " + request.getId());
+            }
+
+            responses.add(objectMapper.treeToValue(node, request.getResponseType()));
+        }
+
+        return new BatchResponse(requests, responses);
+    }
+
+    private byte[] call(String payload, List<? extends Request<?, ?>> requests, boolean batch) throws IOException {
+        long requestBytes = encodedLength(payload);
+        long start = System.nanoTime();
+
+        byte[] response;
+
+        try (InputStream stream = performIO(payload)) {
+            response = stream == null ? null : readFully(stream);
+        } catch (IOException e) {
+            record(requests, batch, null, System.nanoTime() - start, requestBytes);
+            throw e;
+        }
+
+        record(requests, batch, response, System.nanoTime() - start, requestBytes);
+
+        return response;
+    }
+
+    // Metrics must never fail the call itself.
+    private void record(List<? extends Request<?, ?>> requests, boolean batch, byte[] response, long durationNanos, long requestBytes) {
+        try {
+            recordCalls(requests, batch, response, durationNanos, requestBytes);
+        } catch (Throwable t) {
+            Log.w(TAG, "Failed to record RPC metrics.", t);
+        }
+    }
+
+    private void recordCalls(List<? extends Request<?, ?>> requests, boolean batch, byte[] response, long durationNanos, long requestBytes) {
+        boolean ioFailed = response == null;
+        long responseBytes = ioFailed ? 0 : response.length;
+
+        Set<Long> failures = ioFailed ? null : findFailures(response);
+
+        if (!batch) {
+            Request<?, ?> call = requests.get(0);
+
+            mSink.onRpcCall(call.getMethod(), functionOf(call), durationNanos, requestBytes, responseBytes, ioFailed || hasFailed(failures, call));
+            return;
+        }
+
+        mSink.onRpcCall(BATCH, null, durationNanos, requestBytes, responseBytes, ioFailed || (failures != null && !failures.isEmpty()));
+
+        for (Request<?, ?> call: requests) {
+            mSink.onRpcCall(call.getMethod(), functionOf(call), BATCHED_CALL_DURATION, 0, 0, ioFailed || hasFailed(failures, call));
+        }
+    }
+
+    private static boolean hasFailed(Set<Long> failures, Request<?, ?> call) {
+        return failures != null && failures.contains(call.getId());
+    }
+
+    // Ids of the calls that came back with an error. The response is only decoded if it has an error member at all.
+    private static Set<Long> findFailures(byte[] response) {
+        Set<Long> failures = new HashSet<>();
+
+        if (indexOf(response, ERROR_MEMBER) == -1) {
+            return failures;
+        }
+
+        String body = new String(response, UTF_8);
+
+        try {
+            if (body.trim().startsWith("[")) {
+                JSONArray results = new JSONArray(body);
+
+                for (int i = 0; i < results.length(); i++) {
+                    JSONObject result = results.optJSONObject(i);
+
+                    if (result != null && result.has("error") && !result.isNull("error")) {
+                        failures.add(result.optLong("id", -1));
+                    }
+                }
+            }
+            else {
+                JSONObject result = new JSONObject(body);
+
+                if (result.has("error") && !result.isNull("error")) {
+                    failures.add(result.optLong("id", -1));
+                }
+            }
+        } catch (Throwable t) { }
+
+        return failures;
+    }
+
+    private static String functionOf(Request<?, ?> call) {
+        String method = call.getMethod();
+        List<?> params = call.getParams();
+
+        if (method == null || params == null || params.isEmpty()) {
+            return null;
+        }
+
+        Object firstParam = params.get(0);
+        String data = null;
+
+        switch (method) {
+            case "eth_call":
+            case "eth_estimateGas":
+                if (firstParam instanceof Transaction) {
+                    data = ((Transaction) firstParam).getData();
+                }
+                break;
+            case "eth_sendRawTransaction":
+                if (firstParam instanceof String) {
+                    data = dataOfRawTransaction((String) firstParam);
+                }
+                break;
+        }
+
+        if (data == null || data.length() < 10) {
+            return null;
+        }
+
+        return RpcMetrics.functionForSelector(data.substring(0, 10));
+    }
+
+    private static String dataOfRawTransaction(String rawTransaction) {
+        if (rawTransaction == null) {
+            return null;
+        }
+
+        try {
+            RlpList decoded = RlpDecoder.decode(Numeric.hexStringToByteArray(rawTransaction));
+            List<RlpType> fields = ((RlpList) decoded.getValues().get(0)).getValues();
+
+            int dataIndex = fields.size() >= CELO_TRANSACTION_FIELDS ? CELO_DATA_INDEX : ETHEREUM_DATA_INDEX;
+
+            return Numeric.toHexString(((RlpString) fields.get(dataIndex)).getBytes());
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    // Length of the string in UTF-8, which is how OkHttp sends it, without encoding it again.
+    private static long encodedLength(String s) {
+        long length = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            if (c < 0x80) {
+                length += 1;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target) {
+        for (int i = 0; i <= bytes.length - target.length; i++) {
+            int matched = 0;
+
+            while (matched < target.length && bytes[i + matched] == target[matched]) {
+                matched++;
+            }
+
+            if (matched == target.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[4096];
+        int size;
+
+        while ((size = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, size);
+        }
+
+        return out.toByteArray();
+    }
+
+}
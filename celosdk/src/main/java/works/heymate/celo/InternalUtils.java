@@ -5,6 +5,12 @@ import android.os.Looper;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 
 class InternalUtils {
 
@@ -25,43 +31,122 @@ class InternalUtils {
         }
     }
 
+    /**
+     * Bytes read by {@link #readFully(InputStream, long)}. The array may be the calling thread's pooled
+     * buffer, so a view is only valid until the next read on the same thread.
+     */
+    static class ByteView {
+
+        final byte[] bytes;
+        final int length;
+
+        private ByteView(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        String toUTF8String() {
+            return decodeUTF8(bytes, 0, length);
+        }
+
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    // Bodies larger than this get a buffer of their own so that one big response does not stay pinned per thread.
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<byte[]> sByteBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<char[]> sCharBuffers = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<CharsetDecoder> sDecoders = new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+            return UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
+
     public static String streamToString(InputStream inputStream) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        return streamToString(inputStream, -1);
+    }
 
-        byte[] buffer = new byte[512];
-        int offset = 0;
-        int size = 0;
+    /**
+     * @param contentLength Expected length of the stream, or -1 if unknown. Only used to size the buffer.
+     */
+    public static String streamToString(InputStream inputStream, long contentLength) throws IOException {
+        return readFully(inputStream, contentLength).toUTF8String();
+    }
 
-        while (size != -1) {
-            size = inputStream.read(buffer, offset, buffer.length - offset);
+    /**
+     * Reads the stream to its end into the calling thread's pooled buffer, growing it as needed.
+     * @param contentLength Expected length of the stream, or -1 if unknown. Only used to size the buffer.
+     */
+    static ByteView readFully(InputStream inputStream, long contentLength) throws IOException {
+        byte[] buffer = sByteBuffers.get();
 
-            if (offset + size > 1) {
-                int read = offset + size;
+        if (contentLength >= buffer.length && contentLength < Integer.MAX_VALUE) {
+            // One more byte so that the end of the stream is seen without growing.
+            buffer = new byte[(int) contentLength + 1];
+        }
 
-                if (read % 2 != 0) {
-                    read--;
-                    offset = 1;
-                }
-                else {
-                    offset = 0;
-                }
+        int length = 0;
+        int read;
 
-                sb.append(new String(buffer, 0, read, "UTF-8"));
+        while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
 
-                if (offset == 1) {
-                    buffer[0] = buffer[read];
-                }
-            }
-            else if (size != -1) {
-                offset += size;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
             }
         }
 
-        if (offset > 0) {
-            sb.append((char) buffer[0]);
+        if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+            sByteBuffers.set(buffer);
+        }
+
+        return new ByteView(buffer, length);
+    }
+
+    /**
+     * Decodes in one pass with the calling thread's decoder. Malformed input is replaced with U+FFFD.
+     */
+    static String decodeUTF8(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+
+        char[] chars = sCharBuffers.get();
+
+        // UTF-8 never decodes to more chars than bytes.
+        if (chars.length < length) {
+            chars = new char[length];
+
+            if (length <= MAX_POOLED_BUFFER_SIZE) {
+                sCharBuffers.set(chars);
+            }
         }
 
-        return sb.toString();
+        CharsetDecoder decoder = sDecoders.get().reset();
+        CharBuffer out = CharBuffer.wrap(chars);
+
+        decoder.decode(ByteBuffer.wrap(bytes, offset, length), out, true);
+        decoder.flush(out);
+
+        return new String(chars, 0, out.position());
     }
 
 }
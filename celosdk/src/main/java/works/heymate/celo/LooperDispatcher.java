@@ -0,0 +1,26 @@
+package works.heymate.celo;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Compatibility mode. Every task regardless of its lane is run on the given looper one after another.
+ */
+class LooperDispatcher implements Dispatcher {
+
+    private final Handler mHandler;
+
+    LooperDispatcher(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    Looper getLooper() {
+        return mHandler.getLooper();
+    }
+
+    @Override
+    public void dispatch(Lane lane, Runnable task) {
+        mHandler.post(task);
+    }
+
+}
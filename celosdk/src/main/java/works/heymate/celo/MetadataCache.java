@@ -0,0 +1,292 @@
+package works.heymate.celo;
+
+import android.util.Log;
+
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Issuer metadata that has already been fetched and had its signature verified, keyed by metadata URL.
+ *
+ * Entries younger than the time to live are used as they are. Older entries are revalidated with a
+ * conditional request (ETag / Last-Modified) and are only verified again if the content has changed.
+ * Recently used entries are kept in memory. If a disk directory is set, entries also survive restarts.
+ */
+class MetadataCache {
+
+    private static final String TAG = "MetadataCache";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FILE_VERSION = 3;
+    private static final int MAX_RAW_DATA_LENGTH = 1024 * 1024;
+
+    static final int DEFAULT_CAPACITY = 64;
+    static final long DEFAULT_TIME_TO_LIVE = 60 * 60 * 1000L;
+
+    private static final MetadataCache sInstance = new MetadataCache();
+
+    static MetadataCache get() {
+        return sInstance;
+    }
+
+    static class CachedMetadata {
+
+        final String url;
+        final byte[] rawData;
+        final AttestationRequester.Metadata metadata;
+        final String eTag;
+        final String lastModified;
+        final long validatedAt;
+
+        private CachedMetadata(String url, byte[] rawData, AttestationRequester.Metadata metadata, String eTag, String lastModified, long validatedAt) {
+            this.url = url;
+            this.rawData = rawData;
+            this.metadata = metadata;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.validatedAt = validatedAt;
+        }
+
+    }
+
+    private final LinkedHashMap<String, CachedMetadata> mEntries;
+
+    private int mCapacity = DEFAULT_CAPACITY;
+    private long mTimeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private File mDirectory = null;
+
+    private MetadataCache() {
+        mEntries = new LinkedHashMap<String, CachedMetadata>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedMetadata> eldest) {
+                return size() > mCapacity;
+            }
+
+        };
+    }
+
+    /**
+     * @param directory Where entries are persisted. null keeps the cache in memory only.
+     */
+    synchronized void setDiskDirectory(File directory) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Failed to create metadata cache directory. Keeping the cache in memory only.");
+            directory = null;
+        }
+
+        mDirectory = directory;
+    }
+
+    synchronized void setCapacity(int capacity) {
+        mCapacity = Math.max(1, capacity);
+
+        while (mEntries.size() > mCapacity) {
+            mEntries.remove(mEntries.keySet().iterator().next());
+        }
+    }
+
+    synchronized void setTimeToLive(long timeToLive) {
+        mTimeToLive = timeToLive;
+    }
+
+    /**
+     * @return The cached entry for the url, fresh or not. null if nothing is cached.
+     */
+    CachedMetadata get(String url) {
+        File file;
+
+        synchronized (this) {
+            CachedMetadata entry = mEntries.get(url);
+
+            if (entry != null || mDirectory == null) {
+                return entry;
+            }
+
+            file = fileFor(url);
+        }
+
+        CachedMetadata entry = readFromDisk(file, url);
+
+        if (entry != null) {
+            synchronized (this) {
+                CachedMetadata current = mEntries.get(url);
+
+                if (current != null) {
+                    return current;
+                }
+
+                mEntries.put(url, entry);
+            }
+        }
+
+        return entry;
+    }
+
+    synchronized boolean isFresh(CachedMetadata entry) {
+        return System.currentTimeMillis() - entry.validatedAt < mTimeToLive;
+    }
+
+    /**
+     * Must only be called with metadata whose signature has been verified.
+     */
+    CachedMetadata put(String url, byte[] rawData, AttestationRequester.Metadata metadata, String eTag, String lastModified) {
+        CachedMetadata entry = new CachedMetadata(url, rawData, metadata, eTag, lastModified, System.currentTimeMillis());
+
+        store(entry);
+
+        return entry;
+    }
+
+    /**
+     * Marks the entry as validated again without its content having changed.
+     */
+    CachedMetadata revalidated(CachedMetadata entry, String eTag, String lastModified) {
+        CachedMetadata refreshed = new CachedMetadata(
+                entry.url,
+                entry.rawData,
+                entry.metadata,
+                eTag != null ? eTag : entry.eTag,
+                lastModified != null ? lastModified : entry.lastModified,
+                System.currentTimeMillis());
+
+        store(refreshed);
+
+        return refreshed;
+    }
+
+    void invalidate(String url) {
+        File file;
+
+        synchronized (this) {
+            mEntries.remove(url);
+
+            file = mDirectory == null ? null : fileFor(url);
+        }
+
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    void clear() {
+        File directory;
+
+        synchronized (this) {
+            mEntries.clear();
+
+            directory = mDirectory;
+        }
+
+        if (directory != null) {
+            File[] files = directory.listFiles();
+
+            if (files != null) {
+                for (File file: files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void store(CachedMetadata entry) {
+        File file;
+
+        synchronized (this) {
+            mEntries.put(entry.url, entry);
+
+            file = mDirectory == null ? null : fileFor(entry.url);
+        }
+
+        if (file != null) {
+            writeToDisk(file, entry);
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, Numeric.toHexStringNoPrefix(Hash.sha256(url.getBytes(UTF_8))));
+    }
+
+    private static CachedMetadata readFromDisk(File file, String url) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+
+            if (!url.equals(in.readUTF())) {
+                return null;
+            }
+
+            String eTag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            long validatedAt = in.readLong();
+
+            int length = in.readInt();
+
+            if (length < 0 || length > MAX_RAW_DATA_LENGTH) {
+                return null;
+            }
+
+            byte[] rawData = new byte[length];
+            in.readFully(rawData);
+
+            // Only verified metadata is ever written so the signature is not checked again.
+            AttestationRequester.Metadata metadata = MetadataParser.parse(rawData);
+
+            return new CachedMetadata(url, rawData, metadata, eTag, lastModified, validatedAt);
+        } catch (Throwable t) {
+            Log.w(TAG, "Failed to read cached metadata. Discarding it.", t);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void writeToDisk(File file, CachedMetadata entry) {
+        File temp = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(entry.url);
+
+            out.writeBoolean(entry.eTag != null);
+            if (entry.eTag != null) {
+                out.writeUTF(entry.eTag);
+            }
+
+            out.writeBoolean(entry.lastModified != null);
+            if (entry.lastModified != null) {
+                out.writeUTF(entry.lastModified);
+            }
+
+            out.writeLong(entry.validatedAt);
+            out.writeInt(entry.rawData.length);
+            out.write(entry.rawData);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist metadata.", e);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Failed to persist metadata.");
+            temp.delete();
+        }
+    }
+
+}
@@ -0,0 +1,662 @@
+package works.heymate.celo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses issuer metadata in a single pass over its UTF-8 bytes, without building a JSON tree.
+ *
+ * Claims are signed over their JSON.stringify form (see claim.ts hashOfClaim), so while a claim is
+ * read its canonical form is written out along with it: keys in source order, no whitespace, strings
+ * escaped and numbers formatted the way JavaScript does. Only the members the SDK uses are kept.
+ */
+class MetadataParser {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(ASCII);
+
+    private static final byte[] REPLACEMENT_CHARACTER = { (byte) 0xEF, (byte) 0xBF, (byte) 0xBD };
+
+    // Marks values that are objects or arrays. Claims only need their canonical form.
+    private static final Object NESTED = new Object();
+
+    static AttestationRequester.Metadata parse(byte[] bytes) throws Throwable {
+        return new MetadataParser(bytes, 0, bytes.length).parseMetadata();
+    }
+
+    private final byte[] mBytes;
+    private final int mEnd;
+    private int mPosition;
+
+    // Canonical form of the claim being read. Only written to while mCapturing.
+    private byte[] mOut = new byte[256];
+    private int mOutLength = 0;
+    private boolean mCapturing = false;
+
+    private final StringBuilder mChars = new StringBuilder();
+
+    private MetadataParser(byte[] bytes, int offset, int length) {
+        mBytes = bytes;
+        mPosition = offset;
+        mEnd = offset + length;
+    }
+
+    private AttestationRequester.Metadata parseMetadata() throws Throwable {
+        List<AttestationRequester.Claim> claims = null;
+        AttestationRequester.Meta meta = null;
+
+        expect('{');
+
+        if (!consume('}')) {
+            do {
+                String key = readKey();
+
+                if ("claims".equals(key)) {
+                    claims = parseClaims();
+                }
+                else if ("meta".equals(key)) {
+                    meta = new AttestationRequester.Meta(readMembers());
+                }
+                else {
+                    readValue(false);
+                }
+            } while (consume(','));
+
+            expect('}');
+        }
+
+        skipWhitespace();
+
+        if (mPosition != mEnd) {
+            throw error("Unexpected data after metadata");
+        }
+
+        if (claims == null) {
+            throw new JSONException("No value for claims");
+        }
+
+        if (meta == null) {
+            throw new JSONException("No value for meta");
+        }
+
+        return new AttestationRequester.Metadata(claims, meta);
+    }
+
+    private List<AttestationRequester.Claim> parseClaims() throws Throwable {
+        List<AttestationRequester.Claim> claims = new ArrayList<>();
+
+        expect('[');
+
+        if (consume(']')) {
+            return claims;
+        }
+
+        do {
+            mOutLength = 0;
+            mCapturing = true;
+
+            Map<String, Object> members = readMembers();
+
+            mCapturing = false;
+
+            claims.add(new AttestationRequester.Claim(Arrays.copyOf(mOut, mOutLength), members));
+        } while (consume(','));
+
+        expect(']');
+
+        return claims;
+    }
+
+    /**
+     * Reads an object and keeps its string, number, boolean and null members.
+     */
+    private Map<String, Object> readMembers() throws JSONException {
+        Map<String, Object> members = new HashMap<>();
+
+        expect('{');
+        write('{');
+
+        if (consume('}')) {
+            write('}');
+            return members;
+        }
+
+        do {
+            if (!members.isEmpty()) {
+                write(',');
+            }
+
+            String key = readKey();
+
+            if (members.containsKey(key)) {
+                // JSON.parse would keep the last value at the first position. Not worth signing over.
+                throw error("Duplicate key " + key);
+            }
+
+            members.put(key, readValue(true));
+        } while (consume(','));
+
+        expect('}');
+        write('}');
+
+        return members;
+    }
+
+    private String readKey() throws JSONException {
+        skipWhitespace();
+
+        if (peek() != '"') {
+            throw error("Expected a key");
+        }
+
+        String key = readString(true);
+
+        expect(':');
+        write(':');
+
+        return key;
+    }
+
+    /**
+     * @return String, number as String of its canonical form, Boolean, JSONObject.NULL or NESTED.
+     */
+    private Object readValue(boolean keep) throws JSONException {
+        skipWhitespace();
+
+        int c = peek();
+
+        switch (c) {
+            case '"':
+                return readString(keep);
+            case '{':
+                readNested('{', '}');
+                return NESTED;
+            case '[':
+                readNested('[', ']');
+                return NESTED;
+            case 't':
+                readLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                readLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                readLiteral("null");
+                return JSONObject.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+
+                throw error("Unexpected character");
+        }
+    }
+
+    private void readNested(char open, char close) throws JSONException {
+        expect(open);
+        write(open);
+
+        if (consume(close)) {
+            write(close);
+            return;
+        }
+
+        boolean first = true;
+
+        do {
+            if (!first) {
+                write(',');
+            }
+
+            first = false;
+
+            if (open == '{') {
+                readKey();
+            }
+
+            readValue(false);
+        } while (consume(','));
+
+        expect(close);
+        write(close);
+    }
+
+    private void readLiteral(String literal) throws JSONException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (mPosition >= mEnd || mBytes[mPosition] != literal.charAt(i)) {
+                throw error("Unexpected character");
+            }
+
+            mPosition++;
+        }
+
+        for (int i = 0; i < literal.length(); i++) {
+            write(literal.charAt(i));
+        }
+    }
+
+    private String readNumber() throws JSONException {
+        int start = mPosition;
+
+        if (mBytes[mPosition] == '-') {
+            mPosition++;
+        }
+
+        while (mPosition < mEnd) {
+            byte b = mBytes[mPosition];
+
+            if ((b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-') {
+                mPosition++;
+            }
+            else {
+                break;
+            }
+        }
+
+        String text = new String(mBytes, start, mPosition - start, ASCII);
+
+        double value;
+
+        try {
+            value = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + text);
+        }
+
+        String canonical = numberToString(value);
+
+        for (int i = 0; i < canonical.length(); i++) {
+            write(canonical.charAt(i));
+        }
+
+        return canonical;
+    }
+
+    /**
+     * Reads a string, writing its canonical form if capturing.
+     * @return The value if asked for, otherwise null.
+     */
+    private String readString(boolean keep) throws JSONException {
+        expect('"');
+        write('"');
+
+        if (keep) {
+            mChars.setLength(0);
+        }
+
+        while (true) {
+            if (mPosition >= mEnd) {
+                throw error("Unterminated string");
+            }
+
+            int b = mBytes[mPosition] & 0xFF;
+
+            if (b == '"') {
+                mPosition++;
+                break;
+            }
+
+            if (b == '\\') {
+                mPosition++;
+                readEscape(keep);
+                continue;
+            }
+
+            if (b < 0x80) {
+                mPosition++;
+
+                if (b < 0x20) {
+                    writeEscaped(b);
+                }
+                else {
+                    write(b);
+                }
+
+                if (keep) {
+                    mChars.append((char) b);
+                }
+
+                continue;
+            }
+
+            int codePoint = readUTF8CodePoint();
+
+            writeCodePoint(codePoint);
+
+            if (keep) {
+                mChars.appendCodePoint(codePoint);
+            }
+        }
+
+        write('"');
+
+        return keep ? mChars.toString() : null;
+    }
+
+    private void readEscape(boolean keep) throws JSONException {
+        if (mPosition >= mEnd) {
+            throw error("Unterminated string");
+        }
+
+        int c = mBytes[mPosition++];
+        char value;
+
+        switch (c) {
+            case '"': value = '"'; break;
+            case '\\': value = '\\'; break;
+            case '/': value = '/'; break;
+            case 'b': value = '\b'; break;
+            case 'f': value = '\f'; break;
+            case 'n': value = '\n'; break;
+            case 'r': value = '\r'; break;
+            case 't': value = '\t'; break;
+            case 'u':
+                value = readHex4();
+
+                if (Character.isHighSurrogate(value) && mPosition + 1 < mEnd && mBytes[mPosition] == '\\' && mBytes[mPosition + 1] == 'u') {
+                    int mark = mPosition;
+                    mPosition += 2;
+
+                    char low = readHex4();
+
+                    if (Character.isLowSurrogate(low)) {
+                        int codePoint = Character.toCodePoint(value, low);
+
+                        writeCodePoint(codePoint);
+
+                        if (keep) {
+                            mChars.appendCodePoint(codePoint);
+                        }
+
+                        return;
+                    }
+
+                    mPosition = mark;
+                }
+
+                break;
+            default:
+                throw error("Invalid escape");
+        }
+
+        if (Character.isSurrogate(value)) {
+            // JSON.stringify escapes lone surrogates.
+            writeEscaped(value);
+        }
+        else {
+            writeCodePoint(value);
+        }
+
+        if (keep) {
+            mChars.append(value);
+        }
+    }
+
+    private char readHex4() throws JSONException {
+        if (mPosition + 4 > mEnd) {
+            throw error("Invalid escape");
+        }
+
+        int value = 0;
+
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(mBytes[mPosition++], 16);
+
+            if (digit < 0) {
+                throw error("Invalid escape");
+            }
+
+            value = (value << 4) | digit;
+        }
+
+        return (char) value;
+    }
+
+    // Malformed sequences become U+FFFD, as when the body is decoded as text.
+    private int readUTF8CodePoint() {
+        int b = mBytes[mPosition] & 0xFF;
+
+        int length;
+        int codePoint;
+        int min;
+
+        if (b >= 0xC2 && b <= 0xDF) {
+            length = 2;
+            codePoint = b & 0x1F;
+            min = 0x80;
+        }
+        else if (b >= 0xE0 && b <= 0xEF) {
+            length = 3;
+            codePoint = b & 0x0F;
+            min = 0x800;
+        }
+        else if (b >= 0xF0 && b <= 0xF4) {
+            length = 4;
+            codePoint = b & 0x07;
+            min = 0x10000;
+        }
+        else {
+            mPosition++;
+            return 0xFFFD;
+        }
+
+        if (mPosition + length > mEnd) {
+            mPosition++;
+            return 0xFFFD;
+        }
+
+        for (int i = 1; i < length; i++) {
+            int continuation = mBytes[mPosition + i] & 0xFF;
+
+            if ((continuation & 0xC0) != 0x80) {
+                mPosition++;
+                return 0xFFFD;
+            }
+
+            codePoint = (codePoint << 6) | (continuation & 0x3F);
+        }
+
+        if (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+            mPosition++;
+            return 0xFFFD;
+        }
+
+        mPosition += length;
+
+        return codePoint;
+    }
+
+    private void writeCodePoint(int codePoint) {
+        if (!mCapturing) {
+            return;
+        }
+
+        if (codePoint < 0x80) {
+            switch (codePoint) {
+                case '"': write('\\'); write('"'); return;
+                case '\\': write('\\'); write('\\'); return;
+                case '\b': write('\\'); write('b'); return;
+                case '\f': write('\\'); write('f'); return;
+                case '\n': write('\\'); write('n'); return;
+                case '\r': write('\\'); write('r'); return;
+                case '\t': write('\\'); write('t'); return;
+            }
+
+            if (codePoint < 0x20) {
+                writeEscaped(codePoint);
+            }
+            else {
+                write(codePoint);
+            }
+        }
+        else if (codePoint == 0xFFFD) {
+            for (byte b: REPLACEMENT_CHARACTER) {
+                write(b);
+            }
+        }
+        else if (codePoint < 0x800) {
+            write(0xC0 | (codePoint >> 6));
+            write(0x80 | (codePoint & 0x3F));
+        }
+        else if (codePoint < 0x10000) {
+            write(0xE0 | (codePoint >> 12));
+            write(0x80 | ((codePoint >> 6) & 0x3F));
+            write(0x80 | (codePoint & 0x3F));
+        }
+        else {
+            write(0xF0 | (codePoint >> 18));
+            write(0x80 | ((codePoint >> 12) & 0x3F));
+            write(0x80 | ((codePoint >> 6) & 0x3F));
+            write(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void writeEscaped(int c) {
+        write('\\');
+        write('u');
+        write(HEX_DIGITS[(c >> 12) & 0xF]);
+        write(HEX_DIGITS[(c >> 8) & 0xF]);
+        write(HEX_DIGITS[(c >> 4) & 0xF]);
+        write(HEX_DIGITS[c & 0xF]);
+    }
+
+    private void write(int b) {
+        if (!mCapturing) {
+            return;
+        }
+
+        if (mOutLength == mOut.length) {
+            mOut = Arrays.copyOf(mOut, mOut.length * 2);
+        }
+
+        mOut[mOutLength++] = (byte) b;
+    }
+
+    private int peek() throws JSONException {
+        if (mPosition >= mEnd) {
+            throw error("Unexpected end of data");
+        }
+
+        return mBytes[mPosition];
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+
+        if (mPosition < mEnd && mBytes[mPosition] == c) {
+            mPosition++;
+            return true;
+        }
+
+        return false;
+    }
+
+    private void expect(char c) throws JSONException {
+        if (!consume(c)) {
+            throw error("Expected " + c);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (mPosition < mEnd) {
+            byte b = mBytes[mPosition];
+
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                mPosition++;
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at " + mPosition);
+    }
+
+    // https://tc39.es/ecma262/#sec-numeric-types-number-tostring
+    static String numberToString(double value) {
+        if (value == 0) {
+            return "0";
+        }
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+
+        String sign = value < 0 ? "-" : "";
+
+        double magnitude = Math.abs(value);
+
+        if (magnitude < 0x1p53 && magnitude == Math.rint(magnitude)) {
+            return sign + (long) magnitude;
+        }
+
+        BigDecimal decimal = shortestDecimal(magnitude);
+
+        String digits = decimal.unscaledValue().toString();
+        int k = digits.length();
+        int n = k - decimal.scale();
+
+        StringBuilder sb = new StringBuilder(sign);
+
+        if (k <= n && n <= 21) {
+            sb.append(digits);
+
+            for (int i = k; i < n; i++) {
+                sb.append('0');
+            }
+        }
+        else if (0 < n && n <= 21) {
+            sb.append(digits, 0, n).append('.').append(digits, n, k);
+        }
+        else if (-6 < n && n <= 0) {
+            sb.append("0.");
+
+            for (int i = n; i < 0; i++) {
+                sb.append('0');
+            }
+
+            sb.append(digits);
+        }
+        else {
+            sb.append(digits.charAt(0));
+
+            if (k > 1) {
+                sb.append('.').append(digits, 1, k);
+            }
+
+            sb.append('e').append(n - 1 < 0 ? '-' : '+').append(Math.abs(n - 1));
+        }
+
+        return sb.toString();
+    }
+
+    // Fewest significant digits that still read back as the same double. Double.toString does not
+    // always give the shortest before Java 19.
+    private static BigDecimal shortestDecimal(double value) {
+        BigDecimal exact = new BigDecimal(value);
+
+        for (int precision = 1; precision < 17; precision++) {
+            BigDecimal candidate = exact.round(new MathContext(precision, RoundingMode.HALF_EVEN));
+
+            if (candidate.doubleValue() == value) {
+                return candidate.stripTrailingZeros();
+            }
+        }
+
+        return exact.round(new MathContext(17, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+    }
+
+}
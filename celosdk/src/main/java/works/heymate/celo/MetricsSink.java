@@ -0,0 +1,20 @@
+package works.heymate.celo;
+
+/**
+ * Receives every JSON-RPC call the SDK makes to the node. Called on the thread that made the call so
+ * implementations must be quick and thread safe.
+ */
+public interface MetricsSink {
+
+    /**
+     * @param method JSON-RPC method, e.g. eth_call.
+     * @param function Contract function signature for eth_call, eth_estimateGas and eth_sendRawTransaction,
+     *                 e.g. balanceOf(address). The 4-byte selector if the function is not known. null otherwise.
+     * @param durationNanos Time from sending the request to reading the response. -1 for calls that were part
+     *                      of a batch. The batch itself is reported as method "batch" with its duration.
+     * @param requestBytes Size of the request. 0 for calls that were part of a batch.
+     * @param responseBytes Size of the response. 0 for calls that were part of a batch.
+     */
+    void onRpcCall(String method, String function, long durationNanos, long requestBytes, long responseBytes, boolean failed);
+
+}
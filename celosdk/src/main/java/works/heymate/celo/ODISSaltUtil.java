@@ -1,7 +1,6 @@
 package works.heymate.celo;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.util.Base64;
 
 import org.celo.BlindThresholdBlsModule;
@@ -10,10 +9,20 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.web3j.crypto.Hash;
 import org.web3j.crypto.Sign;
+import org.web3j.tuples.generated.Tuple3;
 import org.web3j.utils.Numeric;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.Request;
 
 public class ODISSaltUtil {
 
@@ -35,26 +44,284 @@ public class ODISSaltUtil {
 
     private static final int PEPPER_CHAR_LENGTH = 13;
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_BATCH_CONCURRENCY = 8;
+
+    // Concurrent lookups of the same phone number share one ODIS query.
+    private static final SingleFlight<String, String> sSaltFlights = new SingleFlight<>();
+
     // https://github.com/celo-org/celo-monorepo/blob/79d0efaf50e99ff66984269d5675e4abb0e6b46f/packages/sdk/identity/src/odis/phone-number-identifier.ts#L36
     public static String getSalt(Context context, ContractKit contractKit, String odisUrl, String odisPubKey, String target) throws CeloException {
-        SharedPreferences sharedPreferences = context.getSharedPreferences(TAG, Context.MODE_PRIVATE);
+        SaltStore saltStore = SaltStore.get(context);
+
+        String cachedSalt = saltStore.get(target);
+
+        if (cachedSalt != null) {
+            return cachedSalt;
+        }
+
+        try {
+            String salt;
+
+            // A null salt means the flight was led by a background query that got deferred.
+            do {
+                salt = sSaltFlights.run(target, () -> saltOf(context, contractKit, odisUrl, odisPubKey, target));
+            } while (salt == null);
+
+            return salt;
+        } catch (CeloException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CeloException(CeloError.ODIS_ERROR, e);
+        }
+    }
+
+    private static String saltOf(Context context, ContractKit contractKit, String odisUrl, String odisPubKey, String target) throws CeloException {
+        SaltStore saltStore = SaltStore.get(context);
+
+        // A flight for the same number may have landed just before this one took off.
+        String salt = saltStore.get(target);
+
+        if (salt != null) {
+            return salt;
+        }
+
+        try (BlindThresholdBlsModule.Blinding blinding = blind(target)) {
+            String base64BlindSig = requestBlindSignature(contractKit, odisUrl, base64(blinding.getBlindedMessage()), OdisScheduler.Priority.INTERACTIVE);
+
+            salt = unblindToSalt(blinding, base64BlindSig, odisPubKey);
+        }
+
+        saltStore.put(target, salt);
+        IdentifierCache.get().prepare(target, salt);
+
+        return salt;
+    }
+
+    public static Tuple3<Map<String, String>, Map<String, CeloException>, Set<String>> getSalts(Context context, ContractKit contractKit, String odisUrl, String odisPubKey, Collection<String> targets) {
+        return getSalts(context, contractKit, odisUrl, odisPubKey, targets, DEFAULT_BATCH_CONCURRENCY, OdisScheduler.Priority.BACKGROUND);
+    }
 
-        if (sharedPreferences.contains(target)) {
-            return sharedPreferences.getString(target, null);
+    public static Tuple3<Map<String, String>, Map<String, CeloException>, Set<String>> getSalts(Context context, ContractKit contractKit, String odisUrl, String odisPubKey, Collection<String> targets, int maxConcurrency) {
+        return getSalts(context, contractKit, odisUrl, odisPubKey, targets, maxConcurrency, OdisScheduler.Priority.BACKGROUND);
+    }
+
+    /**
+     * Salts many phone numbers at once. Known salts are loaded with a single read of the salt store,
+     * the rest are blinded up front and then queried from ODIS with at most maxConcurrency requests
+     * in flight. Every signature is unblinded as soon as its response arrives.
+     * Numbers that are already being looked up by another caller are not queried again but waited on.
+     * Queries go through the account's {@link OdisScheduler} with the given priority, background
+     * unless given.
+     * @return Salts and errors, both keyed by phone number, and the phone numbers whose queries were
+     *         deferred for lack of ODIS quota.
+     */
+    public static Tuple3<Map<String, String>, Map<String, CeloException>, Set<String>> getSalts(Context context, ContractKit contractKit, String odisUrl, String odisPubKey, Collection<String> targets, int maxConcurrency, OdisScheduler.Priority priority) {
+        SaltStore saltStore = SaltStore.get(context);
+
+        Set<String> uniqueTargets = new LinkedHashSet<>(targets);
+
+        Map<String, String> salts = new HashMap<>(saltStore.preload(uniqueTargets));
+        Map<String, CeloException> errors = new HashMap<>();
+        Set<String> deferred = new HashSet<>();
+
+        List<String> ledTargets = new ArrayList<>();
+        Map<String, SingleFlight.Flight<String>> joinedFlights = new HashMap<>();
+
+        for (String target: uniqueTargets) {
+            if (salts.containsKey(target)) {
+                continue;
+            }
+
+            SingleFlight.Flight<String> flight = sSaltFlights.joinOrLead(target);
+
+            if (flight == null) {
+                ledTargets.add(target);
+            }
+            else {
+                joinedFlights.put(target, flight);
+            }
         }
 
+        List<BlindedTarget> blindedTargets = new ArrayList<>(ledTargets.size());
+
+        // Every led flight must land and every blinding be closed, whatever happens.
+        try {
+            List<String> targetsToBlind = new ArrayList<>(ledTargets.size());
+
+            for (String target: ledTargets) {
+                String salt = saltStore.get(target);
+
+                if (salt != null) {
+                    salts.put(target, salt);
+                    sSaltFlights.complete(target, salt);
+                    continue;
+                }
+
+                targetsToBlind.add(target);
+            }
+
+            try {
+                BlindThresholdBlsModule.Blinding[] blindings = blind(targetsToBlind);
+
+                for (int i = 0; i < blindings.length; i++) {
+                    blindedTargets.add(new BlindedTarget(targetsToBlind.get(i), blindings[i]));
+                }
+            } catch (CeloException e) {
+                for (String target: targetsToBlind) {
+                    errors.put(target, e);
+                    sSaltFlights.fail(target, e);
+                }
+            }
+
+            List<ParallelCall.Result<String>> results = ParallelCall.map(blindedTargets, maxConcurrency, 0, blindedTarget -> {
+                String base64BlindSig = requestBlindSignature(contractKit, odisUrl, base64(blindedTarget.blinding.getBlindedMessage()), priority);
+
+                if (base64BlindSig == null) {
+                    return null;
+                }
+
+                String salt = unblindToSalt(blindedTarget.blinding, base64BlindSig, odisPubKey);
+
+                blindedTarget.blinding.close();
+
+                saltStore.put(blindedTarget.target, salt);
+                IdentifierCache.get().prepare(blindedTarget.target, salt);
+
+                return salt;
+            });
+
+            for (int i = 0; i < results.size(); i++) {
+                String target = blindedTargets.get(i).target;
+                ParallelCall.Result<String> result = results.get(i);
+
+                if (result.isSuccessful()) {
+                    if (result.value != null) {
+                        salts.put(target, result.value);
+                    }
+                    else {
+                        deferred.add(target);
+                    }
+
+                    sSaltFlights.complete(target, result.value);
+                }
+                else {
+                    CeloException error = asCeloException(result.error);
+
+                    errors.put(target, error);
+                    sSaltFlights.fail(target, error);
+                }
+            }
+        } finally {
+            for (BlindedTarget blindedTarget: blindedTargets) {
+                blindedTarget.blinding.close();
+            }
+
+            for (String target: ledTargets) {
+                if (!salts.containsKey(target) && !errors.containsKey(target) && !deferred.contains(target)) {
+                    sSaltFlights.fail(target, new CeloException(CeloError.ODIS_ERROR, null));
+                }
+            }
+        }
+
+        for (Map.Entry<String, SingleFlight.Flight<String>> joinedFlight: joinedFlights.entrySet()) {
+            try {
+                String salt = joinedFlight.getValue().await();
+
+                if (salt != null) {
+                    salts.put(joinedFlight.getKey(), salt);
+                }
+                else {
+                    deferred.add(joinedFlight.getKey());
+                }
+            } catch (Exception e) {
+                errors.put(joinedFlight.getKey(), asCeloException(e));
+            }
+        }
+
+        return new Tuple3<>(salts, errors, deferred);
+    }
+
+    /**
+     * @return True if ODIS refused the query because the account ran out of quota.
+     */
+    static boolean isQuotaError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+
+            if (message != null && message.contains(ERROR_ODIS_QUOTA)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static CeloException asCeloException(Exception e) {
+        return e instanceof CeloException ? (CeloException) e : new CeloException(CeloError.ODIS_ERROR, e);
+    }
+
+    private static BlindThresholdBlsModule.Blinding blind(String target) throws CeloException {
+        try {
+            return BlindThresholdBlsModule.get().blind(target.getBytes(UTF_8));
+        } catch (Throwable t) {
+            throw new CeloException(CeloError.BLINDING_ERROR, t);
+        }
+    }
+
+    private static BlindThresholdBlsModule.Blinding[] blind(List<String> targets) throws CeloException {
+        byte[][] messages = new byte[targets.size()][];
+
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = targets.get(i).getBytes(UTF_8);
+        }
+
+        try {
+            return BlindThresholdBlsModule.get().blind(messages);
+        } catch (Throwable t) {
+            throw new CeloException(CeloError.BLINDING_ERROR, t);
+        }
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    }
+
+    /**
+     * @return null if the query was deferred for lack of quota.
+     */
+    private static String requestBlindSignature(ContractKit contractKit, String odisUrl, String base64BlindedMessage, OdisScheduler.Priority priority) throws CeloException {
         String address = contractKit.getAddress();
 
-        BlindThresholdBlsModule blsBlindingClient = new BlindThresholdBlsModule();
+        OdisScheduler scheduler = OdisScheduler.get(address);
 
-        String base64BlindedMessage;
+        // The request is timestamped, so it is built only once it may be sent.
+        OdisScheduler.Admission admission;
 
         try {
-            base64BlindedMessage = blsBlindingClient.blindMessage(Base64.encodeToString(target.getBytes(), Base64.DEFAULT)).trim();
-        } catch (Exception e) {
-            throw new CeloException(CeloError.BLINDING_ERROR, e);
+            admission = scheduler.admit(priority);
+        } catch (InterruptedException e) {
+            throw new CeloException(CeloError.ODIS_ERROR, e);
+        }
+
+        if (admission == null) {
+            return null;
         }
 
+        // Anything thrown from here on, an Error included, still settles the admission.
+        try {
+            return sendSignMessageRequest(contractKit, odisUrl, base64BlindedMessage, priority, scheduler, admission);
+        } finally {
+            admission.release();
+        }
+    }
+
+    private static String sendSignMessageRequest(ContractKit contractKit, String odisUrl, String base64BlindedMessage,
+                                                 OdisScheduler.Priority priority, OdisScheduler scheduler,
+                                                 OdisScheduler.Admission admission) throws CeloException {
+        String address = contractKit.getAddress();
+
         JSONObject signMessageRequest = new JSONObject();
 
         try {
@@ -74,39 +341,30 @@ public class ODISSaltUtil {
         // We can sign it ourselves. Ethereum doesn't know celo addresses.
         // String authHeader = contractKit.web3j.ethSign(address, Hash.sha3String(bodyString)).send().getSignature();
 
-        String base64BlindSig;
+        Request request = HttpTransport.postJsonRequest(odisUrl + SIGN_MESSAGE_ENDPOINT, bodyString)
+                .header("Accept", "application/json")
+                .header("Authorization", authHeader)
+                .build();
 
-        try {
-            base64BlindSig = SelectiveCall.selectiveRetryAsyncWithBackOff(() -> {
-                HttpURLConnection connection = null;
-                int responseCode;
+        SignMessageResponse signMessageResponse;
 
-                try {
-                    connection = (HttpURLConnection) new URL(odisUrl + SIGN_MESSAGE_ENDPOINT).openConnection();
+        int[] attempts = { 0 };
 
-                    connection.setRequestMethod("POST");
-                    connection.setDoOutput(true);
-                    connection.setRequestProperty("Accept", "application/json");
-                    connection.setRequestProperty("Content-Type", "application/json");
-                    connection.setRequestProperty("Authorization", authHeader);
-                    connection.getOutputStream().write(bodyString.getBytes());
-
-                    responseCode = connection.getResponseCode();
+        try {
+            signMessageResponse = SelectiveCall.selectiveRetryAsyncWithBackOff(() -> {
+                if (attempts[0]++ > 0) {
+                    scheduler.onRetry(priority);
+                }
 
-                    if (responseCode >= 200 && responseCode < 300) {
-                        JSONObject response = new JSONObject(InternalUtils.streamToString(connection.getInputStream()));
+                int responseCode;
 
-                        connection.disconnect();
+                try (HttpTransport.Response response = HttpTransport.get().execute(request)) {
+                    responseCode = response.code;
 
-                        return new SignMessageResponse(response);
+                    if (response.isSuccessful()) {
+                        return new SignMessageResponse(new JSONObject(response.string()));
                     }
                 } catch (Exception e) {
-                    if (connection != null) {
-                        try {
-                            connection.disconnect();
-                        } catch (Throwable t) { }
-                    }
-
                     throw new CeloException(CeloError.NETWORK_ERROR, e);
                 }
 
@@ -124,33 +382,58 @@ public class ODISSaltUtil {
 
                         throw new Exception("Unknown failure " + responseCode);
                 }
-            }, 3, ERRORS).combinedSignature;
+            }, 3, ERRORS);
         } catch (Exception e) {
+            if (ERROR_ODIS_QUOTA.equals(e.getMessage())) {
+                admission.quotaExceeded();
+            }
+            else {
+                admission.failed();
+            }
+
             throw new CeloException(CeloError.ODIS_ERROR, e);
         }
 
-        try {
-            String base64UnblindedSig = blsBlindingClient.unblindMessage(base64BlindSig, odisPubKey);
-            byte[] sigBuf = Base64.decode(base64UnblindedSig, Base64.DEFAULT);
+        admission.succeeded(signMessageResponse.performedQueryCount, signMessageResponse.totalQuota);
 
-            String salt = Base64.encodeToString(Hash.sha256(sigBuf), Base64.DEFAULT).substring(0, PEPPER_CHAR_LENGTH);
+        return signMessageResponse.combinedSignature;
+    }
 
-            sharedPreferences.edit().putString(target, salt).apply();
+    private static String unblindToSalt(BlindThresholdBlsModule.Blinding blinding, String base64BlindSig, String odisPubKey) throws CeloException {
+        try {
+            byte[] sigBuf = BlindThresholdBlsModule.get().unblind(blinding, Base64.decode(base64BlindSig, Base64.DEFAULT), odisPubKey);
 
-            return salt;
+            return Base64.encodeToString(Hash.sha256(sigBuf), Base64.DEFAULT).substring(0, PEPPER_CHAR_LENGTH);
         } catch (Exception e) {
             throw new CeloException(CeloError.UNBLINDING_ERROR, e);
         }
     }
 
+    private static class BlindedTarget {
+
+        final String target;
+        final BlindThresholdBlsModule.Blinding blinding;
+
+        BlindedTarget(String target, BlindThresholdBlsModule.Blinding blinding) {
+            this.target = target;
+            this.blinding = blinding;
+        }
+
+    }
+
     private static class SignMessageResponse {
 
         private boolean success;
         private String combinedSignature;
+        // Only reported by newer ODIS versions.
+        private int performedQueryCount;
+        private int totalQuota;
 
         SignMessageResponse(JSONObject json) throws JSONException {
             success = json.getBoolean("success");
             combinedSignature = json.getString("combinedSignature");
+            performedQueryCount = json.optInt("performedQueryCount", -1);
+            totalQuota = json.optInt("totalQuota", -1);
         }
 
     }
@@ -0,0 +1,329 @@
+package works.heymate.celo;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Admission control for the ODIS salt queries of one account.
+ *
+ * Background queries are throttled with a token bucket and wait for interactive ones to be admitted
+ * first. Interactive queries are not throttled. The account's query quota is tracked from ODIS
+ * responses: a part of the remaining quota is kept for interactive queries, and background queries
+ * that would dip into it are deferred instead of being sent. Once the quota runs out, interactive
+ * queries are sent one at a time to see if it has grown, and background ones are deferred except
+ * for a probe at most once per probe interval.
+ */
+public class OdisScheduler {
+
+    public enum Priority {
+
+        /**
+         * A user is waiting for the result. e.g. looking up a single phone number. Never deferred.
+         */
+        INTERACTIVE,
+
+        /**
+         * Bulk work that can be resumed later. e.g. contact sync or looking up many phone numbers.
+         */
+        BACKGROUND,
+
+    }
+
+    public static final double DEFAULT_QUERIES_PER_SECOND = 50;
+    public static final int DEFAULT_BURST = 50;
+    public static final int DEFAULT_INTERACTIVE_RESERVE = 5;
+    public static final long DEFAULT_PROBE_INTERVAL = 60_000;
+
+    private static final int UNKNOWN = -1;
+
+    private static final Map<String, OdisScheduler> sSchedulers = new HashMap<>();
+
+    public static OdisScheduler get(String account) {
+        String key = account.toLowerCase(Locale.US);
+
+        synchronized (sSchedulers) {
+            OdisScheduler scheduler = sSchedulers.get(key);
+
+            if (scheduler == null) {
+                scheduler = new OdisScheduler();
+                sSchedulers.put(key, scheduler);
+            }
+
+            return scheduler;
+        }
+    }
+
+    private double mQueriesPerSecond = DEFAULT_QUERIES_PER_SECOND;
+    private int mBurst = DEFAULT_BURST;
+    private int mInteractiveReserve = DEFAULT_INTERACTIVE_RESERVE;
+    private long mProbeInterval = DEFAULT_PROBE_INTERVAL;
+
+    private double mTokens = DEFAULT_BURST;
+    private long mRefilledAt = SystemClock.elapsedRealtime();
+
+    private int mWaitingInteractive = 0;
+    private int mInFlight = 0;
+
+    private int mRemainingQuota = UNKNOWN;
+    private boolean mExhausted = false;
+    private boolean mProbing = false;
+    private long mExhaustedAt = 0;
+
+    OdisScheduler() {
+
+    }
+
+    /**
+     * Rate limit of background queries.
+     */
+    public synchronized void setRate(double queriesPerSecond, int burst) {
+        if (queriesPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive.");
+        }
+
+        refill();
+
+        mQueriesPerSecond = queriesPerSecond;
+        mBurst = burst;
+        mTokens = Math.min(mTokens, burst);
+
+        notifyAll();
+    }
+
+    /**
+     * @param queries Part of the remaining quota that only interactive queries may use.
+     */
+    public synchronized void setInteractiveReserve(int queries) {
+        mInteractiveReserve = Math.max(0, queries);
+        notifyAll();
+    }
+
+    /**
+     * How long background queries are deferred after the quota ran out before one is let through
+     * to see if the quota has grown.
+     */
+    public synchronized void setProbeInterval(long millis) {
+        mProbeInterval = millis;
+        notifyAll();
+    }
+
+    /**
+     * @return Queries left as of the last ODIS response, or -1 if ODIS has not told yet.
+     */
+    public synchronized int getRemainingQuota() {
+        return mExhausted ? 0 : mRemainingQuota;
+    }
+
+    /**
+     * Waits for the query's turn. Must be called before the query is signed, and every admitted
+     * query must be followed by one of the on* calls.
+     * @return False if a background query is deferred for lack of quota. Interactive queries are
+     *         always admitted, after the query in flight if the quota has run out.
+     */
+    synchronized boolean acquire(Priority priority) throws InterruptedException {
+        boolean interactive = priority == Priority.INTERACTIVE;
+
+        if (interactive) {
+            mWaitingInteractive++;
+        }
+
+        try {
+            while (true) {
+                if (mExhausted) {
+                    if (!interactive && SystemClock.elapsedRealtime() - mExhaustedAt < mProbeInterval) {
+                        return false;
+                    }
+
+                    // One query at a time finds out if the quota has grown, the rest wait for its answer.
+                    if (mProbing || mInFlight > 0 || (!interactive && mWaitingInteractive > 0)) {
+                        wait();
+                        continue;
+                    }
+
+                    if (interactive || takeToken()) {
+                        mProbing = true;
+                        mInFlight++;
+                        return true;
+                    }
+
+                    wait(tokenWait());
+                    continue;
+                }
+
+                if (mRemainingQuota != UNKNOWN) {
+                    int available = mRemainingQuota - (interactive ? 0 : mInteractiveReserve);
+
+                    if (!interactive && available <= 0) {
+                        return false;
+                    }
+
+                    // Queries in flight may use up what is left.
+                    if (available - mInFlight <= 0) {
+                        wait();
+                        continue;
+                    }
+                }
+
+                if (interactive) {
+                    mInFlight++;
+                    return true;
+                }
+
+                if (mWaitingInteractive > 0) {
+                    wait();
+                    continue;
+                }
+
+                if (takeToken()) {
+                    mInFlight++;
+                    return true;
+                }
+
+                wait(tokenWait());
+            }
+        } finally {
+            if (interactive) {
+                mWaitingInteractive--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #acquire(Priority)}, with the admitted query settled through the returned
+     * admission.
+     * @return null if a background query is deferred for lack of quota.
+     */
+    Admission admit(Priority priority) throws InterruptedException {
+        return acquire(priority) ? new Admission() : null;
+    }
+
+    /**
+     * Called before each retry of an admitted query. Every attempt is a query to ODIS, so retries of
+     * background queries take a token like the first attempt did.
+     */
+    synchronized void onRetry(Priority priority) throws InterruptedException {
+        if (priority == Priority.INTERACTIVE) {
+            return;
+        }
+
+        while (!takeToken()) {
+            wait(tokenWait());
+        }
+    }
+
+    /**
+     * @param performedQueryCount As reported by ODIS, or -1 if it did not.
+     * @param totalQuota As reported by ODIS, or -1 if it did not.
+     */
+    synchronized void onSuccess(int performedQueryCount, int totalQuota) {
+        mInFlight--;
+        mProbing = false;
+
+        if (performedQueryCount >= 0 && totalQuota >= 0) {
+            mRemainingQuota = Math.max(0, totalQuota - performedQueryCount);
+        }
+        else if (mRemainingQuota != UNKNOWN) {
+            mRemainingQuota = Math.max(0, mRemainingQuota - 1);
+        }
+
+        mExhausted = mRemainingQuota == 0;
+
+        if (mExhausted) {
+            mExhaustedAt = SystemClock.elapsedRealtime();
+        }
+
+        notifyAll();
+    }
+
+    synchronized void onQuotaExceeded() {
+        mInFlight--;
+        mExhausted = true;
+        mProbing = false;
+        mExhaustedAt = SystemClock.elapsedRealtime();
+        mRemainingQuota = 0;
+
+        notifyAll();
+    }
+
+    /**
+     * The query failed for a reason other than the quota. It is assumed not to have used any quota.
+     */
+    synchronized void onFailure() {
+        mInFlight--;
+        mProbing = false;
+
+        notifyAll();
+    }
+
+    /**
+     * A query let through by {@link #admit(Priority)}. Settled at most once: by its outcome, or as a
+     * failure when released before that.
+     */
+    class Admission {
+
+        private boolean mSettled = false;
+
+        void succeeded(int performedQueryCount, int totalQuota) {
+            if (settle()) {
+                onSuccess(performedQueryCount, totalQuota);
+            }
+        }
+
+        void quotaExceeded() {
+            if (settle()) {
+                onQuotaExceeded();
+            }
+        }
+
+        void failed() {
+            if (settle()) {
+                onFailure();
+            }
+        }
+
+        /**
+         * Must be called once the query is done with, however it ended. A query that has not been
+         * settled by then is counted as failed, so it does not hold its place in flight forever.
+         */
+        void release() {
+            failed();
+        }
+
+        private synchronized boolean settle() {
+            if (mSettled) {
+                return false;
+            }
+
+            mSettled = true;
+            return true;
+        }
+
+    }
+
+    private boolean takeToken() {
+        refill();
+
+        if (mTokens >= 1) {
+            mTokens -= 1;
+            return true;
+        }
+
+        return false;
+    }
+
+    private long tokenWait() {
+        return Math.max(1, (long) Math.ceil((1 - mTokens) * 1000 / mQueriesPerSecond));
+    }
+
+    private void refill() {
+        long now = SystemClock.elapsedRealtime();
+
+        mTokens = Math.min(mBurst, mTokens + (now - mRefilledAt) * mQueriesPerSecond / 1000);
+        mRefilledAt = now;
+    }
+
+}
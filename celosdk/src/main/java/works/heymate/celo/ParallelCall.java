@@ -0,0 +1,156 @@
+package works.heymate.celo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a blocking function over many inputs on a shared pool of IO threads with a bounded number
+ * of them running at the same time.
+ * The pool is separate from the {@link Dispatcher} so that dispatcher tasks can safely wait for it.
+ */
+public class ParallelCall {
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger(0);
+
+    private static final ExecutorService sExecutor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE,
+            30, TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CeloSDK-io-" + sThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+
+    public interface Function<I, O> {
+
+        O call(I input) throws Exception;
+
+    }
+
+    public static class Result<O> {
+
+        public final O value;
+
+        /**
+         * What the function threw. An {@link Error} is wrapped in an {@link ExecutionException}.
+         */
+        public final Exception error;
+
+        private Result(O value, Exception error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+    }
+
+    /**
+     * @param parallelism Maximum number of inputs being processed at the same time.
+     * @param timeoutMillis Deadline for the whole call. Inputs not processed by then are interrupted and
+     *                      resolved with a {@link TimeoutException}. 0 means no deadline.
+     * @return Results in the same order as the inputs.
+     */
+    public static <I, O> List<Result<O>> map(List<I> inputs, int parallelism, long timeoutMillis, Function<I, O> function) {
+        final int size = inputs.size();
+
+        if (size == 0) {
+            return new ArrayList<>(0);
+        }
+
+        final List<Result<O>> results = new ArrayList<>(Collections.<Result<O>>nCopies(size, null));
+
+        final AtomicInteger nextIndex = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(size);
+
+        int workers = Math.max(1, Math.min(parallelism, size));
+
+        List<Future<?>> futures = new ArrayList<>(workers);
+
+        for (int i = 0; i < workers; i++) {
+            futures.add(sExecutor.submit(() -> {
+                int index;
+
+                while ((index = nextIndex.getAndIncrement()) < size) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+
+                    Result<O> result;
+
+                    try {
+                        result = new Result<>(function.call(inputs.get(index)), null);
+                    } catch (Exception e) {
+                        result = new Result<>(null, e);
+                    } catch (Throwable t) {
+                        // e.g. an Error from a native call. Its input must still be settled, or a call without a deadline never returns.
+                        result = new Result<>(null, new ExecutionException(t));
+                    }
+
+                    synchronized (results) {
+                        if (results.get(index) == null) {
+                            results.set(index, result);
+                            done.countDown();
+                        }
+                    }
+                }
+            }));
+        }
+
+        boolean interrupted = false;
+
+        try {
+            if (timeoutMillis > 0) {
+                done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            else {
+                done.await();
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+
+        List<Result<O>> resultList = new ArrayList<>(size);
+
+        // Settled before the workers are interrupted, so unfinished inputs report the deadline and not the interruption.
+        synchronized (results) {
+            for (int i = 0; i < size; i++) {
+                if (results.get(i) == null) {
+                    results.set(i, new Result<>(null, new TimeoutException("Deadline exceeded before the call completed.")));
+                }
+
+                resultList.add(results.get(i));
+            }
+        }
+
+        for (Future<?> future: futures) {
+            future.cancel(true);
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return resultList;
+    }
+
+}
@@ -0,0 +1,20 @@
+package works.heymate.celo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public interface PhoneNumbersLookupCallback {
+
+    /**
+     * Phone numbers that could not be looked up are missing from assignedAccounts and listed in
+     * failures or deferred.
+     * @param success False if none of the phone numbers could be looked up.
+     * @param assignedAccounts Accounts keyed by phone number.
+     * @param failures Why each of the other phone numbers could not be looked up, keyed by phone number.
+     * @param deferred Phone numbers not looked up to spare the ODIS quota. Try them again later.
+     * @param errorCause Cause of the failure if success is false.
+     */
+    void onPhoneNumbersLookupResult(boolean success, Map<String, List<String>> assignedAccounts, Map<String, CeloException> failures, Set<String> deferred, CeloException errorCause);
+
+}
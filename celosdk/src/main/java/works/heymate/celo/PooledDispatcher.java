@@ -0,0 +1,173 @@
+package works.heymate.celo;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded pool of worker threads with one queue per {@link Dispatcher.Lane}.
+ * Lanes are served in a weighted round robin and the transaction lane can never occupy every
+ * worker, so a long attestation flow never blocks reads behind it.
+ */
+public class PooledDispatcher implements Dispatcher {
+
+    private static final String TAG = "PooledDispatcher";
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_READ_WEIGHT = 3;
+    public static final int DEFAULT_TRANSACTION_WEIGHT = 1;
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final Object mLock = new Object();
+
+    private final List<ArrayDeque<Runnable>> mQueues;
+    private final int[] mWeights;
+    private final int[] mLimits;
+    private final int[] mRunning;
+
+    private final Thread[] mWorkers;
+
+    private int mCurrentLane = 0;
+    private int mCurrentCredit;
+
+    private boolean mShutdown = false;
+
+    public PooledDispatcher() {
+        this(DEFAULT_WORKERS);
+    }
+
+    public PooledDispatcher(int workers) {
+        this(workers, DEFAULT_READ_WEIGHT, DEFAULT_TRANSACTION_WEIGHT);
+    }
+
+    /**
+     * @param workers Number of worker threads. At least 2 is needed for reads not to wait behind transactions.
+     * @param readWeight How many read tasks are picked in a row when both lanes have pending tasks.
+     * @param transactionWeight How many transaction tasks are picked in a row when both lanes have pending tasks.
+     */
+    public PooledDispatcher(int workers, int readWeight, int transactionWeight) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed.");
+        }
+
+        if (readWeight < 1 || transactionWeight < 1) {
+            throw new IllegalArgumentException("Lane weights must be positive.");
+        }
+
+        mQueues = new ArrayList<>(LANES.length);
+        mWeights = new int[LANES.length];
+        mLimits = new int[LANES.length];
+        mRunning = new int[LANES.length];
+
+        for (int i = 0; i < LANES.length; i++) {
+            mQueues.add(new ArrayDeque<>());
+        }
+
+        mWeights[Lane.READ.ordinal()] = readWeight;
+        mWeights[Lane.TRANSACTION.ordinal()] = transactionWeight;
+
+        mLimits[Lane.READ.ordinal()] = workers;
+        mLimits[Lane.TRANSACTION.ordinal()] = Math.max(1, workers - 1);
+
+        mCurrentCredit = mWeights[mCurrentLane];
+
+        mWorkers = new Thread[workers];
+
+        for (int i = 0; i < workers; i++) {
+            mWorkers[i] = new Thread(this::work, "CeloSDK-worker-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    @Override
+    public void dispatch(Lane lane, Runnable task) {
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new IllegalStateException("Dispatcher is shut down.");
+            }
+
+            mQueues.get(lane.ordinal()).add(task);
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Pending tasks are dropped. Running tasks are not interrupted.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+
+            for (ArrayDeque<Runnable> queue: mQueues) {
+                queue.clear();
+            }
+
+            mLock.notifyAll();
+        }
+    }
+
+    public boolean isShutdown() {
+        synchronized (mLock) {
+            return mShutdown;
+        }
+    }
+
+    private void work() {
+        while (true) {
+            int lane = -1;
+            Runnable task;
+
+            synchronized (mLock) {
+                while (!mShutdown && (lane = pickLane()) == -1) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (mShutdown) {
+                    return;
+                }
+
+                task = mQueues.get(lane).poll();
+                mRunning[lane]++;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Log.e(TAG, "Task failed on lane " + LANES[lane], t);
+            } finally {
+                synchronized (mLock) {
+                    mRunning[lane]--;
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Must be called holding mLock. Returns -1 if there is nothing runnable.
+    private int pickLane() {
+        for (int i = 0; i < LANES.length; i++) {
+            if (mCurrentCredit <= 0) {
+                mCurrentLane = (mCurrentLane + 1) % LANES.length;
+                mCurrentCredit = mWeights[mCurrentLane];
+            }
+
+            if (!mQueues.get(mCurrentLane).isEmpty() && mRunning[mCurrentLane] < mLimits[mCurrentLane]) {
+                mCurrentCredit--;
+                return mCurrentLane;
+            }
+
+            mCurrentCredit = 0;
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,322 @@
+package works.heymate.celo;
+
+import org.web3j.crypto.Hash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Latency histograms, error counts and payload sizes of the JSON-RPC calls made to the node, per
+ * JSON-RPC method and per contract function. Other sinks can be added to receive every call as well.
+ */
+public class RpcMetrics implements MetricsSink {
+
+    // Upper bounds of the histogram buckets in milliseconds. The last bucket is unbounded.
+    private static final long[] BUCKET_BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 2_000, 5_000, 10_000 };
+
+    // Contract functions the SDK calls. Unknown functions are reported by their selector.
+    private static final String[] KNOWN_FUNCTIONS = {
+            "allowance(address,address)",
+            "approve(address,uint256)",
+            "attestationExpiryBlocks()",
+            "balanceOf(address)",
+            "complete(bytes32,uint8,bytes32,bytes32)",
+            "getAddressFor(bytes32)",
+            "getAddressForString(string)",
+            "getAttestationIssuers(bytes32,address)",
+            "getAttestationRequestFee(address)",
+            "getAttestationSigner(address)",
+            "getAttestationStat(bytes32,address)",
+            "getCompletableAttestations(bytes32,address)",
+            "getDataEncryptionKey(address)",
+            "getGasPriceMinimum(address)",
+            "getMetadataURL(address)",
+            "getUnselectedRequest(bytes32,address)",
+            "getValidatorSigner(address)",
+            "getVoteSigner(address)",
+            "getWalletAddress(address)",
+            "isAccount(address)",
+            "lookupAccountsForIdentifier(bytes32)",
+            "request(bytes32,uint256,address)",
+            "selectIssuers(bytes32)",
+            "selectIssuersWaitBlocks()",
+            "transfer(address,uint256)",
+            "validateAttestationCode(bytes32,address,uint8,bytes32,bytes32)",
+    };
+
+    private static final Map<String, String> sFunctionsBySelector = new HashMap<>();
+
+    static {
+        for (String function: KNOWN_FUNCTIONS) {
+            registerFunction(function);
+        }
+    }
+
+    /**
+     * Makes calls to the function show up by its signature instead of its selector.
+     * @param signature Canonical signature, e.g. transfer(address,uint256).
+     */
+    public static void registerFunction(String signature) {
+        String selector = Hash.sha3String(signature).substring(0, 10);
+
+        synchronized (sFunctionsBySelector) {
+            sFunctionsBySelector.put(selector, signature);
+        }
+    }
+
+    static String functionForSelector(String selector) {
+        selector = selector.toLowerCase(Locale.US);
+
+        synchronized (sFunctionsBySelector) {
+            String function = sFunctionsBySelector.get(selector);
+
+            return function != null ? function : selector;
+        }
+    }
+
+    /**
+     * Latency only covers the calls that have a duration of their own: calls sent alone and whole batches.
+     * Calls inside a batch add to the count, the errors and nothing else.
+     */
+    public static class Stats {
+
+        private long mCount = 0;
+        private long mErrors = 0;
+        private long mTimedCount = 0;
+        private long mTotalNanos = 0;
+        private long mMinNanos = Long.MAX_VALUE;
+        private long mMaxNanos = 0;
+        private long mRequestBytes = 0;
+        private long mResponseBytes = 0;
+        private final long[] mBuckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+
+        private Stats() {
+
+        }
+
+        private Stats(Stats other) {
+            mCount = other.mCount;
+            mErrors = other.mErrors;
+            mTimedCount = other.mTimedCount;
+            mTotalNanos = other.mTotalNanos;
+            mMinNanos = other.mMinNanos;
+            mMaxNanos = other.mMaxNanos;
+            mRequestBytes = other.mRequestBytes;
+            mResponseBytes = other.mResponseBytes;
+            System.arraycopy(other.mBuckets, 0, mBuckets, 0, mBuckets.length);
+        }
+
+        private void add(long durationNanos, long requestBytes, long responseBytes, boolean failed) {
+            mCount++;
+
+            if (failed) {
+                mErrors++;
+            }
+
+            mRequestBytes += requestBytes;
+            mResponseBytes += responseBytes;
+
+            if (durationNanos < 0) {
+                return;
+            }
+
+            mTimedCount++;
+            mTotalNanos += durationNanos;
+            mMinNanos = Math.min(mMinNanos, durationNanos);
+            mMaxNanos = Math.max(mMaxNanos, durationNanos);
+
+            long millis = durationNanos / 1_000_000;
+            int bucket = 0;
+
+            while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+
+            mBuckets[bucket]++;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getErrors() {
+            return mErrors;
+        }
+
+        /**
+         * @return Number of calls the latency figures are based on.
+         */
+        public long getTimedCount() {
+            return mTimedCount;
+        }
+
+        public double getAverageMillis() {
+            return mTimedCount == 0 ? 0 : mTotalNanos / 1_000_000d / mTimedCount;
+        }
+
+        public double getMinMillis() {
+            return mTimedCount == 0 ? 0 : mMinNanos / 1_000_000d;
+        }
+
+        public double getMaxMillis() {
+            return mMaxNanos / 1_000_000d;
+        }
+
+        public long getRequestBytes() {
+            return mRequestBytes;
+        }
+
+        public long getResponseBytes() {
+            return mResponseBytes;
+        }
+
+        /**
+         * @return Upper bound in milliseconds of the bucket the given percentile falls in. The maximum for the last bucket.
+         */
+        public double getPercentileMillis(double percentile) {
+            if (mTimedCount == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile / 100d * mTimedCount);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                seen += mBuckets[i];
+
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MILLIS[i], getMaxMillis());
+                }
+            }
+
+            return getMaxMillis();
+        }
+
+        /**
+         * @return Number of calls per bucket. Bucket i holds calls shorter than {@link #getBucketBoundsMillis()}[i],
+         * the last one holds the rest.
+         */
+        public long[] getBuckets() {
+            return mBuckets.clone();
+        }
+
+        public static long[] getBucketBoundsMillis() {
+            return BUCKET_BOUNDS_MILLIS.clone();
+        }
+
+    }
+
+    private final Map<String, Stats> mMethodStats = new HashMap<>();
+    private final Map<String, Stats> mFunctionStats = new HashMap<>();
+
+    private final List<MetricsSink> mSinks = new CopyOnWriteArrayList<>();
+
+    public void addSink(MetricsSink sink) {
+        mSinks.add(sink);
+    }
+
+    public void removeSink(MetricsSink sink) {
+        mSinks.remove(sink);
+    }
+
+    @Override
+    public void onRpcCall(String method, String function, long durationNanos, long requestBytes, long responseBytes, boolean failed) {
+        synchronized (this) {
+            stats(mMethodStats, method).add(durationNanos, requestBytes, responseBytes, failed);
+
+            if (function != null) {
+                stats(mFunctionStats, function).add(durationNanos, requestBytes, responseBytes, failed);
+            }
+        }
+
+        for (MetricsSink sink: mSinks) {
+            sink.onRpcCall(method, function, durationNanos, requestBytes, responseBytes, failed);
+        }
+    }
+
+    /**
+     * @return Copies of the stats keyed by JSON-RPC method. Batches are recorded under "batch" as well.
+     */
+    public synchronized Map<String, Stats> getMethodStats() {
+        return copy(mMethodStats);
+    }
+
+    /**
+     * @return Copies of the stats keyed by contract function signature or selector.
+     */
+    public synchronized Map<String, Stats> getFunctionStats() {
+        return copy(mFunctionStats);
+    }
+
+    public synchronized void reset() {
+        mMethodStats.clear();
+        mFunctionStats.clear();
+    }
+
+    /**
+     * @return Human readable table of all the stats, slowest total time first.
+     */
+    public String dump() {
+        Map<String, Stats> methodStats;
+        Map<String, Stats> functionStats;
+
+        synchronized (this) {
+            methodStats = copy(mMethodStats);
+            functionStats = copy(mFunctionStats);
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        dump(sb, "JSON-RPC methods", methodStats);
+        sb.append('\n');
+        dump(sb, "Contract functions", functionStats);
+
+        return sb.toString();
+    }
+
+    private static void dump(StringBuilder sb, String title, Map<String, Stats> stats) {
+        sb.append(title).append('\n');
+        sb.append(String.format(Locale.US, "%-64s %8s %6s %9s %9s %9s %9s %10s %10s%n",
+                "name", "count", "errors", "avg ms", "p50 ms", "p95 ms", "max ms", "sent", "received"));
+
+        List<Map.Entry<String, Stats>> entries = new ArrayList<>(stats.entrySet());
+        Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue().mTotalNanos, e1.getValue().mTotalNanos));
+
+        for (Map.Entry<String, Stats> entry: entries) {
+            Stats s = entry.getValue();
+
+            sb.append(String.format(Locale.US, "%-64s %8d %6d %9.1f %9.1f %9.1f %9.1f %10d %10d%n",
+                    entry.getKey(), s.getCount(), s.getErrors(), s.getAverageMillis(),
+                    s.getPercentileMillis(50), s.getPercentileMillis(95), s.getMaxMillis(),
+                    s.getRequestBytes(), s.getResponseBytes()));
+        }
+    }
+
+    private static Stats stats(Map<String, Stats> map, String key) {
+        Stats stats = map.get(key);
+
+        if (stats == null) {
+            stats = new Stats();
+            map.put(key, stats);
+        }
+
+        return stats;
+    }
+
+    private static Map<String, Stats> copy(Map<String, Stats> map) {
+        Map<String, Stats> copy = new TreeMap<>();
+
+        for (Map.Entry<String, Stats> entry: map.entrySet()) {
+            copy.put(entry.getKey(), new Stats(entry.getValue()));
+        }
+
+        return copy;
+    }
+
+}
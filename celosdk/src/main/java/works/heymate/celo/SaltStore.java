@@ -0,0 +1,693 @@
+package works.heymate.celo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent store of ODIS salts (peppers).
+ *
+ * Salts are kept in an append-only file where every record is encrypted with AES-GCM. Each record
+ * starts with a keyed hash of its phone number and its write time so the file can be indexed
+ * without decrypting it.
+ * Recently used salts are kept decrypted in a small LRU in front of the file.
+ *
+ * The key lives in the app's private shared preferences. It keeps the salts unreadable from the
+ * file itself (backups, copies of the files directory), not from the app process.
+ */
+public class SaltStore {
+
+    private static final String TAG = "SaltStore";
+
+    private static final String FILE_NAME = "odis_salts.log";
+    private static final String PREFERENCES = "SaltStore";
+    private static final String KEY_SECRET = "secret";
+
+    // Salts used to be saved in shared preferences with this name.
+    private static final String LEGACY_PREFERENCES = "ODISSalt";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    private static final int KEY_LENGTH = 32;
+    private static final int INDEX_KEY_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    // index key + type + written at. Authenticated but not encrypted.
+    private static final int CLEAR_HEADER_LENGTH = INDEX_KEY_LENGTH + 1 + 8;
+
+    // length + clear header
+    private static final int RECORD_HEADER_LENGTH = 4 + CLEAR_HEADER_LENGTH;
+
+    private static final int MAX_RECORD_LENGTH = 4096;
+
+    public static final int DEFAULT_LRU_CAPACITY = 256;
+
+    private static SaltStore sInstance = null;
+
+    public static SaltStore get(Context context) {
+        synchronized (SaltStore.class) {
+            if (sInstance == null) {
+                sInstance = new SaltStore(context.getApplicationContext());
+            }
+
+            return sInstance;
+        }
+    }
+
+    private final Context mContext;
+    private final File mFile;
+
+    private final SecureRandom mRandom = new SecureRandom();
+
+    private final byte[] mEncryptionKey;
+    private final byte[] mIndexKey;
+
+    private final Map<IndexKey, IndexEntry> mIndex = new HashMap<>();
+    private final LinkedHashMap<String, CachedSalt> mLRU;
+
+    private int mLRUCapacity = DEFAULT_LRU_CAPACITY;
+    private long mTimeToLive = 0;
+
+    private int mRecordCount = 0;
+    private boolean mLoaded = false;
+
+    // Package-private for tests, which open the store more than once. Apps use get(Context).
+    SaltStore(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+
+        byte[] secret = loadOrCreateSecret(context);
+        mEncryptionKey = Arrays.copyOfRange(secret, 0, KEY_LENGTH);
+        mIndexKey = Arrays.copyOfRange(secret, KEY_LENGTH, KEY_LENGTH * 2);
+
+        mLRU = new LinkedHashMap<String, CachedSalt>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSalt> eldest) {
+                return size() > mLRUCapacity;
+            }
+
+        };
+    }
+
+    /**
+     * Salts older than the given duration are treated as missing. 0 means salts never expire.
+     */
+    public synchronized void setTimeToLive(long millis) {
+        mTimeToLive = millis;
+    }
+
+    public synchronized void setLRUCapacity(int capacity) {
+        mLRUCapacity = capacity;
+
+        while (mLRU.size() > mLRUCapacity) {
+            mLRU.remove(mLRU.keySet().iterator().next());
+        }
+    }
+
+    public synchronized String get(String phoneNumber) {
+        ensureLoaded();
+
+        CachedSalt entry = mLRU.get(phoneNumber);
+
+        if (entry != null) {
+            if (isExpired(entry.writtenAt)) {
+                mLRU.remove(phoneNumber);
+                return null;
+            }
+
+            return entry.salt;
+        }
+
+        IndexEntry indexEntry = mIndex.get(indexKeyOf(phoneNumber));
+
+        if (indexEntry == null || isExpired(indexEntry.writtenAt)) {
+            return null;
+        }
+
+        try {
+            Record record = readRecord(indexEntry.offset);
+
+            if (record == null || record.type != RECORD_PUT || !phoneNumber.equals(record.phoneNumber)) {
+                return null;
+            }
+
+            mLRU.put(phoneNumber, new CachedSalt(record.salt, record.writtenAt));
+
+            return record.salt;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read salt record.", e);
+            return null;
+        }
+    }
+
+    public synchronized void put(String phoneNumber, String salt) {
+        ensureLoaded();
+
+        long now = System.currentTimeMillis();
+
+        try {
+            append(RECORD_PUT, phoneNumber, salt, now);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to persist salt.", e);
+        }
+
+        mLRU.put(phoneNumber, new CachedSalt(salt, now));
+    }
+
+    public synchronized void invalidate(String phoneNumber) {
+        ensureLoaded();
+
+        mLRU.remove(phoneNumber);
+
+        if (mIndex.containsKey(indexKeyOf(phoneNumber))) {
+            try {
+                append(RECORD_REMOVE, phoneNumber, null, System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to persist salt invalidation.", e);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mLRU.clear();
+        mIndex.clear();
+        mRecordCount = 0;
+
+        if (mFile.exists() && !mFile.delete()) {
+            Log.e(TAG, "Failed to delete the salt store file.");
+        }
+    }
+
+    /**
+     * Loads the salts for the given phone numbers with a single read of the store. Meant to be
+     * called before going through a contact list.
+     * @param phoneNumbers Phone numbers to load. Null means every known phone number.
+     * @return Known and unexpired salts keyed by phone number.
+     */
+    public synchronized Map<String, String> preload(Collection<String> phoneNumbers) {
+        ensureLoaded();
+
+        Map<String, String> salts = new HashMap<>();
+
+        byte[] data;
+
+        try {
+            data = readFile();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read the salt store.", e);
+            return salts;
+        }
+
+        Map<IndexKey, String> wanted = null;
+
+        if (phoneNumbers != null) {
+            wanted = new HashMap<>(phoneNumbers.size());
+
+            for (String phoneNumber: phoneNumbers) {
+                wanted.put(indexKeyOf(phoneNumber), phoneNumber);
+            }
+        }
+
+        for (Map.Entry<IndexKey, IndexEntry> indexEntry: mIndex.entrySet()) {
+            if ((wanted != null && !wanted.containsKey(indexEntry.getKey())) || isExpired(indexEntry.getValue().writtenAt)) {
+                continue;
+            }
+
+            try {
+                Record record = decodeRecord(data, (int) indexEntry.getValue().offset);
+
+                if (record != null && record.type == RECORD_PUT) {
+                    salts.put(record.phoneNumber, record.salt);
+
+                    if (mLRU.size() < mLRUCapacity) {
+                        mLRU.put(record.phoneNumber, new CachedSalt(record.salt, record.writtenAt));
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Skipped a corrupted salt record.", e);
+            }
+        }
+
+        return salts;
+    }
+
+    private boolean isExpired(long writtenAt) {
+        return mTimeToLive > 0 && System.currentTimeMillis() - writtenAt > mTimeToLive;
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+
+        mLoaded = true;
+
+        try {
+            loadIndex();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load the salt store index. Starting over.", e);
+            clear();
+        }
+
+        migrateLegacySalts();
+    }
+
+    private void loadIndex() throws IOException {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        byte[] data = readFile();
+
+        int offset = 0;
+
+        while (offset + RECORD_HEADER_LENGTH <= data.length) {
+            if (!isWellFormed(data, offset)) {
+                int next = findNextRecord(data, offset + 1);
+
+                if (next == -1) {
+                    // Usually a partially written tail. Drop it.
+                    Log.w(TAG, "Dropped " + (data.length - offset) + " unreadable bytes at the end of the salt store.");
+                    truncate(offset);
+                    break;
+                }
+
+                // The records in between are lost. The skipped bytes count as one dead record so compaction removes them.
+                Log.e(TAG, "Skipped " + (next - offset) + " corrupted bytes in the salt store.");
+                mRecordCount++;
+                offset = next;
+                continue;
+            }
+
+            int length = readInt(data, offset);
+
+            IndexKey key = new IndexKey(Arrays.copyOfRange(data, offset + 4, offset + 4 + INDEX_KEY_LENGTH));
+            byte type = data[offset + 4 + INDEX_KEY_LENGTH];
+            long writtenAt = readLong(data, offset + 4 + INDEX_KEY_LENGTH + 1);
+
+            if (type == RECORD_PUT && !isExpired(writtenAt)) {
+                mIndex.put(key, new IndexEntry(offset, writtenAt));
+            }
+            else {
+                mIndex.remove(key);
+            }
+
+            mRecordCount++;
+            offset += 4 + length;
+        }
+    }
+
+    private static boolean isWellFormed(byte[] data, int offset) {
+        if (offset + RECORD_HEADER_LENGTH > data.length) {
+            return false;
+        }
+
+        int length = readInt(data, offset);
+
+        if (length <= CLEAR_HEADER_LENGTH + NONCE_LENGTH || length > MAX_RECORD_LENGTH || offset + 4 + length > data.length) {
+            return false;
+        }
+
+        byte type = data[offset + 4 + INDEX_KEY_LENGTH];
+
+        return type == RECORD_PUT || type == RECORD_REMOVE;
+    }
+
+    // Looks for the first offset holding a record that also decrypts, so a stray length prefix is not taken for one.
+    private int findNextRecord(byte[] data, int from) {
+        for (int offset = from; offset + RECORD_HEADER_LENGTH <= data.length; offset++) {
+            if (!isWellFormed(data, offset)) {
+                continue;
+            }
+
+            try {
+                if (decodeRecord(data, offset) != null) {
+                    return offset;
+                }
+            } catch (IOException e) { }
+        }
+
+        return -1;
+    }
+
+    private void migrateLegacySalts() {
+        SharedPreferences legacy = mContext.getSharedPreferences(LEGACY_PREFERENCES, Context.MODE_PRIVATE);
+
+        Map<String, ?> legacySalts = legacy.getAll();
+
+        if (legacySalts.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        try {
+            for (Map.Entry<String, ?> legacySalt: legacySalts.entrySet()) {
+                if (legacySalt.getValue() instanceof String && !mIndex.containsKey(indexKeyOf(legacySalt.getKey()))) {
+                    append(RECORD_PUT, legacySalt.getKey(), (String) legacySalt.getValue(), now);
+                }
+            }
+
+            legacy.edit().clear().apply();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to migrate legacy salts.", e);
+        }
+    }
+
+    private void append(byte type, String phoneNumber, String salt, long writtenAt) throws IOException {
+        ByteArrayOutputStream plainOutput = new ByteArrayOutputStream(64);
+        DataOutputStream plain = new DataOutputStream(plainOutput);
+        plain.writeUTF(phoneNumber);
+        plain.writeUTF(salt == null ? "" : salt);
+        plain.flush();
+
+        IndexKey key = indexKeyOf(phoneNumber);
+
+        ByteArrayOutputStream headerOutput = new ByteArrayOutputStream(CLEAR_HEADER_LENGTH);
+        DataOutputStream header = new DataOutputStream(headerOutput);
+        header.write(key.bytes);
+        header.writeByte(type);
+        header.writeLong(writtenAt);
+        header.flush();
+
+        byte[] clearHeader = headerOutput.toByteArray();
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        mRandom.nextBytes(nonce);
+
+        byte[] cipherText = crypt(true, nonce, clearHeader, plainOutput.toByteArray());
+
+        int length = CLEAR_HEADER_LENGTH + NONCE_LENGTH + cipherText.length;
+
+        ByteArrayOutputStream recordOutput = new ByteArrayOutputStream(4 + length);
+        DataOutputStream record = new DataOutputStream(recordOutput);
+        record.writeInt(length);
+        record.write(clearHeader);
+        record.write(nonce);
+        record.write(cipherText);
+        record.flush();
+
+        long offset;
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+
+        try {
+            offset = file.length();
+            file.seek(offset);
+            file.write(recordOutput.toByteArray());
+        } finally {
+            file.close();
+        }
+
+        mRecordCount++;
+
+        if (type == RECORD_PUT) {
+            mIndex.put(key, new IndexEntry(offset, writtenAt));
+        }
+        else {
+            mIndex.remove(key);
+        }
+
+        if (mRecordCount > 64 && mRecordCount > mIndex.size() * 2) {
+            // The record itself is written by now. A failed compaction only leaves the file larger.
+            try {
+                compact();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to compact the salt store.", e);
+            }
+        }
+    }
+
+    // Rewrites the file with only the live and unexpired records. Records are copied as they are.
+    private void compact() throws IOException {
+        byte[] data = readFile();
+
+        File temp = new File(mFile.getParentFile(), FILE_NAME + ".tmp");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length);
+        Map<IndexKey, IndexEntry> newIndex = new HashMap<>(mIndex.size());
+
+        for (Map.Entry<IndexKey, IndexEntry> entry: mIndex.entrySet()) {
+            if (isExpired(entry.getValue().writtenAt)) {
+                continue;
+            }
+
+            int offset = (int) entry.getValue().offset;
+            int length = 4 + readInt(data, offset);
+
+            newIndex.put(entry.getKey(), new IndexEntry(output.size(), entry.getValue().writtenAt));
+            output.write(data, offset, length);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+
+        try {
+            file.setLength(0);
+            file.write(output.toByteArray());
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Failed to replace the salt store file.");
+        }
+
+        mIndex.clear();
+        mIndex.putAll(newIndex);
+        mRecordCount = newIndex.size();
+    }
+
+    private Record readRecord(long offset) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+
+        try {
+            file.seek(offset);
+
+            int length = file.readInt();
+
+            if (length <= CLEAR_HEADER_LENGTH + NONCE_LENGTH || length > MAX_RECORD_LENGTH) {
+                return null;
+            }
+
+            byte[] data = new byte[4 + length];
+            writeInt(data, 0, length);
+            file.readFully(data, 4, length);
+
+            return decodeRecord(data, 0);
+        } finally {
+            file.close();
+        }
+    }
+
+    private Record decodeRecord(byte[] data, int offset) throws IOException {
+        int length = readInt(data, offset);
+
+        int headerStart = offset + 4;
+        int nonceStart = headerStart + CLEAR_HEADER_LENGTH;
+        int cipherStart = nonceStart + NONCE_LENGTH;
+        int end = headerStart + length;
+
+        if (cipherStart >= end || end > data.length) {
+            return null;
+        }
+
+        byte[] plainText;
+
+        try {
+            plainText = crypt(false,
+                    Arrays.copyOfRange(data, nonceStart, cipherStart),
+                    Arrays.copyOfRange(data, headerStart, nonceStart),
+                    Arrays.copyOfRange(data, cipherStart, end));
+        } catch (IOException e) {
+            return null;
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(plainText));
+
+        Record record = new Record();
+        record.type = data[headerStart + INDEX_KEY_LENGTH];
+        record.writtenAt = readLong(data, headerStart + INDEX_KEY_LENGTH + 1);
+        record.phoneNumber = input.readUTF();
+        record.salt = input.readUTF();
+        return record;
+    }
+
+    private byte[] crypt(boolean encrypt, byte[] nonce, byte[] associatedData, byte[] input) throws IOException {
+        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
+        cipher.init(encrypt, new AEADParameters(new KeyParameter(mEncryptionKey), TAG_BITS, nonce, associatedData));
+
+        byte[] output = new byte[cipher.getOutputSize(input.length)];
+
+        try {
+            int length = cipher.processBytes(input, 0, input.length, output, 0);
+            cipher.doFinal(output, length);
+        } catch (Exception e) {
+            throw new IOException("Salt record authentication failed.", e);
+        }
+
+        return output;
+    }
+
+    private IndexKey indexKeyOf(String phoneNumber) {
+        HMac mac = new HMac(new SHA256Digest());
+        mac.init(new KeyParameter(mIndexKey));
+
+        byte[] input = phoneNumber.getBytes(UTF_8);
+        mac.update(input, 0, input.length);
+
+        byte[] output = new byte[mac.getMacSize()];
+        mac.doFinal(output, 0);
+
+        return new IndexKey(Arrays.copyOf(output, INDEX_KEY_LENGTH));
+    }
+
+    private byte[] readFile() throws IOException {
+        if (!mFile.exists()) {
+            return new byte[0];
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+
+        try {
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            return data;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] loadOrCreateSecret(Context context) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+
+        String encodedSecret = preferences.getString(KEY_SECRET, null);
+
+        if (encodedSecret != null) {
+            byte[] secret = Base64.decode(encodedSecret, Base64.NO_WRAP);
+
+            if (secret.length == KEY_LENGTH * 2) {
+                return secret;
+            }
+        }
+
+        byte[] secret = new byte[KEY_LENGTH * 2];
+        new SecureRandom().nextBytes(secret);
+
+        // The old file can not be read without the old secret.
+        new File(context.getFilesDir(), FILE_NAME).delete();
+
+        preferences.edit().putString(KEY_SECRET, Base64.encodeToString(secret, Base64.NO_WRAP)).commit();
+
+        return secret;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return ((long) readInt(data, offset) << 32) | (readInt(data, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static class IndexKey {
+
+        final byte[] bytes;
+        private final int hashCode;
+
+        IndexKey(byte[] bytes) {
+            this.bytes = bytes;
+            hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IndexKey && Arrays.equals(bytes, ((IndexKey) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+    private static class IndexEntry {
+
+        final long offset;
+        final long writtenAt;
+
+        IndexEntry(long offset, long writtenAt) {
+            this.offset = offset;
+            this.writtenAt = writtenAt;
+        }
+
+    }
+
+    private static class CachedSalt {
+
+        final String salt;
+        final long writtenAt;
+
+        CachedSalt(String salt, long writtenAt) {
+            this.salt = salt;
+            this.writtenAt = writtenAt;
+        }
+
+    }
+
+    private static class Record {
+
+        byte type;
+        long writtenAt;
+        String phoneNumber;
+        String salt;
+
+    }
+
+}
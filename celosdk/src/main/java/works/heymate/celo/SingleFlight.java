@@ -0,0 +1,110 @@
+package works.heymate.celo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent calls for the same key. The first caller (the leader) does the work and every
+ * caller that arrives while it is in flight gets the leader's result instead of doing it again.
+ * Nothing is cached once the flight has landed.
+ */
+class SingleFlight<K, V> {
+
+    interface Call<V> {
+
+        V call() throws Exception;
+
+    }
+
+    static class Flight<V> {
+
+        private final CountDownLatch mLanded = new CountDownLatch(1);
+
+        private V mValue;
+        private Exception mError;
+
+        V await() throws Exception {
+            mLanded.await();
+
+            if (mError != null) {
+                throw mError;
+            }
+
+            return mValue;
+        }
+
+        private void land(V value, Exception error) {
+            mValue = value;
+            mError = error;
+            mLanded.countDown();
+        }
+
+    }
+
+    private final Map<K, Flight<V>> mFlights = new HashMap<>();
+
+    V run(K key, Call<V> call) throws Exception {
+        Flight<V> flight = joinOrLead(key);
+
+        if (flight != null) {
+            return flight.await();
+        }
+
+        V value;
+
+        try {
+            value = call.call();
+        } catch (Exception e) {
+            fail(key, e);
+            throw e;
+        } catch (Throwable t) {
+            fail(key, new Exception(t));
+            throw t;
+        }
+
+        complete(key, value);
+
+        return value;
+    }
+
+    /**
+     * For callers that work on many keys at once.
+     * @return null if the caller is now the leader for the key, in which case it must eventually call
+     * {@link #complete(Object, Object)} or {@link #fail(Object, Exception)} for it. Otherwise the flight to wait on.
+     */
+    Flight<V> joinOrLead(K key) {
+        synchronized (mFlights) {
+            Flight<V> flight = mFlights.get(key);
+
+            if (flight != null) {
+                return flight;
+            }
+
+            mFlights.put(key, new Flight<>());
+
+            return null;
+        }
+    }
+
+    void complete(K key, V value) {
+        land(key, value, null);
+    }
+
+    void fail(K key, Exception error) {
+        land(key, null, error);
+    }
+
+    private void land(K key, V value, Exception error) {
+        Flight<V> flight;
+
+        synchronized (mFlights) {
+            flight = mFlights.remove(key);
+        }
+
+        if (flight != null) {
+            flight.land(value, error);
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package works.heymate.celo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A timed phase of a traced operation. Spans started on a thread become children of the span that
+ * is current on that thread. Work handed to other threads continues the trace with {@link #child(String)}.
+ *
+ * When nothing is being traced every span is a no-op, so phases can be instrumented unconditionally.
+ */
+public class Span implements AutoCloseable {
+
+    private static final ThreadLocal<Span> sCurrent = new ThreadLocal<>();
+
+    static final Span NOOP = new Span(null, null, null);
+
+    /**
+     * Starts a child of the span current on this thread, or a no-op span if there is none.
+     */
+    static Span start(String name) {
+        return current().child(name);
+    }
+
+    /**
+     * @return The span current on this thread, or a no-op span if there is none.
+     */
+    static Span current() {
+        Span current = sCurrent.get();
+
+        return current != null ? current : NOOP;
+    }
+
+    public static class Event {
+
+        public final String message;
+        public final long timeMicros;
+
+        private Event(String message, long timeMicros) {
+            this.message = message;
+            this.timeMicros = timeMicros;
+        }
+
+    }
+
+    private final Trace mTrace;
+    private final Span mParent;
+    private final String mName;
+
+    private final Map<String, Object> mAttributes = new LinkedHashMap<>();
+    private final List<Event> mEvents = new ArrayList<>();
+
+    private long mStartMicros;
+    private long mEndMicros = -1;
+
+    private Thread mThread;
+    private Span mPreviousOnThread;
+
+    Span(Trace trace, Span parent, String name) {
+        mTrace = trace;
+        mParent = parent;
+        mName = name;
+
+        if (trace != null) {
+            trace.onSpanStarted();
+
+            mStartMicros = trace.nowMicros();
+            mThread = Thread.currentThread();
+            mPreviousOnThread = sCurrent.get();
+            sCurrent.set(this);
+        }
+    }
+
+    /**
+     * Starts a child of this span and makes it current on the calling thread.
+     */
+    public Span child(String name) {
+        if (mTrace == null) {
+            return NOOP;
+        }
+
+        return new Span(mTrace, this, name);
+    }
+
+    public Span setAttribute(String key, Object value) {
+        if (mTrace != null) {
+            synchronized (mAttributes) {
+                mAttributes.put(key, value);
+            }
+        }
+
+        return this;
+    }
+
+    public void addEvent(String message) {
+        if (mTrace != null) {
+            synchronized (mEvents) {
+                mEvents.add(new Event(message, mTrace.nowMicros()));
+            }
+        }
+    }
+
+    /**
+     * Ends the span. Must be called on the thread that started it. Ending the root span finishes the trace.
+     */
+    public void end() {
+        if (mTrace == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mEndMicros != -1) {
+                return;
+            }
+
+            mEndMicros = mTrace.nowMicros();
+        }
+
+        if (Thread.currentThread() == mThread && sCurrent.get() == this) {
+            sCurrent.set(mPreviousOnThread);
+        }
+
+        mTrace.onSpanEnded(this);
+    }
+
+    @Override
+    public void close() {
+        end();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Span getParent() {
+        return mParent;
+    }
+
+    public String getThreadName() {
+        return mThread == null ? null : mThread.getName();
+    }
+
+    long getThreadId() {
+        return mThread == null ? 0 : mThread.getId();
+    }
+
+    /**
+     * @return Wall clock start time in microseconds since the epoch.
+     */
+    public long getStartMicros() {
+        return mStartMicros;
+    }
+
+    public synchronized long getDurationMicros() {
+        return mEndMicros == -1 ? -1 : mEndMicros - mStartMicros;
+    }
+
+    public Map<String, Object> getAttributes() {
+        synchronized (mAttributes) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(mAttributes));
+        }
+    }
+
+    public List<Event> getEvents() {
+        synchronized (mEvents) {
+            return Collections.unmodifiableList(new ArrayList<>(mEvents));
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package works.heymate.celo;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All the spans of one traced operation, e.g. one attestation request. Can be exported in the Chrome
+ * trace event format, which chrome://tracing and Perfetto open.
+ */
+public class Trace {
+
+    public interface Listener {
+
+        /**
+         * Called once the root span and every span started under it have ended, on the thread that
+         * ended the last one. Children handed to other threads, e.g. reveals still running after their
+         * deadline, can end after the root.
+         */
+        void onTraceFinished(Trace trace);
+
+    }
+
+    /**
+     * Starts a trace and returns its root span, current on the calling thread. Without a listener
+     * nothing is traced and a no-op span is returned.
+     */
+    static Span begin(String name, Listener listener) {
+        if (listener == null) {
+            return Span.NOOP;
+        }
+
+        Trace trace = new Trace(listener);
+
+        trace.mRoot = new Span(trace, null, name);
+
+        return trace.mRoot;
+    }
+
+    private final Listener mListener;
+
+    private final long mStartWallMicros;
+    private final long mStartNanos;
+
+    private final List<Span> mSpans = new ArrayList<>();
+
+    // Guarded by mSpans.
+    private int mOpenSpans = 0;
+    private boolean mRootEnded = false;
+    private boolean mFinished = false;
+
+    private Span mRoot;
+
+    private Trace(Listener listener) {
+        mListener = listener;
+
+        mStartWallMicros = System.currentTimeMillis() * 1000;
+        mStartNanos = System.nanoTime();
+    }
+
+    long nowMicros() {
+        return mStartWallMicros + (System.nanoTime() - mStartNanos) / 1000;
+    }
+
+    void onSpanStarted() {
+        synchronized (mSpans) {
+            mOpenSpans++;
+        }
+    }
+
+    void onSpanEnded(Span span) {
+        synchronized (mSpans) {
+            if (mFinished) {
+                // Started after the trace was reported. Not part of it.
+                return;
+            }
+
+            mSpans.add(span);
+            mOpenSpans--;
+
+            if (span == mRoot) {
+                mRootEnded = true;
+            }
+
+            if (!mRootEnded || mOpenSpans > 0) {
+                return;
+            }
+
+            mFinished = true;
+        }
+
+        mListener.onTraceFinished(this);
+    }
+
+    public Span getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * @return Ended spans in the order they ended.
+     */
+    public List<Span> getSpans() {
+        synchronized (mSpans) {
+            return Collections.unmodifiableList(new ArrayList<>(mSpans));
+        }
+    }
+
+    /**
+     * https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU
+     */
+    public String toChromeTraceJson() {
+        JSONArray events = new JSONArray();
+
+        try {
+            for (Span span: getSpans()) {
+                JSONObject event = new JSONObject();
+                event.put("name", span.getName());
+                event.put("cat", "celosdk");
+                event.put("ph", "X");
+                event.put("ts", span.getStartMicros());
+                event.put("dur", span.getDurationMicros());
+                event.put("pid", 1);
+                event.put("tid", span.getThreadId());
+
+                JSONObject args = new JSONObject();
+
+                for (Map.Entry<String, Object> attribute: span.getAttributes().entrySet()) {
+                    args.put(attribute.getKey(), String.valueOf(attribute.getValue()));
+                }
+
+                if (span.getParent() != null) {
+                    args.put("parent", span.getParent().getName());
+                }
+
+                event.put("args", args);
+
+                events.put(event);
+
+                for (Span.Event spanEvent: span.getEvents()) {
+                    JSONObject instant = new JSONObject();
+                    instant.put("name", spanEvent.message);
+                    instant.put("cat", "celosdk");
+                    instant.put("ph", "i");
+                    instant.put("s", "t");
+                    instant.put("ts", spanEvent.timeMicros);
+                    instant.put("pid", 1);
+                    instant.put("tid", span.getThreadId());
+
+                    events.put(instant);
+                }
+            }
+
+            Set<Long> threads = new HashSet<>();
+
+            for (Span span: getSpans()) {
+                if (!threads.add(span.getThreadId())) {
+                    continue;
+                }
+
+                JSONObject metadata = new JSONObject();
+                metadata.put("name", "thread_name");
+                metadata.put("ph", "M");
+                metadata.put("pid", 1);
+                metadata.put("tid", span.getThreadId());
+                metadata.put("args", new JSONObject().put("name", span.getThreadName()));
+
+                events.put(metadata);
+            }
+        } catch (JSONException e) { }
+
+        JSONObject json = new JSONObject();
+
+        try {
+            json.put("traceEvents", events);
+            json.put("displayTimeUnit", "ms");
+        } catch (JSONException e) { }
+
+        return json.toString();
+    }
+
+    public void writeChromeTrace(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(toChromeTraceJson().getBytes(Charset.forName("UTF-8")));
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package works.heymate.celo;
+
+import org.celo.contractkit.Utils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IdentifierCacheTest {
+
+    @Test
+    public void getIdentifier_matchesThePhoneHash() {
+        IdentifierCache cache = new IdentifierCache(16);
+
+        for (String salt: new String[] { "abcdefghijklm", "nopqrstuvwxyz", null }) {
+            assertArrayEquals(Utils.getPhoneHash("+15551234567", salt), cache.getIdentifier("+15551234567", salt));
+            assertArrayEquals(Utils.getPhoneHash("+15551234567", salt), cache.getIdentifier("+15551234567", salt));
+        }
+    }
+
+    @Test
+    public void getIdentifier_returnsCopies() {
+        IdentifierCache cache = new IdentifierCache(16);
+
+        byte[] identifier = cache.getIdentifier("+15551234567", "abcdefghijklm");
+        identifier[0] ^= 1;
+
+        assertArrayEquals(Utils.getPhoneHash("+15551234567", "abcdefghijklm"), cache.getIdentifier("+15551234567", "abcdefghijklm"));
+    }
+
+    @Test
+    public void getIdentifier_evictsPastCapacity() {
+        IdentifierCache cache = new IdentifierCache(2);
+
+        for (int i = 0; i < 5; i++) {
+            String phoneNumber = "+1555123456" + i;
+
+            assertArrayEquals(Utils.getPhoneHash(phoneNumber, "abcdefghijklm"), cache.getIdentifier(phoneNumber, "abcdefghijklm"));
+            assertEquals(Math.min(i + 1, 2), cache.size());
+        }
+
+        // Evicted, so hashed again.
+        assertArrayEquals(Utils.getPhoneHash("+15551234560", "abcdefghijklm"), cache.getIdentifier("+15551234560", "abcdefghijklm"));
+    }
+
+    @Test
+    public void prepare_ignoresInvalidNumbers() {
+        IdentifierCache cache = new IdentifierCache(16);
+
+        cache.prepare("5551234567", "abcdefghijklm");
+
+        try {
+            cache.getIdentifier("5551234567", "abcdefghijklm");
+            fail("Hashed a number that is not in E.164 format.");
+        } catch (IllegalArgumentException e) { }
+    }
+
+}
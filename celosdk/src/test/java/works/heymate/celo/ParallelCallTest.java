@@ -0,0 +1,106 @@
+package works.heymate.celo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelCallTest {
+
+    @Test
+    public void map_keepsInputOrder() {
+        List<Integer> inputs = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            inputs.add(i);
+        }
+
+        List<ParallelCall.Result<Integer>> results = ParallelCall.map(inputs, 8, 0, input -> {
+            Thread.sleep((50 - input) % 7);
+            return input * 2;
+        });
+
+        assertEquals(50, results.size());
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(results.get(i).isSuccessful());
+            assertEquals(Integer.valueOf(i * 2), results.get(i).value);
+        }
+    }
+
+    @Test
+    public void map_boundsParallelism() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Integer> inputs = new ArrayList<>();
+
+        for (int i = 0; i < 40; i++) {
+            inputs.add(i);
+        }
+
+        ParallelCall.map(inputs, 4, 0, input -> {
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            return input;
+        });
+
+        assertTrue(maxRunning.get() <= 4);
+        assertTrue(maxRunning.get() > 1);
+    }
+
+    @Test
+    public void map_reportsErrorsPerInput() {
+        List<ParallelCall.Result<Integer>> results = ParallelCall.map(Arrays.asList(1, 2, 3), 3, 0, input -> {
+            if (input == 2) {
+                throw new IllegalStateException("two");
+            }
+
+            return input;
+        });
+
+        assertTrue(results.get(0).isSuccessful());
+        assertFalse(results.get(1).isSuccessful());
+        assertEquals("two", results.get(1).error.getMessage());
+        assertTrue(results.get(2).isSuccessful());
+    }
+
+    @Test(timeout = 5000)
+    public void map_reportsErrorsThrownByTheFunction() {
+        List<ParallelCall.Result<Integer>> results = ParallelCall.map(Arrays.asList(1, 2, 3), 2, 0, input -> {
+            if (input == 2) {
+                throw new UnsatisfiedLinkError("two");
+            }
+
+            return input;
+        });
+
+        assertTrue(results.get(0).isSuccessful());
+        assertTrue(results.get(1).error instanceof ExecutionException);
+        assertTrue(results.get(1).error.getCause() instanceof UnsatisfiedLinkError);
+        assertTrue(results.get(2).isSuccessful());
+    }
+
+    @Test
+    public void map_resolvesUnfinishedInputsWithTimeoutAtDeadline() {
+        long start = System.currentTimeMillis();
+
+        List<ParallelCall.Result<Integer>> results = ParallelCall.map(Arrays.asList(0, 10000), 2, 200, input -> {
+            Thread.sleep(input);
+            return input;
+        });
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(results.get(0).isSuccessful());
+        assertTrue(results.get(1).error instanceof TimeoutException);
+    }
+
+}
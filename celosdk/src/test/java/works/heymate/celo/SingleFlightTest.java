@@ -0,0 +1,121 @@
+package works.heymate.celo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void run_coalescesConcurrentCallsForTheSameKey() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> singleFlight.run("+15551234567", () -> {
+                    calls.incrementAndGet();
+                    release.await();
+                    return 42;
+                })));
+            }
+
+            // Let every caller join the flight before it lands.
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<Integer> result: results) {
+                assertEquals(Integer.valueOf(42), result.get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void run_sharesTheLeadersError() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Integer> leader = executor.submit(() -> singleFlight.run("key", () -> {
+                release.await();
+                throw new IllegalStateException("quota");
+            }));
+
+            Thread.sleep(100);
+
+            Future<Integer> follower = executor.submit(() -> singleFlight.run("key", () -> 1));
+
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("quota", causeOf(leader).getMessage());
+            assertEquals("quota", causeOf(follower).getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void run_doesNotCacheLandedFlights() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+        assertEquals(Integer.valueOf(1), singleFlight.run("key", () -> 1));
+        assertEquals(Integer.valueOf(2), singleFlight.run("key", () -> 2));
+    }
+
+    @Test
+    public void joinOrLead_letsOneCallerLeadEachKey() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+        assertNull(singleFlight.joinOrLead("a"));
+        assertNull(singleFlight.joinOrLead("b"));
+
+        SingleFlight.Flight<Integer> flight = singleFlight.joinOrLead("a");
+
+        assertNotNull(flight);
+
+        singleFlight.complete("a", 7);
+        singleFlight.fail("b", new Exception("failed"));
+
+        assertEquals(Integer.valueOf(7), flight.await());
+        assertNull(singleFlight.joinOrLead("a"));
+    }
+
+    private static Throwable causeOf(Future<?> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            fail("Call did not finish.");
+        }
+
+        fail("Call did not fail.");
+        return null;
+    }
+
+}
@@ -0,0 +1,354 @@
+package works.heymate.celo.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.celo.contractkit.Utils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.Keys;
+import org.web3j.crypto.Sign;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-ins for the attestation services of a set of issuers, all on one local server.
+ * Each issuer serves signed metadata, /status, /attestations and /get_attestations. Attestation
+ * messages that would go out as SMS are delivered to an in-memory inbox instead.
+ *
+ * Metadata URLs can not carry a port, so issuers are published under {@link #HOST} and clients reach
+ * them with the server as their HTTP proxy. See {@link #getPort()}.
+ */
+public class FakeAttestationServices {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final String HOST = "attestation.test";
+
+    private static final String SERVICE_VERSION = "1.2.0";
+
+    private static final String ATTESTATION_URL_PREFIX = "celo://wallet/v/";
+
+    private static class FakeIssuer {
+
+        final ECKeyPair keyPair;
+        final String address;
+        final String name;
+
+        String baseURL;
+        String metadata;
+        String eTag;
+
+        FakeIssuer(ECKeyPair keyPair, String name) {
+            this.keyPair = keyPair;
+            this.address = "0x" + Keys.getAddress(keyPair);
+            this.name = name;
+        }
+
+    }
+
+    private final List<FakeIssuer> mIssuers = new ArrayList<>();
+
+    private final Map<String, BlockingQueue<String>> mInbox = new ConcurrentHashMap<>();
+
+    // Security codes handed out for /get_attestations, keyed by account, identifier and issuer.
+    private final Map<String, String> mAttestationCodes = new ConcurrentHashMap<>();
+
+    private final SecureRandom mRandom = new SecureRandom();
+
+    private final long mResponseDelayMillis;
+
+    private volatile FakeCeloNode mNode;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    /**
+     * @param responseDelayMillis Added to every response to mimic the latency of real issuers.
+     */
+    public FakeAttestationServices(int issuerCount, long responseDelayMillis) {
+        mResponseDelayMillis = responseDelayMillis;
+
+        for (int i = 0; i < issuerCount; i++) {
+            byte[] privateKey = new byte[32];
+            mRandom.nextBytes(privateKey);
+
+            mIssuers.add(new FakeIssuer(ECKeyPair.create(privateKey), "Issuer " + i));
+        }
+    }
+
+    public synchronized void start() throws IOException {
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FakeAttestationService");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        mServer.setExecutor(mExecutor);
+
+        String root = "http://" + HOST;
+
+        for (int i = 0; i < mIssuers.size(); i++) {
+            FakeIssuer issuer = mIssuers.get(i);
+            String path = "/issuer/" + i;
+
+            issuer.baseURL = root + path;
+            issuer.metadata = signedMetadata(issuer);
+            issuer.eTag = "\"" + Numeric.toHexStringNoPrefix(Hash.sha3(issuer.metadata.getBytes(UTF_8))).substring(0, 16) + "\"";
+
+            mServer.createContext(path + "/", exchange -> handle(issuer, exchange));
+        }
+
+        mServer.start();
+    }
+
+    public synchronized void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+            mServer = null;
+        }
+    }
+
+    /**
+     * Port of the server, to be used as the HTTP proxy for {@link #HOST}.
+     */
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    /**
+     * Issuers only answer attestation requests the node has selected them for once a node is set.
+     */
+    public void setNode(FakeCeloNode node) {
+        mNode = node;
+    }
+
+    public List<FakeCeloNode.Issuer> getIssuers() {
+        List<FakeCeloNode.Issuer> issuers = new ArrayList<>(mIssuers.size());
+
+        for (FakeIssuer issuer: mIssuers) {
+            issuers.add(new FakeCeloNode.Issuer(issuer.address, metadataURLOf(issuer)));
+        }
+
+        return issuers;
+    }
+
+    /**
+     * Waits for the next attestation message sent to the phone number.
+     * @return null if none arrived in time.
+     */
+    public String takeMessage(String phoneNumber, long timeoutMillis) throws InterruptedException {
+        return inboxOf(phoneNumber).poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private BlockingQueue<String> inboxOf(String phoneNumber) {
+        BlockingQueue<String> inbox = mInbox.get(phoneNumber);
+
+        if (inbox == null) {
+            mInbox.putIfAbsent(phoneNumber, new LinkedBlockingQueue<>());
+            inbox = mInbox.get(phoneNumber);
+        }
+
+        return inbox;
+    }
+
+    private void handle(FakeIssuer issuer, HttpExchange exchange) throws IOException {
+        try {
+            if (mResponseDelayMillis > 0) {
+                Thread.sleep(mResponseDelayMillis);
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String endpoint = path.substring(path.lastIndexOf('/') + 1);
+
+            switch (endpoint) {
+                case "metadata.json":
+                    if (issuer.eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        exchange.getResponseHeaders().set("ETag", issuer.eTag);
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
+                    }
+
+                    exchange.getResponseHeaders().set("ETag", issuer.eTag);
+                    respond(exchange, 200, issuer.metadata);
+                    return;
+                case "status":
+                    respond(exchange, 200, new JSONObject().put("status", "ok").put("version", SERVICE_VERSION).toString());
+                    return;
+                case "attestations":
+                    handleAttestationRequest(issuer, exchange);
+                    return;
+                case "get_attestations":
+                    handleGetAttestations(issuer, exchange);
+                    return;
+                default:
+                    respond(exchange, 404, "{}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "{}");
+        } catch (JSONException e) {
+            respond(exchange, 400, "{}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleAttestationRequest(FakeIssuer issuer, HttpExchange exchange) throws IOException, JSONException {
+        JSONObject request = new JSONObject(FakeCeloNode.readFully(exchange.getRequestBody()));
+
+        String phoneNumber = request.getString("phoneNumber");
+        String account = request.getString("account");
+        String salt = request.getString("salt");
+
+        byte[] identifier = Utils.getPhoneHash(phoneNumber, salt);
+
+        FakeCeloNode node = mNode;
+
+        if (node != null && !node.isAttestationPending(identifier, account, issuer.address)) {
+            respond(exchange, 422, new JSONObject().put("success", false).put("error", "No incomplete attestation found").toString());
+            return;
+        }
+
+        String attestationCode = attestationCode(issuer, identifier, account);
+
+        String message;
+
+        if (request.has("securityCodePrefix")) {
+            String securityCode = request.getString("securityCodePrefix") + String.format("%07d", mRandom.nextInt(10_000_000));
+
+            mAttestationCodes.put(codeKey(account, identifier, issuer, securityCode), attestationCode);
+
+            message = "Celo verification code: " + securityCode;
+        }
+        else {
+            message = "<#> Celo attestation code: " + ATTESTATION_URL_PREFIX + Base64.getEncoder().encodeToString(Numeric.hexStringToByteArray(attestationCode));
+        }
+
+        inboxOf(phoneNumber).add(message);
+
+        respond(exchange, 201, new JSONObject().put("success", true).toString());
+    }
+
+    private void handleGetAttestations(FakeIssuer issuer, HttpExchange exchange) throws IOException, JSONException {
+        Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+
+        byte[] identifier = Utils.getPhoneHash(params.get("phoneNumber"), params.get("salt"));
+
+        String attestationCode = mAttestationCodes.get(codeKey(params.get("account"), identifier, issuer, params.get("securityCode")));
+
+        if (attestationCode == null || exchange.getRequestHeaders().getFirst("Authentication") == null) {
+            respond(exchange, 404, new JSONObject().put("success", false).toString());
+            return;
+        }
+
+        respond(exchange, 200, new JSONObject().put("success", true).put("attestationCode", attestationCode).toString());
+    }
+
+    // The issuer signs keccak(identifier ++ account) as a personal message.
+    private static String attestationCode(FakeIssuer issuer, byte[] identifier, String account) {
+        byte[] accountBytes = Numeric.hexStringToByteArray(account);
+        byte[] message = new byte[identifier.length + accountBytes.length];
+        System.arraycopy(identifier, 0, message, 0, identifier.length);
+        System.arraycopy(accountBytes, 0, message, identifier.length, accountBytes.length);
+
+        return signatureOf(Sign.signPrefixedMessage(Hash.sha3(message), issuer.keyPair));
+    }
+
+    // Claims are signed as JSON.stringify writes them: hashed one by one, then the hashes together.
+    // The file itself is pretty printed, as issuers publish it. See MetadataParser.
+    private String signedMetadata(FakeIssuer issuer) {
+        long timestamp = System.currentTimeMillis() / 1000;
+
+        String[] claims = {
+                "{\"timestamp\":" + timestamp + ",\"type\":\"ATTESTATION_SERVICE_URL\",\"url\":\"" + issuer.baseURL + "\"}",
+                "{\"name\":\"" + issuer.name + "\",\"timestamp\":" + timestamp + ",\"type\":\"NAME\"}"
+        };
+
+        byte[] hashes = new byte[32 * claims.length];
+
+        for (int i = 0; i < claims.length; i++) {
+            System.arraycopy(Hash.sha3(claims[i].getBytes(UTF_8)), 0, hashes, 32 * i, 32);
+        }
+
+        String signature = signatureOf(Sign.signPrefixedMessage(Hash.sha3(hashes), issuer.keyPair));
+
+        StringBuilder metadata = new StringBuilder("{\n  \"claims\": [\n");
+
+        for (int i = 0; i < claims.length; i++) {
+            metadata.append("    ").append(claims[i].replace(",\"", ", \"").replace("\":", "\": "));
+            metadata.append(i < claims.length - 1 ? ",\n" : "\n");
+        }
+
+        metadata.append("  ],\n  \"meta\": {\n");
+        metadata.append("    \"address\": \"").append(issuer.address).append("\",\n");
+        metadata.append("    \"signature\": \"").append(signature).append("\"\n");
+        metadata.append("  }\n}\n");
+
+        return metadata.toString();
+    }
+
+    private static String signatureOf(Sign.SignatureData signature) {
+        return Numeric.toHexString(signature.getR()) + Numeric.toHexStringNoPrefix(signature.getS()) + Numeric.toHexStringNoPrefix(signature.getV());
+    }
+
+    private static String metadataURLOf(FakeIssuer issuer) {
+        return issuer.baseURL + "/metadata.json";
+    }
+
+    private static String codeKey(String account, byte[] identifier, FakeIssuer issuer, String securityCode) {
+        return account.toLowerCase() + ":" + Numeric.toHexString(identifier) + ":" + issuer.address + ":" + securityCode;
+    }
+
+    private static Map<String, String> queryParams(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+
+        if (query == null) {
+            return params;
+        }
+
+        for (String param: query.split("&")) {
+            int separator = param.indexOf('=');
+
+            if (separator > 0) {
+                params.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"), URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+            }
+        }
+
+        return params;
+    }
+
+    static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
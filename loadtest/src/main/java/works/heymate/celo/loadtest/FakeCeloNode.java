@@ -0,0 +1,870 @@
+package works.heymate.celo.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.celo.contractkit.Utils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.abi.datatypes.generated.Uint32;
+import org.web3j.abi.datatypes.generated.Uint8;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.Keys;
+import org.web3j.crypto.Sign;
+import org.web3j.rlp.RlpDecoder;
+import org.web3j.rlp.RlpEncoder;
+import org.web3j.rlp.RlpList;
+import org.web3j.rlp.RlpString;
+import org.web3j.rlp.RlpType;
+import org.web3j.utils.Numeric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a Celo node. Answers the JSON-RPC methods and the Registry, Attestations,
+ * Accounts, StableToken, GoldToken and GasPriceMinimum functions the SDK uses, and mines every
+ * transaction right away. Blocks are produced on a fixed interval.
+ */
+public class FakeCeloNode {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final String REGISTRY_ADDRESS = "0x000000000000000000000000000000000000ce10";
+
+    private static final String NULL_ADDRESS = "0x0000000000000000000000000000000000000000";
+
+    private static final String[] CONTRACT_NAMES = {
+            "Accounts", "Attestations", "BlockchainParameters", "DoubleSigningSlasher", "DowntimeSlasher",
+            "Election", "EpochRewards", "Escrow", "Exchange", "FeeCurrencyWhitelist", "Freezer",
+            "GasPriceMinimum", "GoldToken", "Governance", "LockedGold", "MultiSig", "Random", "Reserve",
+            "SortedOracles", "StableToken", "StableTokenEUR", "StableTokenBRL", "TransferWhitelist", "Validators"
+    };
+
+    // Celo transactions carry feeCurrency, gatewayFeeRecipient and gatewayFee after the gas limit.
+    private static final int CELO_TRANSACTION_FIELDS = 12;
+    private static final int TO_INDEX = 6;
+    private static final int DATA_INDEX = 8;
+    private static final int V_INDEX = 9;
+
+    private static final BigInteger INITIAL_STABLE_BALANCE = BigInteger.TEN.pow(20);
+    private static final BigInteger INITIAL_GOLD_BALANCE = BigInteger.TEN.pow(19);
+    private static final BigInteger ATTESTATION_FEE = BigInteger.valueOf(5).multiply(BigInteger.TEN.pow(16));
+    private static final BigInteger GAS_PRICE_MINIMUM = BigInteger.valueOf(500_000_000L);
+    private static final BigInteger ESTIMATED_GAS = BigInteger.valueOf(200_000L);
+
+    public static class Issuer {
+
+        public final String address;
+        public final String metadataURL;
+
+        public Issuer(String address, String metadataURL) {
+            this.address = address;
+            this.metadataURL = metadataURL;
+        }
+
+    }
+
+    private interface View {
+
+        List<Type> call(String from, String to, List<Type> args) throws Revert;
+
+    }
+
+    private interface Transaction {
+
+        void apply(String from, String to, List<Type> args) throws Revert;
+
+    }
+
+    private static class Revert extends Exception {
+
+        Revert(String message) {
+            super(message);
+        }
+
+    }
+
+    private static class Method {
+
+        final String signature;
+        final List<TypeReference<Type>> inputs;
+        final View view;
+        final Transaction transaction;
+
+        @SuppressWarnings("unchecked")
+        Method(String signature, List<TypeReference<?>> inputs, View view, Transaction transaction) {
+            this.signature = signature;
+            this.inputs = (List) inputs;
+            this.view = view;
+            this.transaction = transaction;
+        }
+
+    }
+
+    private static class IssuedAttestation {
+
+        final String issuer;
+        final long blockNumber;
+        boolean completed = false;
+
+        IssuedAttestation(String issuer, long blockNumber) {
+            this.issuer = issuer;
+            this.blockNumber = blockNumber;
+        }
+
+    }
+
+    private static class AttestationState {
+
+        long unselectedBlock = 0;
+        int unselectedCount = 0;
+
+        final List<IssuedAttestation> issued = new ArrayList<>();
+
+    }
+
+    private static class Receipt {
+
+        final String hash;
+        final String from;
+        final String to;
+        final long blockNumber;
+        final boolean success;
+
+        Receipt(String hash, String from, String to, long blockNumber, boolean success) {
+            this.hash = hash;
+            this.from = from;
+            this.to = to;
+            this.blockNumber = blockNumber;
+            this.success = success;
+        }
+
+    }
+
+    private final int mChainId;
+    private final long mBlockTimeMillis;
+    private final int mSelectIssuersWaitBlocks;
+    private final long mAttestationExpiryBlocks;
+
+    private final Map<String, Issuer> mIssuers = new HashMap<>();
+    private final List<String> mIssuerAddresses = new ArrayList<>();
+
+    private final Map<String, String> mContractAddresses = new HashMap<>();
+    private final Map<String, String> mContractNames = new HashMap<>();
+    private final Map<String, String> mContractsByNameHash = new HashMap<>();
+
+    private final Map<String, Method> mMethods = new HashMap<>();
+
+    // Chain state. Guarded by this.
+    private final Map<String, AttestationState> mAttestations = new HashMap<>();
+    private final Map<String, Set<String>> mAccountsByIdentifier = new HashMap<>();
+    private final Map<String, BigInteger> mStableBalances = new HashMap<>();
+    private final Map<String, BigInteger> mAllowances = new HashMap<>();
+    private final Map<String, Long> mNonces = new HashMap<>();
+    private final Map<String, Receipt> mReceipts = new HashMap<>();
+
+    private final Map<String, AtomicLong> mCallCounts = new ConcurrentHashMap<>();
+
+    private final Random mRandom = new Random();
+
+    private final long mGenesisMillis = System.currentTimeMillis();
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    public FakeCeloNode(int chainId, long blockTimeMillis, int selectIssuersWaitBlocks, List<Issuer> issuers) {
+        mChainId = chainId;
+        mBlockTimeMillis = blockTimeMillis;
+        mSelectIssuersWaitBlocks = selectIssuersWaitBlocks;
+        mAttestationExpiryBlocks = 1000;
+
+        for (Issuer issuer: issuers) {
+            String address = issuer.address.toLowerCase(Locale.US);
+
+            mIssuers.put(address, issuer);
+            mIssuerAddresses.add(address);
+        }
+
+        for (String name: CONTRACT_NAMES) {
+            String address = "0x" + Numeric.toHexStringNoPrefix(Hash.sha3(name.getBytes(UTF_8))).substring(24);
+
+            mContractAddresses.put(name, address);
+            mContractNames.put(address, name);
+            mContractsByNameHash.put(Numeric.toHexString(Utils.soliditySha3(name)), address);
+        }
+
+        mContractNames.put(REGISTRY_ADDRESS, "Registry");
+
+        registerMethods();
+    }
+
+    public synchronized String start() throws IOException {
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FakeCeloNode");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", this::handle);
+        mServer.start();
+
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+            mServer = null;
+        }
+    }
+
+    public String getContractAddress(String name) {
+        return mContractAddresses.get(name);
+    }
+
+    public long getBlockNumber() {
+        return 1 + (System.currentTimeMillis() - mGenesisMillis) / mBlockTimeMillis;
+    }
+
+    /**
+     * @return JSON-RPC calls served so far, keyed by method. Contract calls are keyed by contract and function too.
+     */
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> counts = new HashMap<>();
+
+        for (Map.Entry<String, AtomicLong> count: mCallCounts.entrySet()) {
+            counts.put(count.getKey(), count.getValue().get());
+        }
+
+        return counts;
+    }
+
+    /**
+     * @return Whether the issuer was selected for the identifier and account and has not been completed yet.
+     */
+    public synchronized boolean isAttestationPending(byte[] identifier, String account, String issuer) {
+        AttestationState state = mAttestations.get(attestationKey(identifier, account));
+
+        if (state == null) {
+            return false;
+        }
+
+        for (IssuedAttestation attestation: state.issued) {
+            if (attestation.issuer.equalsIgnoreCase(issuer) && !attestation.completed) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String body = readFully(exchange.getRequestBody());
+
+            String response;
+
+            if (body.trim().startsWith("[")) {
+                JSONArray requests = new JSONArray(body);
+                JSONArray responses = new JSONArray();
+
+                for (int i = 0; i < requests.length(); i++) {
+                    responses.put(respond(requests.getJSONObject(i)));
+                }
+
+                response = responses.toString();
+            }
+            else {
+                response = respond(new JSONObject(body)).toString();
+            }
+
+            byte[] bytes = response.getBytes(UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (JSONException e) {
+            exchange.sendResponseHeaders(400, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private JSONObject respond(JSONObject request) throws JSONException {
+        String method = request.getString("method");
+        JSONArray params = request.optJSONArray("params");
+
+        JSONObject response = new JSONObject();
+        response.put("jsonrpc", "2.0");
+        response.put("id", request.opt("id"));
+
+        try {
+            response.put("result", dispatch(method, params == null ? new JSONArray() : params));
+        } catch (Revert e) {
+            JSONObject error = new JSONObject();
+            error.put("code", -32000);
+            error.put("message", "execution reverted: " + e.getMessage());
+            response.put("error", error);
+        }
+
+        return response;
+    }
+
+    private Object dispatch(String method, JSONArray params) throws JSONException, Revert {
+        count(method);
+
+        switch (method) {
+            case "eth_chainId":
+                return Numeric.encodeQuantity(BigInteger.valueOf(mChainId));
+            case "net_version":
+                return String.valueOf(mChainId);
+            case "eth_blockNumber":
+                return Numeric.encodeQuantity(BigInteger.valueOf(getBlockNumber()));
+            case "eth_gasPrice":
+                return Numeric.encodeQuantity(GAS_PRICE_MINIMUM);
+            case "eth_estimateGas":
+                return Numeric.encodeQuantity(ESTIMATED_GAS);
+            case "eth_getTransactionCount":
+                return Numeric.encodeQuantity(BigInteger.valueOf(nonceOf(params.getString(0))));
+            case "eth_getBalance":
+                return Numeric.encodeQuantity(INITIAL_GOLD_BALANCE);
+            case "eth_getCode":
+                return mContractNames.containsKey(params.getString(0).toLowerCase(Locale.US)) ? "0x01" : "0x";
+            case "eth_call":
+                JSONObject call = params.getJSONObject(0);
+                return call(call.optString("from", NULL_ADDRESS), call.getString("to"), call.getString("data"));
+            case "eth_sendRawTransaction":
+                return sendRawTransaction(params.getString(0));
+            case "eth_getTransactionReceipt":
+                return receipt(params.getString(0));
+            case "eth_getBlockByNumber":
+                return block(params.getString(0));
+            default:
+                throw new Revert("Unsupported method " + method);
+        }
+    }
+
+    private String call(String from, String to, String data) throws Revert {
+        Method method = methodOf(to, data);
+
+        if (method.view == null) {
+            throw new Revert(method.signature + " is not a view function");
+        }
+
+        List<Type> args = FunctionReturnDecoder.decode(data.substring(10), method.inputs);
+
+        synchronized (this) {
+            return "0x" + FunctionEncoder.encodeConstructor(method.view.call(from.toLowerCase(Locale.US), to.toLowerCase(Locale.US), args));
+        }
+    }
+
+    private String sendRawTransaction(String rawTransaction) throws Revert {
+        byte[] encoded = Numeric.hexStringToByteArray(rawTransaction);
+
+        List<RlpType> fields = ((RlpList) RlpDecoder.decode(encoded).getValues().get(0)).getValues();
+
+        if (fields.size() != CELO_TRANSACTION_FIELDS) {
+            throw new Revert("Not a Celo transaction");
+        }
+
+        String from = senderOf(fields);
+        String to = Numeric.toHexString(((RlpString) fields.get(TO_INDEX)).getBytes()).toLowerCase(Locale.US);
+        String data = Numeric.toHexString(((RlpString) fields.get(DATA_INDEX)).getBytes());
+
+        String hash = Numeric.toHexString(Hash.sha3(encoded));
+
+        synchronized (this) {
+            mNonces.put(from, nonceOf(from) + 1);
+
+            boolean success;
+
+            try {
+                Method method = methodOf(to, data);
+
+                if (method.transaction == null) {
+                    throw new Revert(method.signature + " is a view function");
+                }
+
+                method.transaction.apply(from, to, FunctionReturnDecoder.decode(data.substring(10), method.inputs));
+
+                success = true;
+            } catch (Revert e) {
+                success = false;
+            }
+
+            mReceipts.put(hash, new Receipt(hash, from, to, getBlockNumber(), success));
+        }
+
+        return hash;
+    }
+
+    // EIP-155 signatures sign the unsigned fields followed by the chain id and two zeros.
+    private String senderOf(List<RlpType> fields) throws Revert {
+        List<RlpType> unsigned = new ArrayList<>(fields.subList(0, V_INDEX));
+        unsigned.add(RlpString.create(mChainId));
+        unsigned.add(RlpString.create(0));
+        unsigned.add(RlpString.create(0));
+
+        byte[] hash = Hash.sha3(RlpEncoder.encode(new RlpList(unsigned)));
+
+        long v = ((RlpString) fields.get(V_INDEX)).asPositiveBigInteger().longValue();
+        byte recoveryId = (byte) (v - mChainId * 2L - 35 + 27);
+
+        Sign.SignatureData signature = new Sign.SignatureData(
+                recoveryId,
+                Numeric.toBytesPadded(((RlpString) fields.get(V_INDEX + 1)).asPositiveBigInteger(), 32),
+                Numeric.toBytesPadded(((RlpString) fields.get(V_INDEX + 2)).asPositiveBigInteger(), 32));
+
+        try {
+            return "0x" + Keys.getAddress(Sign.signedMessageHashToKey(hash, signature));
+        } catch (Exception e) {
+            throw new Revert("Invalid signature");
+        }
+    }
+
+    private synchronized Object receipt(String hash) throws JSONException {
+        Receipt receipt = mReceipts.get(hash.toLowerCase(Locale.US));
+
+        if (receipt == null) {
+            return JSONObject.NULL;
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("transactionHash", receipt.hash);
+        json.put("transactionIndex", "0x0");
+        json.put("blockHash", blockHash(receipt.blockNumber));
+        json.put("blockNumber", Numeric.encodeQuantity(BigInteger.valueOf(receipt.blockNumber)));
+        json.put("from", receipt.from);
+        json.put("to", receipt.to);
+        json.put("cumulativeGasUsed", Numeric.encodeQuantity(ESTIMATED_GAS));
+        json.put("gasUsed", Numeric.encodeQuantity(ESTIMATED_GAS));
+        json.put("contractAddress", JSONObject.NULL);
+        json.put("logs", new JSONArray());
+        json.put("logsBloom", "0x" + repeat('0', 512));
+        json.put("status", receipt.success ? "0x1" : "0x0");
+
+        return json;
+    }
+
+    private Object block(String blockParameter) throws JSONException {
+        long number = "latest".equals(blockParameter) || "pending".equals(blockParameter) ? getBlockNumber() : Numeric.decodeQuantity(blockParameter).longValue();
+
+        JSONObject json = new JSONObject();
+        json.put("number", Numeric.encodeQuantity(BigInteger.valueOf(number)));
+        json.put("hash", blockHash(number));
+        json.put("parentHash", blockHash(number - 1));
+        json.put("timestamp", Numeric.encodeQuantity(BigInteger.valueOf((mGenesisMillis + number * mBlockTimeMillis) / 1000)));
+        json.put("gasUsed", "0x0");
+        json.put("transactions", new JSONArray());
+
+        return json;
+    }
+
+    private Method methodOf(String to, String data) throws Revert {
+        String contract = mContractNames.get(to.toLowerCase(Locale.US));
+
+        if (contract == null) {
+            throw new Revert("No contract at " + to);
+        }
+
+        if (data == null || data.length() < 10) {
+            throw new Revert("No function selector");
+        }
+
+        Method method = mMethods.get(contract + ":" + data.substring(0, 10).toLowerCase(Locale.US));
+
+        if (method == null) {
+            count(contract + ".unknown(" + data.substring(0, 10) + ")");
+            throw new Revert("Unknown function " + data.substring(0, 10) + " on " + contract);
+        }
+
+        count(contract + "." + method.signature);
+
+        return method;
+    }
+
+    private void count(String key) {
+        AtomicLong count = mCallCounts.get(key);
+
+        if (count == null) {
+            mCallCounts.putIfAbsent(key, new AtomicLong());
+            count = mCallCounts.get(key);
+        }
+
+        count.incrementAndGet();
+    }
+
+    private void view(String contract, String signature, List<TypeReference<?>> inputs, View view) {
+        mMethods.put(contract + ":" + selectorOf(signature), new Method(signature, inputs, view, null));
+    }
+
+    private void transaction(String contract, String signature, List<TypeReference<?>> inputs, Transaction transaction) {
+        mMethods.put(contract + ":" + selectorOf(signature), new Method(signature, inputs, null, transaction));
+    }
+
+    private void registerMethods() {
+        // Registry
+        view("Registry", "getAddressFor(bytes32)", types(new TypeReference<Bytes32>() {}), (from, to, args) -> {
+            String address = mContractsByNameHash.get(Numeric.toHexString(((Bytes32) args.get(0)).getValue()));
+
+            return values(new Address(address != null ? address : NULL_ADDRESS));
+        });
+        view("Registry", "getAddressForString(string)", types(new TypeReference<Utf8String>() {}), (from, to, args) -> {
+            String address = mContractAddresses.get(((Utf8String) args.get(0)).getValue());
+
+            return values(new Address(address != null ? address : NULL_ADDRESS));
+        });
+
+        // GasPriceMinimum
+        view("GasPriceMinimum", "getGasPriceMinimum(address)", types(new TypeReference<Address>() {}),
+                (from, to, args) -> values(new Uint256(GAS_PRICE_MINIMUM)));
+        view("GasPriceMinimum", "gasPriceMinimum()", types(),
+                (from, to, args) -> values(new Uint256(GAS_PRICE_MINIMUM)));
+
+        // Tokens
+        view("StableToken", "balanceOf(address)", types(new TypeReference<Address>() {}),
+                (from, to, args) -> values(new Uint256(stableBalanceOf(address(args, 0)))));
+        view("GoldToken", "balanceOf(address)", types(new TypeReference<Address>() {}),
+                (from, to, args) -> values(new Uint256(INITIAL_GOLD_BALANCE)));
+        view("StableToken", "allowance(address,address)", types(new TypeReference<Address>() {}, new TypeReference<Address>() {}),
+                (from, to, args) -> values(new Uint256(allowanceOf(address(args, 0), address(args, 1)))));
+        view("StableToken", "decimals()", types(), (from, to, args) -> values(new Uint8(18)));
+        transaction("StableToken", "approve(address,uint256)", types(new TypeReference<Address>() {}, new TypeReference<Uint256>() {}),
+                (from, to, args) -> mAllowances.put(from + ":" + address(args, 0), uint(args, 1)));
+        transaction("StableToken", "transfer(address,uint256)", types(new TypeReference<Address>() {}, new TypeReference<Uint256>() {}),
+                (from, to, args) -> transferStable(from, address(args, 0), uint(args, 1)));
+
+        // Accounts. Issuers sign their metadata and attestations with their account key.
+        view("Accounts", "isAccount(address)", types(new TypeReference<Address>() {}),
+                (from, to, args) -> values(new Bool(mIssuers.containsKey(address(args, 0)))));
+        for (String signer: new String[] { "getAttestationSigner", "getVoteSigner", "getValidatorSigner", "getWalletAddress" }) {
+            view("Accounts", signer + "(address)", types(new TypeReference<Address>() {}),
+                    (from, to, args) -> values(new Address(address(args, 0))));
+        }
+        view("Accounts", "getMetadataURL(address)", types(new TypeReference<Address>() {}), (from, to, args) -> {
+            Issuer issuer = mIssuers.get(address(args, 0));
+
+            return values(new Utf8String(issuer != null ? issuer.metadataURL : ""));
+        });
+        view("Accounts", "getDataEncryptionKey(address)", types(new TypeReference<Address>() {}),
+                (from, to, args) -> values(new DynamicBytes(new byte[0])));
+
+        // Attestations
+        view("Attestations", "getAttestationRequestFee(address)", types(new TypeReference<Address>() {}),
+                (from, to, args) -> values(new Uint256(ATTESTATION_FEE)));
+        view("Attestations", "selectIssuersWaitBlocks()", types(),
+                (from, to, args) -> values(new Uint256(mSelectIssuersWaitBlocks)));
+        view("Attestations", "attestationExpiryBlocks()", types(),
+                (from, to, args) -> values(new Uint256(mAttestationExpiryBlocks)));
+        view("Attestations", "maxAttestations()", types(),
+                (from, to, args) -> values(new Uint256(mIssuerAddresses.size())));
+        view("Attestations", "numberValidatorsInCurrentSet()", types(),
+                (from, to, args) -> values(new Uint256(mIssuerAddresses.size())));
+        view("Attestations", "getUnselectedRequest(bytes32,address)", types(new TypeReference<Bytes32>() {}, new TypeReference<Address>() {}), (from, to, args) -> {
+            AttestationState state = attestationState(bytes32(args, 0), address(args, 1));
+
+            return values(new Uint32(state.unselectedBlock), new Uint32(state.unselectedCount),
+                    new Address(state.unselectedCount > 0 ? mContractAddresses.get("StableToken") : NULL_ADDRESS));
+        });
+        view("Attestations", "getAttestationStats(bytes32,address)", types(new TypeReference<Bytes32>() {}, new TypeReference<Address>() {}), (from, to, args) -> {
+            AttestationState state = attestationState(bytes32(args, 0), address(args, 1));
+
+            int completed = 0;
+
+            for (IssuedAttestation attestation: state.issued) {
+                if (attestation.completed) {
+                    completed++;
+                }
+            }
+
+            return values(new Uint32(completed), new Uint32(state.issued.size()));
+        });
+        view("Attestations", "getAttestationIssuers(bytes32,address)", types(new TypeReference<Bytes32>() {}, new TypeReference<Address>() {}), (from, to, args) -> {
+            List<Address> issuers = new ArrayList<>();
+
+            for (IssuedAttestation attestation: attestationState(bytes32(args, 0), address(args, 1)).issued) {
+                issuers.add(new Address(attestation.issuer));
+            }
+
+            return values(new DynamicArray<>(Address.class, issuers));
+        });
+        view("Attestations", "getCompletableAttestations(bytes32,address)", types(new TypeReference<Bytes32>() {}, new TypeReference<Address>() {}), (from, to, args) -> {
+            long blockNumber = getBlockNumber();
+
+            List<Uint32> blockNumbers = new ArrayList<>();
+            List<Address> issuers = new ArrayList<>();
+            List<Uint256> stringLengths = new ArrayList<>();
+            StringBuilder metadataURLs = new StringBuilder();
+
+            for (IssuedAttestation attestation: attestationState(bytes32(args, 0), address(args, 1)).issued) {
+                if (attestation.completed || attestation.blockNumber + mAttestationExpiryBlocks <= blockNumber) {
+                    continue;
+                }
+
+                String metadataURL = mIssuers.get(attestation.issuer).metadataURL;
+
+                blockNumbers.add(new Uint32(attestation.blockNumber));
+                issuers.add(new Address(attestation.issuer));
+                stringLengths.add(new Uint256(metadataURL.getBytes(UTF_8).length));
+                metadataURLs.append(metadataURL);
+            }
+
+            return values(
+                    new DynamicArray<>(Uint32.class, blockNumbers),
+                    new DynamicArray<>(Address.class, issuers),
+                    new DynamicArray<>(Uint256.class, stringLengths),
+                    new DynamicBytes(metadataURLs.toString().getBytes(UTF_8)));
+        });
+        view("Attestations", "lookupAccountsForIdentifier(bytes32)", types(new TypeReference<Bytes32>() {}), (from, to, args) -> {
+            List<Address> accounts = new ArrayList<>();
+            Set<String> known = mAccountsByIdentifier.get(Numeric.toHexString(bytes32(args, 0)));
+
+            if (known != null) {
+                for (String account: known) {
+                    accounts.add(new Address(account));
+                }
+            }
+
+            return values(new DynamicArray<>(Address.class, accounts));
+        });
+        view("Attestations", "validateAttestationCode(bytes32,address,uint8,bytes32,bytes32)",
+                types(new TypeReference<Bytes32>() {}, new TypeReference<Address>() {}, new TypeReference<Uint8>() {}, new TypeReference<Bytes32>() {}, new TypeReference<Bytes32>() {}),
+                (from, to, args) -> {
+                    IssuedAttestation attestation = findAttestation(bytes32(args, 0), address(args, 1), args.get(2), args.get(3), args.get(4));
+
+                    return values(new Address(attestation != null ? attestation.issuer : NULL_ADDRESS));
+                });
+        transaction("Attestations", "request(bytes32,uint256,address)", types(new TypeReference<Bytes32>() {}, new TypeReference<Uint256>() {}, new TypeReference<Address>() {}), (from, to, args) -> {
+            AttestationState state = attestationState(bytes32(args, 0), from);
+
+            if (state.unselectedCount > 0 && state.unselectedBlock + mAttestationExpiryBlocks > getBlockNumber()) {
+                throw new Revert("There exists an unexpired, unselected attestation request");
+            }
+
+            BigInteger count = uint(args, 1);
+            BigInteger fee = ATTESTATION_FEE.multiply(count);
+            String allowanceKey = from + ":" + to;
+
+            if (allowanceOf(from, to).compareTo(fee) < 0) {
+                throw new Revert("Insufficient allowance");
+            }
+
+            transferStable(from, to, fee);
+            mAllowances.put(allowanceKey, allowanceOf(from, to).subtract(fee));
+
+            state.unselectedBlock = getBlockNumber();
+            state.unselectedCount = count.intValue();
+
+            String identifier = Numeric.toHexString(bytes32(args, 0));
+            Set<String> accounts = mAccountsByIdentifier.get(identifier);
+
+            if (accounts == null) {
+                accounts = new LinkedHashSet<>();
+                mAccountsByIdentifier.put(identifier, accounts);
+            }
+
+            accounts.add(from);
+        });
+        transaction("Attestations", "selectIssuers(bytes32)", types(new TypeReference<Bytes32>() {}), (from, to, args) -> {
+            AttestationState state = attestationState(bytes32(args, 0), from);
+
+            if (state.unselectedCount == 0) {
+                throw new Revert("No unselected attestation request to select issuers for");
+            }
+
+            long blockNumber = getBlockNumber();
+
+            if (blockNumber < state.unselectedBlock + mSelectIssuersWaitBlocks) {
+                throw new Revert("Not enough blocks have passed since the request");
+            }
+
+            List<String> candidates = new ArrayList<>(mIssuerAddresses);
+
+            for (IssuedAttestation attestation: state.issued) {
+                candidates.remove(attestation.issuer);
+            }
+
+            Collections.shuffle(candidates, mRandom);
+
+            for (int i = 0; i < state.unselectedCount && i < candidates.size(); i++) {
+                state.issued.add(new IssuedAttestation(candidates.get(i), blockNumber));
+            }
+
+            state.unselectedBlock = 0;
+            state.unselectedCount = 0;
+        });
+        transaction("Attestations", "complete(bytes32,uint8,bytes32,bytes32)",
+                types(new TypeReference<Bytes32>() {}, new TypeReference<Uint8>() {}, new TypeReference<Bytes32>() {}, new TypeReference<Bytes32>() {}),
+                (from, to, args) -> {
+                    IssuedAttestation attestation = findAttestation(bytes32(args, 0), from, args.get(1), args.get(2), args.get(3));
+
+                    if (attestation == null) {
+                        throw new Revert("Invalid attestation code");
+                    }
+
+                    attestation.completed = true;
+                });
+    }
+
+    // Attestation codes are the issuer's signature of keccak(identifier ++ account).
+    private IssuedAttestation findAttestation(byte[] identifier, String account, Type v, Type r, Type s) {
+        byte[] accountBytes = Numeric.hexStringToByteArray(account);
+        byte[] message = new byte[identifier.length + accountBytes.length];
+        System.arraycopy(identifier, 0, message, 0, identifier.length);
+        System.arraycopy(accountBytes, 0, message, identifier.length, accountBytes.length);
+
+        String signer;
+
+        try {
+            Sign.SignatureData signature = new Sign.SignatureData(
+                    ((Uint8) v).getValue().byteValue(),
+                    ((Bytes32) r).getValue(),
+                    ((Bytes32) s).getValue());
+
+            signer = "0x" + Keys.getAddress(Sign.signedPrefixedMessageToKey(Hash.sha3(message), signature));
+        } catch (Exception e) {
+            return null;
+        }
+
+        for (IssuedAttestation attestation: attestationState(identifier, account).issued) {
+            if (attestation.issuer.equals(signer) && !attestation.completed) {
+                return attestation;
+            }
+        }
+
+        return null;
+    }
+
+    private AttestationState attestationState(byte[] identifier, String account) {
+        String key = attestationKey(identifier, account);
+
+        AttestationState state = mAttestations.get(key);
+
+        if (state == null) {
+            state = new AttestationState();
+            mAttestations.put(key, state);
+        }
+
+        return state;
+    }
+
+    private static String attestationKey(byte[] identifier, String account) {
+        return Numeric.toHexString(identifier) + ":" + account.toLowerCase(Locale.US);
+    }
+
+    private BigInteger stableBalanceOf(String account) {
+        BigInteger balance = mStableBalances.get(account);
+
+        return balance != null ? balance : INITIAL_STABLE_BALANCE;
+    }
+
+    private BigInteger allowanceOf(String owner, String spender) {
+        BigInteger allowance = mAllowances.get(owner + ":" + spender);
+
+        return allowance != null ? allowance : BigInteger.ZERO;
+    }
+
+    private void transferStable(String from, String to, BigInteger value) throws Revert {
+        BigInteger balance = stableBalanceOf(from);
+
+        if (balance.compareTo(value) < 0) {
+            throw new Revert("Insufficient balance");
+        }
+
+        mStableBalances.put(from, balance.subtract(value));
+        mStableBalances.put(to, stableBalanceOf(to).add(value));
+    }
+
+    private synchronized long nonceOf(String address) {
+        Long nonce = mNonces.get(address.toLowerCase(Locale.US));
+
+        return nonce != null ? nonce : 0;
+    }
+
+    private static String address(List<Type> args, int index) {
+        return ((Address) args.get(index)).getValue().toLowerCase(Locale.US);
+    }
+
+    private static BigInteger uint(List<Type> args, int index) {
+        return (BigInteger) args.get(index).getValue();
+    }
+
+    private static byte[] bytes32(List<Type> args, int index) {
+        return ((Bytes32) args.get(index)).getValue();
+    }
+
+    private static List<TypeReference<?>> types(TypeReference<?>... types) {
+        return Arrays.asList(types);
+    }
+
+    private static List<Type> values(Type... values) {
+        return Arrays.asList(values);
+    }
+
+    private static String selectorOf(String signature) {
+        return Numeric.toHexString(Hash.sha3(signature.getBytes(UTF_8))).substring(0, 10);
+    }
+
+    private static String blockHash(long blockNumber) {
+        return Numeric.toHexString(Hash.sha3(BigInteger.valueOf(blockNumber).toByteArray()));
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[4096];
+
+        int size;
+
+        while ((size = in.read(buffer)) != -1) {
+            out.write(buffer, 0, size);
+        }
+
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+}
@@ -0,0 +1,138 @@
+package works.heymate.celo.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for ODIS /getBlindedMessageSig. Checks the request the way ODIS does, enforces
+ * a per-account query quota and answers with the blinded message itself as the signature.
+ *
+ * Echoing is the blind signature of the secret key 1, so salts unblind and verify when the SDK is
+ * configured with the matching public key, the serialized G2 generator. Salts are pre-seeded otherwise.
+ */
+public class FakeOdis {
+
+    private static final String VERSION = "1.1.0";
+
+    private final int mQuota;
+    private final long mResponseDelayMillis;
+
+    private final Map<String, AtomicInteger> mQueries = new ConcurrentHashMap<>();
+    private final AtomicInteger mTotalQueries = new AtomicInteger();
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    /**
+     * @param quota Queries allowed per account. 0 for no limit.
+     */
+    public FakeOdis(int quota, long responseDelayMillis) {
+        mQuota = quota;
+        mResponseDelayMillis = responseDelayMillis;
+    }
+
+    public synchronized String start() throws IOException {
+        mExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FakeOdis");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/getBlindedMessageSig", this::handle);
+        mServer.start();
+
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+            mServer = null;
+        }
+    }
+
+    public int getTotalQueries() {
+        return mTotalQueries.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (mResponseDelayMillis > 0) {
+                Thread.sleep(mResponseDelayMillis);
+            }
+
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                FakeAttestationServices.respond(exchange, 405, "{}");
+                return;
+            }
+
+            JSONObject request = new JSONObject(FakeCeloNode.readFully(exchange.getRequestBody()));
+
+            String account = request.getString("account");
+            String blindedQueryPhoneNumber = request.getString("blindedQueryPhoneNumber");
+
+            if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+                FakeAttestationServices.respond(exchange, 401, error("Missing authorization"));
+                return;
+            }
+
+            mTotalQueries.incrementAndGet();
+
+            AtomicInteger queries = mQueries.get(account);
+
+            if (queries == null) {
+                mQueries.putIfAbsent(account, new AtomicInteger());
+                queries = mQueries.get(account);
+            }
+
+            int performedQueryCount = queries.incrementAndGet();
+
+            if (mQuota > 0 && performedQueryCount > mQuota) {
+                FakeAttestationServices.respond(exchange, 403, error("odisQuotaError"));
+                return;
+            }
+
+            JSONObject response = new JSONObject();
+            response.put("success", true);
+            response.put("combinedSignature", blindedQueryPhoneNumber.trim());
+            response.put("version", VERSION);
+
+            if (mQuota > 0) {
+                response.put("performedQueryCount", performedQueryCount);
+                response.put("totalQuota", mQuota);
+            }
+
+            FakeAttestationServices.respond(exchange, 200, response.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            FakeAttestationServices.respond(exchange, 503, "{}");
+        } catch (JSONException e) {
+            FakeAttestationServices.respond(exchange, 400, error("odisBadInputError"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String error(String message) {
+        try {
+            return new JSONObject().put("success", false).put("error", message).toString();
+        } catch (JSONException e) {
+            return "{}";
+        }
+    }
+
+}
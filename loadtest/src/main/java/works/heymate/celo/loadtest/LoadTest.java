@@ -0,0 +1,476 @@
+package works.heymate.celo.loadtest;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Keys;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java8.util.concurrent.CompletableFuture;
+import works.heymate.celo.CeloAccount;
+import works.heymate.celo.CeloContext;
+import works.heymate.celo.CeloException;
+import works.heymate.celo.CeloSDK;
+import works.heymate.celo.CeloToken;
+import works.heymate.celo.MetricsSink;
+import works.heymate.celo.SaltStore;
+
+/**
+ * Runs simulated users through the SDK against the local stand-ins and reports throughput, latency
+ * percentiles and JSON-RPC calls per flow.
+ *
+ * Usage: LoadTest [--users 50] [--iterations 20] [--issuers 10] [--block-time 200] [--wait-blocks 3]
+ *                 [--issuer-delay 20] [--odis-delay 50] [--flows lookup,balance,attestation]
+ *                 [--odis-public-key base64] [--verbose]
+ */
+public class LoadTest {
+
+    private static final int CHAIN_ID = 44787;
+
+    private static final long OPERATION_TIMEOUT_SECONDS = 300;
+    private static final long MESSAGE_TIMEOUT_MILLIS = 500;
+
+    private static final int SALT_LENGTH = 13;
+
+    private interface Operation {
+
+        /**
+         * @return false if the user has nothing left to do in this flow.
+         */
+        boolean run(User user) throws Exception;
+
+    }
+
+    private static class User {
+
+        final String phoneNumber;
+        final String address;
+        final CeloSDK sdk;
+
+        final Queue<String> messages = new ConcurrentLinkedQueue<>();
+
+        User(String phoneNumber, String address, CeloSDK sdk) {
+            this.phoneNumber = phoneNumber;
+            this.address = address;
+            this.sdk = sdk;
+        }
+
+    }
+
+    private static class FlowResult {
+
+        final String name;
+        final List<Long> latenciesNanos;
+        final int errors;
+        final long wallNanos;
+        final Map<String, Long> rpcCalls;
+        final long httpRequests;
+
+        FlowResult(String name, List<Long> latenciesNanos, int errors, long wallNanos, Map<String, Long> rpcCalls, long httpRequests) {
+            this.name = name;
+            this.latenciesNanos = latenciesNanos;
+            this.errors = errors;
+            this.wallNanos = wallNanos;
+            this.rpcCalls = rpcCalls;
+            this.httpRequests = httpRequests;
+        }
+
+        double percentileMillis(double percentile) {
+            if (latenciesNanos.isEmpty()) {
+                return 0;
+            }
+
+            int index = (int) Math.ceil(percentile / 100d * latenciesNanos.size()) - 1;
+
+            return latenciesNanos.get(Math.max(0, index)) / 1_000_000d;
+        }
+
+    }
+
+    // Counts the calls of the flow that is running. Flows run one at a time.
+    private static class FlowRpcCounter implements MetricsSink {
+
+        private volatile Map<String, AtomicLong> mCalls = new ConcurrentHashMap<>();
+        private final AtomicLong mHttpRequests = new AtomicLong();
+
+        @Override
+        public void onRpcCall(String method, String function, long durationNanos, long requestBytes, long responseBytes, boolean failed) {
+            // Calls inside a batch are reported with no bytes of their own.
+            if (requestBytes > 0) {
+                mHttpRequests.incrementAndGet();
+            }
+
+            if ("batch".equals(method)) {
+                return;
+            }
+
+            String key = function != null ? method + " " + function : method;
+
+            AtomicLong count = mCalls.get(key);
+
+            if (count == null) {
+                mCalls.putIfAbsent(key, new AtomicLong());
+                count = mCalls.get(key);
+            }
+
+            count.incrementAndGet();
+        }
+
+        void reset() {
+            mCalls = new ConcurrentHashMap<>();
+            mHttpRequests.set(0);
+        }
+
+        Map<String, Long> calls() {
+            Map<String, Long> calls = new TreeMap<>();
+
+            for (Map.Entry<String, AtomicLong> call: mCalls.entrySet()) {
+                calls.put(call.getKey(), call.getValue().get());
+            }
+
+            return calls;
+        }
+
+        long httpRequests() {
+            return mHttpRequests.get();
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        int userCount = Integer.parseInt(option(options, "users", "50"));
+        int iterations = Integer.parseInt(option(options, "iterations", "20"));
+        int issuerCount = Integer.parseInt(option(options, "issuers", "10"));
+        long blockTimeMillis = Long.parseLong(option(options, "block-time", "200"));
+        int waitBlocks = Integer.parseInt(option(options, "wait-blocks", "3"));
+        long issuerDelayMillis = Long.parseLong(option(options, "issuer-delay", "20"));
+        long odisDelayMillis = Long.parseLong(option(options, "odis-delay", "50"));
+        List<String> flows = Arrays.asList(option(options, "flows", "lookup,balance,attestation").split(","));
+        String odisPublicKey = options.get("odis-public-key");
+
+        if (options.containsKey("verbose")) {
+            Log.setMinPriority(Log.DEBUG);
+        }
+
+        FakeAttestationServices attestationServices = new FakeAttestationServices(issuerCount, issuerDelayMillis);
+        attestationServices.start();
+
+        System.setProperty("http.proxyHost", "127.0.0.1");
+        System.setProperty("http.proxyPort", String.valueOf(attestationServices.getPort()));
+        System.setProperty("http.nonProxyHosts", "127.0.0.1|localhost");
+
+        FakeCeloNode node = new FakeCeloNode(CHAIN_ID, blockTimeMillis, waitBlocks, attestationServices.getIssuers());
+        String nodeURL = node.start();
+
+        attestationServices.setNode(node);
+
+        FakeOdis odis = new FakeOdis(0, odisDelayMillis);
+        String odisURL = odis.start();
+
+        File dataDirectory = Files.createTempDirectory("celosdk-loadtest").toFile();
+        Context context = new Context(dataDirectory);
+
+        CeloContext celoContext = new CeloContext(nodeURL, CHAIN_ID, odisURL, odisPublicKey != null ? odisPublicKey : "");
+
+        FlowRpcCounter rpcCounter = new FlowRpcCounter();
+
+        List<User> users = createUsers(context, celoContext, userCount, rpcCounter);
+
+        // Salts come from ODIS only when its public key is known, see FakeOdis.
+        if (odisPublicKey == null) {
+            seedSalts(context, users);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "LoadTest");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<FlowResult> results = new ArrayList<>();
+
+        try {
+            Random random = new Random();
+
+            if (flows.contains("lookup")) {
+                results.add(runFlow("lookupPhoneNumber", users, iterations, rpcCounter, user -> {
+                    User other = users.get(random.nextInt(users.size()));
+
+                    user.sdk.lookupPhoneNumberAsync(other.phoneNumber, executor).get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    return true;
+                }));
+            }
+
+            if (flows.contains("balance")) {
+                results.add(runFlow("getBalances", users, iterations, rpcCounter, user -> {
+                    user.sdk.getBalancesAsync(Collections.singletonList(user.address), Arrays.asList(CeloToken.CUSD, CeloToken.CELO), executor)
+                            .get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    return true;
+                }));
+            }
+
+            if (flows.contains("attestation")) {
+                results.add(runFlow("requestAttestations", users, 1, rpcCounter, LoadTest::requestAttestations));
+
+                // Messages are collected up front so that waiting for them is not timed.
+                for (User user: users) {
+                    String message;
+
+                    while ((message = attestationServices.takeMessage(user.phoneNumber, MESSAGE_TIMEOUT_MILLIS)) != null) {
+                        user.messages.add(message);
+                    }
+                }
+
+                results.add(runFlow("completeAttestation", users, Integer.MAX_VALUE, rpcCounter, LoadTest::completeAttestation));
+            }
+        } finally {
+            executor.shutdownNow();
+            odis.stop();
+            node.stop();
+            attestationServices.stop();
+        }
+
+        report(results, userCount, odis.getTotalQueries());
+    }
+
+    private static boolean requestAttestations(User user) throws Exception {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        user.sdk.requestAttestationsForPhoneNumber(user.phoneNumber, (countsAreReliable, newAttestations, totalAttestations, completedAttestations, errorCause) -> {
+            if (errorCause != null) {
+                future.completeExceptionally(errorCause);
+            }
+            else {
+                future.complete(null);
+            }
+        });
+
+        future.get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        return true;
+    }
+
+    private static boolean completeAttestation(User user) throws Exception {
+        String message = user.messages.poll();
+
+        if (message == null) {
+            return false;
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        user.sdk.completeAttestationForPhoneNumber(user.phoneNumber, message, (verified, completed, total, remaining, errorCause) -> {
+            if (errorCause != null) {
+                future.completeExceptionally(errorCause);
+            }
+            else {
+                future.complete(null);
+            }
+        });
+
+        future.get(OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        return true;
+    }
+
+    private static FlowResult runFlow(String name, List<User> users, int iterations, FlowRpcCounter rpcCounter, Operation operation) throws InterruptedException {
+        System.out.println("Running " + name + " for " + users.size() + " users...");
+
+        rpcCounter.reset();
+
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicInteger errors = new AtomicInteger();
+        Map<String, AtomicInteger> errorKinds = new ConcurrentHashMap<>();
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(users.size());
+
+        for (User user: users) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+
+                    for (int i = 0; i < iterations; i++) {
+                        long startNanos = System.nanoTime();
+
+                        try {
+                            if (!operation.run(user)) {
+                                break;
+                            }
+
+                            latencies.add(System.nanoTime() - startNanos);
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+
+                            String kind = describe(e);
+                            errorKinds.putIfAbsent(kind, new AtomicInteger());
+                            errorKinds.get(kind).incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "User-" + user.phoneNumber);
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long startNanos = System.nanoTime();
+
+        start.countDown();
+        done.await();
+
+        long wallNanos = System.nanoTime() - startNanos;
+
+        for (Map.Entry<String, AtomicInteger> errorKind: errorKinds.entrySet()) {
+            System.out.println("  " + errorKind.getValue().get() + " x " + errorKind.getKey());
+        }
+
+        List<Long> sortedLatencies = new ArrayList<>(latencies);
+        Collections.sort(sortedLatencies);
+
+        return new FlowResult(name, sortedLatencies, errors.get(), wallNanos, rpcCounter.calls(), rpcCounter.httpRequests());
+    }
+
+    private static List<User> createUsers(Context context, CeloContext celoContext, int count, MetricsSink rpcSink) {
+        SecureRandom random = new SecureRandom();
+
+        List<User> users = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            byte[] privateKey = new byte[32];
+            random.nextBytes(privateKey);
+
+            ECKeyPair keyPair = ECKeyPair.create(privateKey);
+            CeloAccount account = new CeloAccount(keyPair.getPrivateKey().toString(16), keyPair.getPublicKey().toString(16));
+
+            CeloSDK sdk = new CeloSDK(context, celoContext, account);
+            sdk.getRpcMetrics().addSink(rpcSink);
+
+            users.add(new User(String.format(Locale.US, "+1555%07d", i), "0x" + Keys.getAddress(keyPair), sdk));
+        }
+
+        return users;
+    }
+
+    private static void seedSalts(Context context, List<User> users) {
+        SaltStore saltStore = SaltStore.get(context);
+        SecureRandom random = new SecureRandom();
+
+        for (User user: users) {
+            byte[] bytes = new byte[32];
+            random.nextBytes(bytes);
+
+            saltStore.put(user.phoneNumber, Base64.getEncoder().encodeToString(bytes).substring(0, SALT_LENGTH));
+        }
+    }
+
+    private static void report(List<FlowResult> results, int userCount, int odisQueries) {
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%d simulated users, %d ODIS queries", userCount, odisQueries));
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%-22s %8s %7s %10s %10s %10s %12s %12s",
+                "flow", "ops", "errors", "ops/s", "p50 ms", "p99 ms", "rpc/op", "http/op"));
+
+        for (FlowResult result: results) {
+            int ops = result.latenciesNanos.size();
+            long rpcCalls = 0;
+
+            for (long calls: result.rpcCalls.values()) {
+                rpcCalls += calls;
+            }
+
+            int attempts = Math.max(1, ops + result.errors);
+
+            System.out.println(String.format(Locale.US, "%-22s %8d %7d %10.1f %10.1f %10.1f %12.1f %12.1f",
+                    result.name, ops, result.errors, ops / (result.wallNanos / 1_000_000_000d),
+                    result.percentileMillis(50), result.percentileMillis(99),
+                    rpcCalls / (double) attempts, result.httpRequests / (double) attempts));
+        }
+
+        for (FlowResult result: results) {
+            System.out.println();
+            System.out.println("RPC calls of " + result.name);
+
+            for (Map.Entry<String, Long> calls: result.rpcCalls.entrySet()) {
+                System.out.println(String.format(Locale.US, "  %-70s %8d", calls.getKey(), calls.getValue()));
+            }
+        }
+    }
+
+    private static String describe(Throwable t) {
+        StringBuilder sb = new StringBuilder();
+
+        while (t != null) {
+            if (sb.length() > 0) {
+                sb.append(" <- ");
+            }
+
+            sb.append(t instanceof CeloException ? "CeloException(" + ((CeloException) t).getError() + ")" : t.getClass().getSimpleName());
+
+            if (t.getMessage() != null && !(t instanceof CeloException)) {
+                sb.append(": ").append(t.getMessage());
+            }
+
+            t = t.getCause();
+        }
+
+        return sb.toString();
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+
+            String key = args[i].substring(2);
+
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(key, args[++i]);
+            }
+            else {
+                options.put(key, "");
+            }
+        }
+
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+
+        return value != null ? value : defaultValue;
+    }
+
+}